@@ -0,0 +1,269 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Statistiques de ventes en temps réel, consultées par l'administrateur (commandes "ventes", "top_ventes", "ventes_produit").
+// Sur le chemin de "commander", une commande est seulement déposée dans une file sans verrou (le thread est réveillé
+// si la file était vide) ; un seul thread ("analyse-ventes") la dépouille ensuite et tient à jour, sans verrou puisqu'il est le seul à écrire :
+// - par produit : unités vendues, chiffre d'affaires et rythme de vente (moyenne mobile exponentielle, sur 5 minutes
+//   environ), qui donne avec la quantité en stock une estimation du temps avant rupture ;
+// - les meilleures ventes : les TOP_MAX produits ayant vendu le plus d'unités. Les compteurs ne faisant que croître,
+//   un produit ne peut entrer dans ce classement qu'en dépassant le dernier au moment de sa vente : le classement,
+//   borné, reste exact sans jamais trier tout le catalogue ;
+// - une fenêtre glissante d'une minute, en cases d'une seconde (commandes, unités, chiffre d'affaires).
+// Les requêtes ne lisent que ces agrégats : leur coût ne dépend ni du nombre de commandes ni du nombre de produits.
+public class AnalyseVentes {
+    public static final int TOP_MAX = 100; // Taille du classement des meilleures ventes
+    private static final int FENETRE_S = 60; // Durée de la fenêtre glissante, en secondes
+    private static final double CONSTANTE_RYTHME_MS = 5 * 60_000.0; // Constante de temps de la moyenne mobile du rythme
+
+    private final Map<String, Produit> stock;
+    private final ConcurrentLinkedQueue<Commande> aTraiter = new ConcurrentLinkedQueue<>(); // Déposées par les threads clients
+    private final Map<String, VentesProduit> parProduit = new ConcurrentHashMap<>();
+    private volatile VentesProduit[] meilleures = new VentesProduit[TOP_MAX]; // Réaffecté après chaque entrée, pour la publication
+    private volatile int nombreMeilleures;
+    private final AtomicLong enAttente = new AtomicLong(); // Commandes comptées dans la file, ou en cours de traitement
+
+    // Totaux depuis le démarrage (commandes restaurées du journal comprises) ; écrits par le seul thread d'analyse
+    private volatile long totalCommandes;
+    private volatile long totalUnites;
+    private volatile long totalCentimes;
+
+    // Fenêtre glissante : la case (seconde % FENETRE_S) porte les chiffres de la seconde "secondes[case]"
+    private final AtomicLongArray secondes = new AtomicLongArray(FENETRE_S);
+    private final AtomicLongArray commandesFenetre = new AtomicLongArray(FENETRE_S);
+    private final AtomicLongArray unitesFenetre = new AtomicLongArray(FENETRE_S);
+    private final AtomicLongArray centimesFenetre = new AtomicLongArray(FENETRE_S);
+
+    private volatile Thread thread;
+
+    // Ventes d'un produit (écrites par le seul thread d'analyse, lues par les requêtes)
+    public static final class VentesProduit {
+        private final String id;
+        private volatile long unites;
+        private volatile long centimes;
+        private volatile double rythme; // Unités par minute à l'instant "derniereVente"
+        private volatile long derniereVente; // En ms, 0 si le produit n'a été vendu qu'avant le démarrage
+        private boolean classe; // Présent dans le classement des meilleures ventes (thread d'analyse uniquement)
+
+        VentesProduit(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getUnites() {
+            return unites;
+        }
+
+        public double getChiffreAffaires() {
+            return centimes / 100.0;
+        }
+
+        // Rythme de vente actuel, en unités par minute : il décroît tant que le produit ne se vend plus
+        public double getRythme(long maintenant) {
+            long derniere = derniereVente;
+            if (derniere == 0) {
+                return 0;
+            }
+            return rythme * Math.exp(-Math.max(0, maintenant - derniere) / CONSTANTE_RYTHME_MS);
+        }
+    }
+
+    // Constructeur de l'analyse ; les commandes restaurées du journal comptent dans les totaux,
+    // mais pas dans la fenêtre ni dans le rythme de vente
+    public AnalyseVentes(Map<String, Produit> stock, Map<String, HistoriqueCommandes> commandes) {
+        this.stock = stock;
+        for (HistoriqueCommandes liste : commandes.values()) {
+            for (Commande commande : liste) {
+                comptabiliser(commande, 0);
+            }
+        }
+    }
+
+    // Méthode pour démarrer le thread d'analyse
+    public synchronized void demarrer() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this::tourner, "analyse-ventes");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Méthode pour arrêter le thread d'analyse (les commandes encore en file ne sont pas comptées)
+    public synchronized void arreter() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    // Méthode appelée après chaque commande passée ; ne bloque jamais. Le thread d'analyse n'est réveillé que si la
+    // file était vide : tant qu'elle ne l'est pas, il la vide sans se mettre en pause.
+    public void commandePassee(Commande commande) {
+        aTraiter.add(commande); // Avant le compte : une commande comptée est toujours dans la file
+        if (enAttente.getAndIncrement() == 0) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // Boucle du thread d'analyse : vide la file, puis se met en pause jusqu'au dépôt suivant. Le compte n'est
+    // décrémenté qu'après le traitement : un dépôt qui le fait passer de 0 à 1 trouve le thread en pause (ou sur le
+    // point de l'être, le réveil n'est alors pas perdu).
+    private void tourner() {
+        while (!Thread.currentThread().isInterrupted()) {
+            if (enAttente.get() == 0) {
+                LockSupport.park(this);
+                continue;
+            }
+            comptabiliser(aTraiter.poll(), System.currentTimeMillis());
+            enAttente.decrementAndGet();
+        }
+    }
+
+    // Ajoute une commande aux agrégats ; "maintenant" vaut 0 pour une commande restaurée.
+    // Le chiffre d'affaires de chaque ligne est exact : la commande garde le prix unitaire payé pour chaque produit.
+    private void comptabiliser(Commande commande, long maintenant) {
+        int lignes = commande.getNombreLignes();
+        long totalCommande = 0;
+        long unitesCommande = 0;
+        for (int i = 0; i < lignes; i++) {
+            long centimes = commande.getPrix(i) * commande.getQuantite(i);
+            totalCommande += centimes;
+            unitesCommande += commande.getQuantite(i);
+            vendre(commande.getProduit(i), commande.getQuantite(i), centimes, maintenant);
+        }
+
+        totalCommandes++;
+        totalUnites += unitesCommande;
+        totalCentimes += totalCommande;
+        if (maintenant > 0) {
+            long seconde = maintenant / 1000;
+            int numero = (int) (seconde % FENETRE_S);
+            if (secondes.get(numero) != seconde) {
+                // Case d'une seconde trop ancienne : elle est remise à zéro avant d'être réutilisée
+                commandesFenetre.set(numero, 0);
+                unitesFenetre.set(numero, 0);
+                centimesFenetre.set(numero, 0);
+                secondes.set(numero, seconde);
+            }
+            commandesFenetre.set(numero, commandesFenetre.get(numero) + 1);
+            unitesFenetre.set(numero, unitesFenetre.get(numero) + unitesCommande);
+            centimesFenetre.set(numero, centimesFenetre.get(numero) + totalCommande);
+        }
+    }
+
+    private void vendre(String id, int quantite, long centimes, long maintenant) {
+        VentesProduit ventes = parProduit.computeIfAbsent(id, VentesProduit::new);
+        ventes.unites += quantite;
+        ventes.centimes += centimes;
+        if (maintenant > 0) {
+            ventes.rythme = ventes.getRythme(maintenant) + quantite * 60_000.0 / CONSTANTE_RYTHME_MS;
+            ventes.derniereVente = maintenant;
+        }
+        classer(ventes);
+    }
+
+    // Fait entrer le produit dans le classement s'il y a de la place ou s'il dépasse le dernier
+    private void classer(VentesProduit ventes) {
+        if (ventes.classe) {
+            return; // Déjà classé : sa place est recalculée à la lecture
+        }
+        VentesProduit[] tableau = meilleures;
+        int nombre = nombreMeilleures;
+        if (nombre < TOP_MAX) {
+            tableau[nombre] = ventes;
+            ventes.classe = true;
+            nombreMeilleures = nombre + 1;
+            return;
+        }
+        int dernier = 0;
+        for (int i = 1; i < nombre; i++) {
+            if (tableau[i].unites < tableau[dernier].unites) {
+                dernier = i;
+            }
+        }
+        if (ventes.unites > tableau[dernier].unites) {
+            tableau[dernier].classe = false;
+            tableau[dernier] = ventes;
+            ventes.classe = true;
+            meilleures = tableau; // Écriture volatile : publie la nouvelle entrée
+        }
+    }
+
+    // Méthode pour obtenir les "k" produits les plus vendus (en unités), du premier au dernier
+    public List<VentesProduit> meilleuresVentes(int k) {
+        int nombre = nombreMeilleures;
+        VentesProduit[] tableau = meilleures;
+        List<VentesProduit> liste = new ArrayList<>(nombre);
+        for (int i = 0; i < nombre; i++) {
+            liste.add(tableau[i]);
+        }
+        liste.sort((a, b) -> Long.compare(b.getUnites(), a.getUnites()));
+        return liste.subList(0, Math.min(k, liste.size()));
+    }
+
+    // Méthode pour obtenir les ventes d'un produit, ou null s'il n'a jamais été vendu
+    public VentesProduit ventesProduit(String id) {
+        return parProduit.get(id);
+    }
+
+    // Méthode pour obtenir les chiffres des "duree" dernières secondes : {commandes, unités, centimes}
+    public long[] fenetre(int duree, long maintenant) {
+        long seconde = maintenant / 1000;
+        long[] chiffres = new long[3];
+        for (int i = 0; i < FENETRE_S; i++) {
+            long ecart = seconde - secondes.get(i);
+            if (ecart >= 0 && ecart < Math.min(duree, FENETRE_S)) {
+                chiffres[0] += commandesFenetre.get(i);
+                chiffres[1] += unitesFenetre.get(i);
+                chiffres[2] += centimesFenetre.get(i);
+            }
+        }
+        return chiffres;
+    }
+
+    // Méthode pour produire le résumé des ventes (commande "ventes")
+    public String resume() {
+        long maintenant = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "Depuis le démarrage : %d commandes, %d unités, %.2f de chiffre d'affaires.%n",
+                totalCommandes, totalUnites, totalCentimes / 100.0));
+        for (int duree : new int[] {10, FENETRE_S}) {
+            long[] chiffres = fenetre(duree, maintenant);
+            sb.append(String.format(Locale.ROOT, "Dernières %d s : %d commandes (%.2f/s), %d unités, %.2f de chiffre d'affaires (%.2f/s).%n",
+                    duree, chiffres[0], chiffres[0] / (double) duree, chiffres[1], chiffres[2] / 100.0, chiffres[2] / 100.0 / duree));
+        }
+        long attente = enAttente.get();
+        if (attente > 0) {
+            sb.append("Commandes pas encore comptées : ").append(attente).append(".\n");
+        }
+        return sb.toString();
+    }
+
+    // Méthode pour décrire les ventes d'un produit : unités, chiffre d'affaires, rythme et rupture estimée
+    public String decrire(VentesProduit ventes) {
+        long maintenant = System.currentTimeMillis();
+        double rythme = ventes.getRythme(maintenant);
+        StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%s : %d unités, %.2f de chiffre d'affaires, %.2f unités/min",
+                ventes.getId(), ventes.getUnites(), ventes.getChiffreAffaires(), rythme));
+        Produit produit = stock.get(ventes.getId());
+        if (produit == null) {
+            sb.append(", produit supprimé");
+        } else {
+            int quantite = produit.getQuantite();
+            sb.append(", stock ").append(quantite);
+            if (quantite == 0) {
+                sb.append(", en rupture");
+            } else if (rythme >= 0.01) {
+                sb.append(String.format(Locale.ROOT, ", rupture estimée dans %.0f min", quantite / rythme));
+            }
+        }
+        return sb.append('.').toString();
+    }
+}
@@ -0,0 +1,381 @@
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Banc de mesure des chemins critiques du serveur, exécutés dans le même processus (sans réseau) :
+//   chariot           : Chariot.ajouterProduit, sur un chariot de "taille" produits
+//   commande          : construction d'une Commande (copie de la carte des produits)
+//   commander         : la commande "commander" complète de ClientHandler (réservation, Commande, réponse)
+//   catalogue         : rendu du catalogue complet
+//   catalogue_page    : une page de 50 produits à une position aléatoire
+//   catalogue_filtre  : les 50 premiers produits dont le nom commence par un préfixe
+// Chaque combinaison (threads, produits, taille de chariot) est mesurée après une phase d'échauffement ; on affiche le débit,
+// les centiles de latence, les octets alloués par opération et l'activité du ramasse-miettes pendant la mesure.
+//
+// Exemple : java BenchmarkStock --scenarios=commander,catalogue --threads=1,8 --produits=10,100000 --chariot=1,10
+public class BenchmarkStock {
+    private static final String[] TOUS_LES_SCENARIOS = {"chariot", "commande", "commander", "catalogue", "catalogue_page", "catalogue_filtre", "recherche"};
+    private static final int TAILLE_PAGE = 50;
+
+    // Une opération mesurée, exécutée par un seul thread ; la valeur renvoyée est consommée pour ne pas être éliminée par le JIT
+    private interface Operation {
+        long executer() throws Exception;
+    }
+
+    // Paramètres d'une mesure
+    private static final class Configuration {
+        final String scenario;
+        final int threads;
+        final int produits;
+        final int tailleChariot;
+
+        Configuration(String scenario, int threads, int produits, int tailleChariot) {
+            this.scenario = scenario;
+            this.threads = threads;
+            this.produits = produits;
+            this.tailleChariot = tailleChariot;
+        }
+    }
+
+    // État partagé d'une mesure : le stock et le contexte du serveur, construits une fois pour tous les threads
+    private static final class Banc {
+        final Configuration configuration;
+        final String[] ids;
+        final ContexteServeur contexte;
+        final AtomicLong unitesCommandees = new AtomicLong();
+
+        Banc(Configuration configuration, int quantiteInitiale) throws IOException {
+            this.configuration = configuration;
+            this.ids = new String[configuration.produits];
+            // Les livraisons avancent sans délai : le planificateur traite les commandes mesurées au fil de l'eau
+            this.contexte = new ContexteServeur(new ConcurrentHashMap<>(),
+                    new GestionnaireSessions(new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), 1800, 100000, null),
+                    new PlanificateurLivraisons(PlanificateurLivraisons.Distribution.lire("fixe:0"), false), null);
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = String.format("P%07d", i);
+                contexte.getServiceStock().ajouterProduit(ids[i], "Produit" + i, quantiteInitiale, 1.0 + i % 100);
+            }
+        }
+
+        long quantiteTotale() {
+            long total = 0;
+            for (Produit produit : contexte.getStock().values()) {
+                total += produit.getQuantite();
+            }
+            return total;
+        }
+    }
+
+    // Flux qui ne garde que le nombre d'octets écrits
+    private static final class SortieNulle extends OutputStream {
+        long octets;
+
+        @Override
+        public void write(int b) {
+            octets++;
+        }
+
+        @Override
+        public void write(byte[] b, int debut, int longueur) {
+            octets += longueur;
+        }
+    }
+
+    // Résultat d'un thread de mesure
+    private static final class ResultatThread {
+        final HistogrammeLatence latences = new HistogrammeLatence();
+        long operations;
+        long octetsAlloues = -1;
+    }
+
+    private static volatile int phase; // 0 : échauffement, 1 : mesure, 2 : arrêt
+    private static volatile long puits; // Reçoit les valeurs des opérations
+
+    public static void main(String[] args) throws Exception {
+        List<String> scenarios = Arrays.asList(TOUS_LES_SCENARIOS);
+        int[] threads = {1, 4};
+        int[] produits = {10, 1000, 100000};
+        int[] chariots = {1, 10};
+        int echauffement = 2;
+        int mesure = 5;
+        int quantiteInitiale = 1_000_000_000;
+
+        for (String arg : args) {
+            if (arg.startsWith("--scenarios=")) {
+                scenarios = Arrays.asList(arg.substring("--scenarios=".length()).split(","));
+            } else if (arg.startsWith("--threads=")) {
+                threads = entiers(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--produits=")) {
+                produits = entiers(arg.substring("--produits=".length()));
+            } else if (arg.startsWith("--chariot=")) {
+                chariots = entiers(arg.substring("--chariot=".length()));
+            } else if (arg.startsWith("--echauffement=")) {
+                echauffement = Integer.parseInt(arg.substring("--echauffement=".length()));
+            } else if (arg.startsWith("--mesure=")) {
+                mesure = Integer.parseInt(arg.substring("--mesure=".length()));
+            } else if (arg.startsWith("--quantite=")) {
+                quantiteInitiale = Integer.parseInt(arg.substring("--quantite=".length()));
+            } else {
+                System.err.println("Option inconnue : " + arg);
+                return;
+            }
+        }
+        for (String scenario : scenarios) {
+            if (!Arrays.asList(TOUS_LES_SCENARIOS).contains(scenario)) {
+                System.err.println("Scénario inconnu : " + scenario + " (disponibles : " + String.join(", ", TOUS_LES_SCENARIOS) + ")");
+                return;
+            }
+        }
+
+        GestionnaireStockServer.setAdminConnected(true); // Les ClientHandler du banc ouvrent tous une session client
+
+        System.out.printf("%-17s %7s %9s %7s %14s %10s %10s %10s %10s %12s %10s%n",
+                "scenario", "threads", "produits", "chariot", "ops/s", "p50(µs)", "p99(µs)", "p99.9(µs)", "max(µs)", "octets/op", "gc(n/ms)");
+        for (String scenario : scenarios) {
+            boolean avecProduits = !scenario.equals("chariot") && !scenario.equals("commande");
+            boolean avecChariot = !scenario.startsWith("catalogue");
+            for (int n : threads) {
+                for (int p : avecProduits ? produits : new int[] {Math.max(max(chariots), 1)}) {
+                    for (int c : avecChariot ? chariots : new int[] {0}) {
+                        mesurer(new Configuration(scenario, n, p, c), quantiteInitiale, echauffement, mesure);
+                    }
+                }
+            }
+        }
+    }
+
+    // Méthode pour exécuter une mesure et afficher sa ligne de résultats
+    private static void mesurer(Configuration configuration, int quantiteInitiale, int echauffement, int mesure) throws Exception {
+        Banc banc = new Banc(configuration, quantiteInitiale);
+        long quantiteAvant = banc.quantiteTotale();
+        ResultatThread[] resultats = new ResultatThread[configuration.threads];
+        Thread[] threads = new Thread[configuration.threads];
+        CyclicBarrier depart = new CyclicBarrier(configuration.threads + 1);
+        List<Throwable> erreurs = new CopyOnWriteArrayList<>();
+
+        phase = 0;
+        for (int i = 0; i < threads.length; i++) {
+            ResultatThread resultat = new ResultatThread();
+            resultats[i] = resultat;
+            threads[i] = new Thread(() -> {
+                try {
+                    Operation operation = creerOperation(banc);
+                    depart.await();
+                    executer(operation, resultat);
+                } catch (Throwable e) {
+                    erreurs.add(e);
+                }
+            }, "banc-" + i);
+            threads[i].start();
+        }
+
+        depart.await();
+        Thread.sleep(echauffement * 1000L);
+        long[] gcAvant = activiteGc();
+        long debut = System.nanoTime();
+        phase = 1;
+        Thread.sleep(mesure * 1000L);
+        phase = 2;
+        long duree = System.nanoTime() - debut;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long[] gcApres = activiteGc();
+        banc.contexte.getLivraisons().arreter();
+        banc.contexte.getVentes().arreter();
+
+        if (!erreurs.isEmpty()) {
+            System.err.println(configuration.scenario + " : échec de la mesure");
+            erreurs.get(0).printStackTrace();
+            return;
+        }
+
+        HistogrammeLatence latences = new HistogrammeLatence();
+        long operations = 0;
+        long octets = 0;
+        for (ResultatThread resultat : resultats) {
+            latences.ajouter(resultat.latences);
+            operations += resultat.operations;
+            octets = resultat.octetsAlloues < 0 || octets < 0 ? -1 : octets + resultat.octetsAlloues;
+        }
+        System.out.printf("%-17s %7d %9d %7d %,14.0f %10.2f %10.2f %10.2f %10.1f %12s %10s%n",
+                configuration.scenario, configuration.threads, configuration.produits, configuration.tailleChariot,
+                operations * 1e9 / duree, latences.centile(50) / 1000.0, latences.centile(99) / 1000.0,
+                latences.centile(99.9) / 1000.0, latences.getMax() / 1000.0,
+                octets < 0 || operations == 0 ? "-" : String.valueOf(octets / operations),
+                (gcApres[0] - gcAvant[0]) + "/" + (gcApres[1] - gcAvant[1]));
+
+        if (configuration.scenario.equals("commander")) {
+            // Aucune unité ne doit être perdue ni vendue deux fois
+            long quantiteApres = banc.quantiteTotale();
+            if (quantiteAvant != quantiteApres + banc.unitesCommandees.get()) {
+                System.err.println("ERREUR : stock incohérent (avant " + quantiteAvant + ", après " + quantiteApres
+                        + ", commandé " + banc.unitesCommandees.get() + ")");
+            }
+        }
+    }
+
+    // Boucle d'un thread de mesure : seules les opérations de la phase de mesure sont comptées
+    private static void executer(Operation operation, ResultatThread resultat) throws Exception {
+        long consomme = 0;
+        long allocationDebut = 0;
+        boolean enMesure = false;
+        while (true) {
+            int p = phase;
+            if (p == 2) {
+                break;
+            }
+            if (p == 1 && !enMesure) {
+                enMesure = true;
+                allocationDebut = octetsAlloues();
+            }
+            long debut = System.nanoTime();
+            consomme += operation.executer();
+            long fin = System.nanoTime();
+            if (enMesure) {
+                resultat.latences.enregistrer(fin - debut);
+                resultat.operations++;
+            }
+        }
+        long allocationFin = octetsAlloues();
+        if (allocationDebut >= 0 && allocationFin >= 0) {
+            resultat.octetsAlloues = allocationFin - allocationDebut;
+        }
+        puits = consomme;
+    }
+
+    // Méthode pour préparer l'opération d'un scénario ; appelée par le thread qui l'exécutera
+    private static Operation creerOperation(Banc banc) throws IOException {
+        Configuration configuration = banc.configuration;
+        String[] ids = banc.ids;
+        int taille = Math.min(configuration.tailleChariot, ids.length);
+        Random aleatoire = new Random(Thread.currentThread().getId());
+
+        switch (configuration.scenario) {
+            case "chariot": {
+                Chariot chariot = new Chariot();
+                int[] position = {0};
+                return () -> {
+                    // Remplit le chariot jusqu'à "taille" produits différents, puis recommence
+                    if (position[0] == taille) {
+                        chariot.vider();
+                        position[0] = 0;
+                    }
+                    chariot.ajouterProduit(ids[position[0]++], 1);
+                    return chariot.getProduits().size();
+                };
+            }
+            case "commande": {
+                Chariot chariot = new Chariot();
+                for (int i = 0; i < taille; i++) {
+                    chariot.ajouterProduit(ids[i], 1);
+                }
+                long[] prix = new long[taille];
+                Arrays.fill(prix, 100);
+                return () -> new Commande(chariot.getProduits(), prix).getId();
+            }
+            case "commander": {
+                ContexteServeur contexte = banc.contexte;
+                ClientHandler handler = new ClientHandler(contexte);
+                SortieNulle sortie = new SortieNulle();
+                PrintWriter writer = new PrintWriter(new OutputStreamWriter(sortie, StandardCharsets.UTF_8));
+                handler.ouvrirSession(writer, sortie);
+                Chariot chariot = contexte.getChariots().get(handler.getSessionId());
+                List<Commande> commandes = contexte.getCommandes().get(handler.getSessionId());
+                return () -> {
+                    // Le chariot est rempli directement (hors mesure fine) : seule la commande passe par le protocole
+                    for (int i = 0; i < taille; i++) {
+                        chariot.ajouterProduit(ids[aleatoire.nextInt(ids.length)], 1);
+                    }
+                    int unites = 0;
+                    for (int quantite : chariot.getProduits().values()) {
+                        unites += quantite;
+                    }
+                    handler.traiterLigne("commander", writer);
+                    if (!commandes.isEmpty()) {
+                        banc.unitesCommandees.addAndGet(unites);
+                        commandes.clear(); // Les commandes ne s'accumulent pas pendant la mesure
+                    } else {
+                        chariot.vider(); // Stock épuisé : le chariot n'a pas été vidé par la commande
+                    }
+                    return sortie.octets;
+                };
+            }
+            case "catalogue": {
+                CacheCatalogue catalogue = banc.contexte.getCatalogue();
+                SortieNulle sortie = new SortieNulle();
+                return () -> catalogue.ecrire(sortie, 0, Integer.MAX_VALUE, null) + sortie.octets;
+            }
+            case "catalogue_page": {
+                CacheCatalogue catalogue = banc.contexte.getCatalogue();
+                SortieNulle sortie = new SortieNulle();
+                return () -> catalogue.ecrire(sortie, aleatoire.nextInt(ids.length), TAILLE_PAGE, null) + sortie.octets;
+            }
+            case "recherche": {
+                // Trois formes en alternance : sous-chaîne du nom (trigrammes), préfixe d'ID, plusieurs termes avec filtres
+                IndexRecherche recherche = banc.contexte.getRecherche();
+                int[] forme = {0};
+                return () -> {
+                    int numero = aleatoire.nextInt(ids.length);
+                    switch (forme[0]++ % 3) {
+                        case 0:
+                            return recherche.rechercher(String.valueOf(numero), 0, Double.MAX_VALUE, false, 20).size();
+                        case 1:
+                            return recherche.rechercher(ids[numero].substring(0, Math.min(ids[numero].length(), 6)), 0, Double.MAX_VALUE, false, 20).size();
+                        default:
+                            return recherche.rechercher("produit " + numero, 10, 50, true, 20).size();
+                    }
+                };
+            }
+            default: { // catalogue_filtre
+                CacheCatalogue catalogue = banc.contexte.getCatalogue();
+                SortieNulle sortie = new SortieNulle();
+                String[] prefixes = new String[10];
+                for (int i = 0; i < prefixes.length; i++) {
+                    prefixes[i] = "produit" + (i + 1); // Correspond à environ un nom sur dix, sans tenir compte de la casse
+                }
+                return () -> catalogue.ecrire(sortie, 0, TAILLE_PAGE, prefixes[aleatoire.nextInt(prefixes.length)]) + sortie.octets;
+            }
+        }
+    }
+
+    // Octets alloués par le thread courant depuis son démarrage, ou -1 si la JVM ne le mesure pas
+    private static long octetsAlloues() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    // Nombre de collectes et temps cumulé (ms) du ramasse-miettes
+    private static long[] activiteGc() {
+        long[] activite = new long[2];
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            activite[0] += Math.max(gc.getCollectionCount(), 0);
+            activite[1] += Math.max(gc.getCollectionTime(), 0);
+        }
+        return activite;
+    }
+
+    private static int[] entiers(String liste) {
+        String[] parties = liste.split(",");
+        int[] valeurs = new int[parties.length];
+        for (int i = 0; i < parties.length; i++) {
+            valeurs[i] = Integer.parseInt(parties[i].trim());
+        }
+        return valeurs;
+    }
+
+    private static int max(int[] valeurs) {
+        int max = 0;
+        for (int v : valeurs) {
+            max = Math.max(max, v);
+        }
+        return max;
+    }
+}
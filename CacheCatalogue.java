@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Cache du catalogue déjà mis en forme : les lignes sont rendues en octets UTF-8, par blocs de produits triés par ID.
+// Un changement de quantité ou de prix n'invalide que le bloc du produit concerné (il sera rendu à nouveau à la prochaine
+// lecture) ; seul un ajout ou une suppression de produit oblige à recalculer la disposition des blocs.
+// Parcourir le catalogue revient alors à recopier quelques tableaux d'octets déjà prêts.
+public class CacheCatalogue implements EcouteurStock {
+    private static final int TAILLE_BLOC = 256; // Nombre de produits par bloc
+
+    private final Map<String, Produit> stock; // Le stock de produits, relu lors d'un recalcul de la disposition
+    private final AtomicInteger versionStructure = new AtomicInteger(1); // Incrémentée à chaque ajout ou suppression
+    private final ReentrantLock verrouDisposition = new ReentrantLock();
+    private volatile Disposition disposition = new Disposition(0, new Produit[0]); // Version 0 : à calculer
+
+    // Rendu d'un bloc : octets de toutes ses lignes, position de fin de chaque ligne, version du bloc au moment du rendu
+    private static final class Rendu {
+        final int version;
+        final byte[] octets;
+        final int[] fins;
+
+        Rendu(int version, byte[] octets, int[] fins) {
+            this.version = version;
+            this.octets = octets;
+            this.fins = fins;
+        }
+    }
+
+    // Bloc de produits consécutifs : sa version est incrémentée à chaque modification d'un de ses produits
+    private static final class Bloc {
+        final AtomicInteger version = new AtomicInteger();
+        volatile Rendu rendu;
+    }
+
+    // Disposition du catalogue : produits triés par ID, découpés en blocs
+    private static final class Disposition {
+        final int version;
+        final Produit[] produits;
+        final String[] ids;
+        final Bloc[] blocs;
+
+        Disposition(int version, Produit[] produits) {
+            this.version = version;
+            this.produits = produits;
+            this.ids = new String[produits.length];
+            for (int i = 0; i < produits.length; i++) {
+                ids[i] = produits[i].getId();
+            }
+            this.blocs = new Bloc[(produits.length + TAILLE_BLOC - 1) / TAILLE_BLOC];
+            for (int i = 0; i < blocs.length; i++) {
+                blocs[i] = new Bloc();
+            }
+        }
+    }
+
+    // Constructeur du cache
+    public CacheCatalogue(Map<String, Produit> stock) {
+        this.stock = stock;
+    }
+
+    @Override
+    public void produitAjoute(Produit produit) {
+        versionStructure.incrementAndGet();
+    }
+
+    @Override
+    public void produitModifie(Produit produit) {
+        Disposition d = disposition;
+        if (d.version != versionStructure.get()) {
+            return; // La disposition sera recalculée de toute façon
+        }
+        int position = Arrays.binarySearch(d.ids, produit.getId());
+        if (position >= 0 && d.produits[position] == produit) {
+            d.blocs[position / TAILLE_BLOC].version.incrementAndGet();
+        } else {
+            versionStructure.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void produitSupprime(String id) {
+        versionStructure.incrementAndGet();
+    }
+
+    // Méthode pour écrire le catalogue (ou une page filtrée) sur le flux ; renvoie le nombre de produits écrits.
+    // "prefixe" (ou null) filtre sur le début de l'ID ou du nom, sans tenir compte de la casse.
+    public int ecrire(OutputStream sortie, int debut, int limite, String prefixe) throws IOException {
+        Disposition d = dispositionCourante();
+        int ignores = 0;
+        int ecrits = 0;
+
+        if (prefixe == null) {
+            // Sans filtre, la page correspond à une plage continue de lignes : on recopie les blocs entiers quand c'est possible
+            int premier = Math.min(debut, d.produits.length);
+            int dernier = (int) Math.min((long) premier + limite, d.produits.length);
+            int position = premier;
+            while (position < dernier) {
+                int numeroBloc = position / TAILLE_BLOC;
+                Rendu rendu = rendu(d, numeroBloc);
+                int debutBloc = numeroBloc * TAILLE_BLOC;
+                int de = position - debutBloc;
+                int a = Math.min(dernier - debutBloc, rendu.fins.length);
+                int decalageDebut = de == 0 ? 0 : rendu.fins[de - 1];
+                sortie.write(rendu.octets, decalageDebut, rendu.fins[a - 1] - decalageDebut);
+                position = debutBloc + a;
+            }
+            return dernier - premier;
+        }
+
+        for (int i = 0; i < d.produits.length && ecrits < limite; i++) {
+            Produit produit = d.produits[i];
+            if (!commencePar(produit.getId(), prefixe) && !commencePar(produit.getNom(), prefixe)) {
+                continue;
+            }
+            if (ignores < debut) {
+                ignores++;
+                continue;
+            }
+            Rendu rendu = rendu(d, i / TAILLE_BLOC);
+            int ligne = i % TAILLE_BLOC;
+            int decalageDebut = ligne == 0 ? 0 : rendu.fins[ligne - 1];
+            sortie.write(rendu.octets, decalageDebut, rendu.fins[ligne] - decalageDebut);
+            ecrits++;
+        }
+        return ecrits;
+    }
+
+    private static boolean commencePar(String texte, String prefixe) {
+        return texte.regionMatches(true, 0, prefixe, 0, prefixe.length());
+    }
+
+    // Renvoie la disposition à jour, en la recalculant si des produits ont été ajoutés ou supprimés
+    private Disposition dispositionCourante() {
+        Disposition d = disposition;
+        int version = versionStructure.get();
+        if (d.version == version) {
+            return d;
+        }
+        verrouDisposition.lock();
+        try {
+            d = disposition;
+            version = versionStructure.get();
+            if (d.version != version) {
+                Produit[] produits = stock.values().toArray(new Produit[0]);
+                Arrays.sort(produits, Comparator.comparing(Produit::getId));
+                d = new Disposition(version, produits);
+                disposition = d;
+            }
+            return d;
+        } finally {
+            verrouDisposition.unlock();
+        }
+    }
+
+    // Renvoie le rendu à jour d'un bloc, en le recalculant si un de ses produits a changé depuis
+    private static Rendu rendu(Disposition d, int numeroBloc) {
+        Bloc bloc = d.blocs[numeroBloc];
+        Rendu rendu = bloc.rendu;
+        int version = bloc.version.get();
+        if (rendu != null && rendu.version == version) {
+            return rendu;
+        }
+        // La version est lue avant le rendu : une modification concurrente invalidera ce rendu au prochain accès
+        int debut = numeroBloc * TAILLE_BLOC;
+        int fin = Math.min(debut + TAILLE_BLOC, d.produits.length);
+        StringBuilder sb = new StringBuilder((fin - debut) * 64);
+        for (int i = debut; i < fin; i++) {
+            sb.append(d.produits[i]).append('\n');
+        }
+        byte[] octets = sb.toString().getBytes(StandardCharsets.UTF_8);
+        rendu = new Rendu(version, octets, finsEnOctets(octets, fin - debut));
+        bloc.rendu = rendu;
+        return rendu;
+    }
+
+    // Calcule la position (en octets) de la fin de chaque ligne
+    private static int[] finsEnOctets(byte[] octets, int nombreLignes) {
+        int[] fins = new int[nombreLignes];
+        int ligne = 0;
+        for (int i = 0; i < octets.length; i++) {
+            if (octets[i] == '\n') {
+                fins[ligne++] = i + 1;
+            }
+        }
+        return fins;
+    }
+}
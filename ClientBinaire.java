@@ -0,0 +1,256 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Bibliothèque cliente du protocole binaire (voir ProtocoleBinaire).
+// Chaque méthode met la requête en tampon et renvoie aussitôt une réponse future : on peut enchaîner plusieurs requêtes
+// (par exemple des ajouts au chariot puis "commander") et les envoyer en une seule écriture avec vider().
+// Un thread de lecture associe chaque réponse reçue à sa requête grâce à l'idRequete ; les trames d'idRequete 0 portent
+// les événements d'abonnement ("EVT <idCommande> <statut>"), transmis à l'écouteur donné à abonner().
+public class ClientBinaire implements Closeable {
+    private final Socket socket;
+    private final DataOutputStream sortie;
+    private final DataInputStream entree;
+    private final String bienvenue; // Message de bienvenue du serveur (indique le rôle obtenu)
+    private final AtomicInteger prochainId = new AtomicInteger(1);
+    private final Map<Integer, CompletableFuture<Reponse>> enAttente = new ConcurrentHashMap<>();
+    private volatile Consumer<String> ecouteurEvenements = evenement -> { };
+    private volatile boolean ferme; // Vrai quand le thread de lecture ne complétera plus aucune réponse
+
+    // Requête en cours de construction : opération, idRequete puis champs
+    private final class Requete {
+        final int id = prochainId.getAndIncrement();
+        final ByteArrayOutputStream octets = new ByteArrayOutputStream(32);
+        final DataOutputStream out = new DataOutputStream(octets);
+
+        Requete(byte operation) throws IOException {
+            out.writeByte(operation);
+            out.writeInt(id);
+        }
+    }
+
+    // Réponse du serveur à une requête
+    public static final class Reponse {
+        private final int idRequete;
+        private final boolean succes;
+        private final boolean occupe;
+        private final String texte;
+
+        Reponse(int idRequete, byte statut, String texte) {
+            this.idRequete = idRequete;
+            this.succes = statut == ProtocoleBinaire.OK;
+            this.occupe = statut == ProtocoleBinaire.OCCUPE;
+            this.texte = texte;
+        }
+
+        public int getIdRequete() {
+            return idRequete;
+        }
+
+        // Faux si le serveur a signalé une erreur (stock insuffisant, format invalide, ...)
+        public boolean isSucces() {
+            return succes;
+        }
+
+        // Vrai si le serveur, surchargé, a refusé la requête sans l'exécuter : elle peut être renvoyée plus tard
+        public boolean isOccupe() {
+            return occupe;
+        }
+
+        // Texte de la réponse, tel que le protocole texte l'aurait affiché (sans "FIN")
+        public String getTexte() {
+            return texte;
+        }
+
+        public List<String> getLignes() {
+            return texte.isEmpty() ? Collections.emptyList() : Arrays.asList(texte.split("\n"));
+        }
+    }
+
+    // Constructeur : ouvre la connexion et négocie le protocole binaire
+    public ClientBinaire(String hote, int port) throws IOException {
+        this.socket = new Socket(hote, port);
+        socket.setTcpNoDelay(true);
+        this.sortie = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        this.entree = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+
+        this.bienvenue = lireLigne();
+        if (bienvenue.startsWith("Erreur")) {
+            socket.close(); // Connexion refusée par le serveur (trop de connexions ouvertes)
+            throw new IOException(bienvenue);
+        }
+        sortie.write("protocole binaire\n".getBytes(StandardCharsets.UTF_8));
+        sortie.flush();
+        String ligne;
+        while (!(ligne = lireLigne()).equals("FIN")) {
+            if (!ligne.startsWith("Protocole binaire")) {
+                throw new IOException("Négociation refusée : " + ligne);
+            }
+        }
+
+        Thread lecteur = new Thread(this::lireReponses, "client-binaire-lecture");
+        lecteur.setDaemon(true);
+        lecteur.start();
+    }
+
+    public String getBienvenue() {
+        return bienvenue;
+    }
+
+    public CompletableFuture<Reponse> catalogue(int debut, int limite, String prefixe) throws IOException {
+        Requete requete = new Requete(ProtocoleBinaire.CATALOGUE);
+        requete.out.writeInt(debut);
+        requete.out.writeInt(limite);
+        ProtocoleBinaire.ecrireChaine(requete.out, prefixe == null ? "" : prefixe);
+        return envoyer(requete);
+    }
+
+    public CompletableFuture<Reponse> ajouterAuChariot(String idProduit, int quantite) throws IOException {
+        Requete requete = new Requete(ProtocoleBinaire.AJOUTER_AU_CHARIOT);
+        ProtocoleBinaire.ecrireChaine(requete.out, idProduit);
+        requete.out.writeInt(quantite);
+        return envoyer(requete);
+    }
+
+    public CompletableFuture<Reponse> commander() throws IOException {
+        return envoyer(new Requete(ProtocoleBinaire.COMMANDER));
+    }
+
+    public CompletableFuture<Reponse> afficherChariot() throws IOException {
+        return envoyer(new Requete(ProtocoleBinaire.AFFICHER_CHARIOT));
+    }
+
+    public CompletableFuture<Reponse> voirCommandes() throws IOException {
+        return envoyer(new Requete(ProtocoleBinaire.VOIR_COMMANDES));
+    }
+
+    // Au plus "limite" commandes à partir de la commande numéro "debut"
+    public CompletableFuture<Reponse> voirCommandes(int debut, int limite) throws IOException {
+        Requete requete = new Requete(ProtocoleBinaire.VOIR_COMMANDES);
+        requete.out.writeInt(debut);
+        requete.out.writeInt(limite);
+        return envoyer(requete);
+    }
+
+    public CompletableFuture<Reponse> ajouterProduit(String idProduit, String nom, int quantite, double prix) throws IOException {
+        Requete requete = new Requete(ProtocoleBinaire.AJOUTER_PRODUIT);
+        ProtocoleBinaire.ecrireChaine(requete.out, idProduit);
+        ProtocoleBinaire.ecrireChaine(requete.out, nom);
+        requete.out.writeInt(quantite);
+        requete.out.writeDouble(prix);
+        return envoyer(requete);
+    }
+
+    public CompletableFuture<Reponse> modifierProduit(String idProduit, int quantite, double prix) throws IOException {
+        Requete requete = new Requete(ProtocoleBinaire.MODIFIER_PRODUIT);
+        ProtocoleBinaire.ecrireChaine(requete.out, idProduit);
+        requete.out.writeInt(quantite);
+        requete.out.writeDouble(prix);
+        return envoyer(requete);
+    }
+
+    public CompletableFuture<Reponse> supprimerProduit(String idProduit) throws IOException {
+        Requete requete = new Requete(ProtocoleBinaire.SUPPRIMER_PRODUIT);
+        ProtocoleBinaire.ecrireChaine(requete.out, idProduit);
+        return envoyer(requete);
+    }
+
+    // Abonne la session aux changements de statut des commandes ; l'écouteur reçoit chaque ligne "EVT ..." sur le thread de lecture
+    public CompletableFuture<Reponse> abonner(Consumer<String> ecouteur) throws IOException {
+        ecouteurEvenements = ecouteur;
+        return texte("abonner");
+    }
+
+    public CompletableFuture<Reponse> desabonner() throws IOException {
+        return texte("desabonner");
+    }
+
+    // Envoie n'importe quelle commande du protocole texte
+    public CompletableFuture<Reponse> texte(String ligne) throws IOException {
+        Requete requete = new Requete(ProtocoleBinaire.TEXTE);
+        ProtocoleBinaire.ecrireTexte(requete.out, ligne);
+        return envoyer(requete);
+    }
+
+    // Méthode pour envoyer au serveur toutes les requêtes mises en tampon
+    public void vider() throws IOException {
+        synchronized (sortie) {
+            sortie.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    // Copie la requête dans le tampon d'envoi (partagé par les threads qui utilisent ce client).
+    // Si la connexion est déjà fermée, la réponse échoue aussitôt : le thread de lecture, qui a mis "ferme" avant de
+    // faire échouer les requêtes en attente, a pu parcourir la table avant que celle-ci y soit ajoutée.
+    private CompletableFuture<Reponse> envoyer(Requete requete) throws IOException {
+        CompletableFuture<Reponse> future = new CompletableFuture<>();
+        enAttente.put(requete.id, future);
+        if (ferme) {
+            enAttente.remove(requete.id);
+            future.completeExceptionally(new IOException("Connexion au serveur fermée"));
+            return future;
+        }
+        synchronized (sortie) {
+            sortie.writeInt(requete.octets.size());
+            requete.octets.writeTo(sortie);
+        }
+        return future;
+    }
+
+    // Boucle du thread de lecture : chaque trame de réponse complète la future de sa requête
+    private void lireReponses() {
+        try {
+            ByteBuffer reponse;
+            while ((reponse = ProtocoleBinaire.lireTrame(entree, ProtocoleBinaire.TAILLE_MAX_REPONSE)) != null) {
+                int id = reponse.getInt();
+                byte statut = reponse.get();
+                String texte = new String(reponse.array(), reponse.position(), reponse.remaining(), StandardCharsets.UTF_8);
+                if (id == 0) {
+                    for (String evenement : texte.split("\n")) {
+                        ecouteurEvenements.accept(evenement);
+                    }
+                    continue;
+                }
+                CompletableFuture<Reponse> future = enAttente.remove(id);
+                if (future != null) {
+                    future.complete(new Reponse(id, statut, texte.endsWith("\n") ? texte.substring(0, texte.length() - 1) : texte));
+                }
+            }
+        } catch (IOException e) {
+            // Connexion fermée : les requêtes encore en attente échouent
+        }
+        ferme = true; // Avant le parcours : une requête ajoutée ensuite échoue dans envoyer
+        IOException fermeture = new IOException("Connexion au serveur fermée");
+        for (Integer id : enAttente.keySet()) {
+            CompletableFuture<Reponse> future = enAttente.remove(id);
+            if (future != null) {
+                future.completeExceptionally(fermeture);
+            }
+        }
+    }
+
+    // Lit une ligne du protocole texte (négociation) directement sur le flux binaire
+    private String lireLigne() throws IOException {
+        ByteArrayOutputStream ligne = new ByteArrayOutputStream();
+        int b;
+        while ((b = entree.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("Connexion fermée pendant la négociation");
+            }
+            if (b != '\r') {
+                ligne.write(b);
+            }
+        }
+        return new String(ligne.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
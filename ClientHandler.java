@@ -1,92 +1,502 @@
 import java.io.*;
 import java.net.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ClientHandler implements Runnable {
+    private static final int TAILLE_TRANCHE_LOT = 10_000; // Opérations d'un lot appliquées (et journalisées) ensemble
+
     private final Socket socket; // Le socket de communication avec le client
     private final Map<String, Produit> stock; // Le stock de produits disponible
     private final Map<String, Chariot> chariots; // Les chariots des clients (chaque client est identifié par un sessionId)
-    private final Map<String, List<Commande>> commandes; // Les commandes des clients, associées par sessionId
-    private final ExecutorService deliveryExecutor; // Un pool d'exécution pour gérer les livraisons de commandes de manière asynchrone
+    private final Map<String, HistoriqueCommandes> commandes; // Les commandes des clients, associées par sessionId
+    private final PlanificateurLivraisons livraisons; // Le planificateur qui fait avancer les livraisons des commandes
+    private final ServiceStock serviceStock; // Les opérations d'administration du stock (journalisées et signalées)
+    private final MoteurReservation reservations; // Le moteur de réservation du stock utilisé lors des commandes
+    private final CacheCatalogue catalogue; // Le catalogue déjà mis en forme en octets
+    private final IndexRecherche recherche; // L'index de recherche des produits
+    private final AnalyseVentes ventes; // Les statistiques de ventes en temps réel
+    private final Partition partition; // La partition du stock tenue par ce serveur (mode cluster), ou null
+    private final TransactionsPartition transactions; // Les réservations en deux phases (mode cluster), ou null
+    private final JournalStock journal; // Le journal de persistance (null si la persistance est désactivée)
+    private final MetriquesServeur metriques; // Les compteurs et latences du serveur
+    private final DiffuseurStatuts diffuseur; // La diffusion des changements de statut des commandes
+    private final GestionnaireSessions sessions; // Le cycle de vie des sessions client (reprise, éviction)
+    private final ControleAdmission admission; // Le contrôle d'admission des requêtes (null s'il est désactivé)
+    private final ControleAdmission.Seaux seaux; // Les seaux à jetons de cette session, ou null
+    private int classeAdmise; // Classe de la requête admise en cours, dont la latence est rendue à admission.sortir()
+    private DiffuseurStatuts.Abonnement abonnement; // L'abonnement de la session aux statuts, ou null
+    private Runnable signalEvenements = () -> { }; // Prévient la connexion que des événements attendent d'être écrits
+    // Verrou explicite plutôt que "synchronized" : un thread virtuel qui l'attend, ou qui le tient pendant une écriture
+    // ou l'attente du journal, libère son thread porteur. Il sépare les réponses des événements écrits par le diffuseur.
+    private final ReentrantLock verrou = new ReentrantLock();
+    private int commandeCourante = MetriquesServeur.AUTRE; // Commande en cours d'exécution, pour les métriques
+    private boolean sessionOuverte; // Vrai entre ouvrirSession et fermerSession
+    private OutputStream sortie; // Le flux d'octets sous le writer, pour envoyer directement le catalogue mis en cache
+    private boolean binaire; // Vrai une fois le protocole binaire négocié
+    private ByteArrayOutputStream tamponBinaire; // Texte de la réponse binaire en cours de construction
+    private PrintWriter writerBinaire; // Writer écrivant dans tamponBinaire
     private String sessionId; // L'identifiant de session du client (utilisé pour suivre les actions du client)
     private boolean isAdmin; // Indique si l'utilisateur est un administrateur ou un client
+    private List<OperationStock> lot; // Opérations du lot en cours (entre "lot" et "fin_lot"), ou null
+    private List<String> erreursLot; // Erreurs du lot en cours
+    private int lignesLot; // Nombre de lignes reçues dans le lot en cours
 
     // Constructeur pour initialiser le gestionnaire de client
-    public ClientHandler(Socket socket, Map<String, Produit> stock, Map<String, Chariot> chariots, Map<String, List<Commande>> commandes, ExecutorService deliveryExecutor) {
+    public ClientHandler(Socket socket, ContexteServeur contexte) {
         this.socket = socket;
-        this.stock = stock;
-        this.chariots = chariots;
-        this.commandes = commandes;
-        this.deliveryExecutor = deliveryExecutor;
+        this.stock = contexte.getStock();
+        this.chariots = contexte.getChariots();
+        this.commandes = contexte.getCommandes();
+        this.livraisons = contexte.getLivraisons();
+        this.serviceStock = contexte.getServiceStock();
+        this.reservations = contexte.getReservations();
+        this.catalogue = contexte.getCatalogue();
+        this.recherche = contexte.getRecherche();
+        this.ventes = contexte.getVentes();
+        this.partition = contexte.getPartition();
+        this.transactions = contexte.getTransactions();
+        this.journal = contexte.getJournal();
+        this.metriques = contexte.getMetriques();
+        this.diffuseur = contexte.getDiffuseur();
+        this.sessions = contexte.getSessions();
+        this.admission = contexte.getAdmission();
+        this.seaux = admission != null ? admission.creerSeaux() : null;
+    }
+
+    // Constructeur sans socket, utilisé par le serveur NIO qui gère lui-même les entrées/sorties
+    public ClientHandler(ContexteServeur contexte) {
+        this(null, contexte);
     }
 
     // Méthode exécutée lors de l'exécution du thread
     @Override
     public void run() {
         try (
-            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream())); // Lecture des entrées du client
-            PrintWriter writer = new PrintWriter(socket.getOutputStream(), true) // Envoi des réponses au client
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)); // Lecture des entrées du client
+            OutputStream sortieSocket = new BufferedOutputStream(socket.getOutputStream());
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(sortieSocket, StandardCharsets.UTF_8)) // Envoi des réponses au client
         ) {
-            // Attribuer un sessionId unique au client et déterminer s'il est administrateur ou client
-            sessionId = UUID.randomUUID().toString();
-            isAdmin = assignRole(writer);
-
-            // Si c'est un client, initialiser son chariot et ses commandes
-            if (!isAdmin) {
-                chariots.putIfAbsent(sessionId, new Chariot());
-                commandes.putIfAbsent(sessionId, new ArrayList<>());
+            // Les événements des abonnements sont écrits par un thread du diffuseur, entre deux réponses (verrou de ce gestionnaire)
+            definirSignalEvenements(() -> diffuseur.executer(() -> pousserEvenements(writer, sortieSocket)));
+            verrou.lock();
+            try {
+                ouvrirSession(writer, sortieSocket);
+            } finally {
+                verrou.unlock();
             }
 
             String ligne;
             // Lire les commandes envoyées par le client
             while ((ligne = reader.readLine()) != null) {
-                String[] parts = ligne.split(" "); // Diviser la commande en parties
-                String commande = parts[0]; // Le premier mot de la commande indique l'action à effectuer
-
+                verrou.lock();
                 try {
-                    // Traitement des commandes en fonction du rôle de l'utilisateur (administrateur ou client)
-                    if (isAdmin) {
-                        handleAdminCommand(parts, writer);
-                    } else {
-                        handleClientCommand(parts, writer);
-                    }
-                } catch (Exception e) {
-                    writer.println(e.getMessage()); // Si une exception est levée, l'envoyer au client
+                    traiterLigne(ligne, writer);
+                } finally {
+                    verrou.unlock();
+                }
+                if (binaire) {
+                    // Le client attend la réponse à la négociation avant d'envoyer des trames : le lecteur texte n'a rien lu d'avance
+                    bouclerBinaire(socket.getInputStream(), sortieSocket);
+                    break;
                 }
-                writer.println("FIN"); // Marquer la fin de la réponse
             }
         } catch (IOException e) {
             System.err.println("Erreur avec le client : " + e.getMessage());
+        } finally {
+            fermerSession();
         }
     }
 
-    // Méthode pour attribuer un rôle à l'utilisateur (administrateur ou client)
-    private boolean assignRole(PrintWriter writer) {
-        synchronized (ClientHandler.class) {
-            if (!GestionnaireStockServer.isAdminConnected()) {
-                GestionnaireStockServer.setAdminConnected(true); // Si l'administrateur n'est pas connecté, le connecter
-                writer.println("Bienvenue, Administrateur !");
+    // Méthode pour ouvrir la session : attribution du sessionId, du rôle et du message de bienvenue.
+    // "sortie" est le flux d'octets sur lequel écrit "writer".
+    public void ouvrirSession(PrintWriter writer, OutputStream sortie) {
+        this.sortie = sortie;
+        sessionOuverte = true;
+        metriques.sessionOuverte();
+        // Déterminer si l'utilisateur est administrateur ou client, puis lui attribuer un sessionId unique ;
+        // la session d'un client (chariot et commandes) est créée par le gestionnaire des sessions
+        isAdmin = assignRole(writer);
+        sessionId = isAdmin ? UUID.randomUUID().toString() : sessions.ouvrir();
+        writer.flush();
+    }
+
+    // Méthode pour fermer la session (connexion terminée) : le rôle d'administrateur est libéré,
+    // la session d'un client est détachée et reste reprenable avec son jeton
+    public void fermerSession() {
+        verrou.lock();
+        try {
+            if (abonnement != null) {
+                diffuseur.desabonner(abonnement);
+                abonnement = null;
+            }
+            if (sessionOuverte) {
+                sessionOuverte = false;
+                metriques.sessionFermee();
+                if (isAdmin) {
+                    GestionnaireStockServer.setAdminConnected(false);
+                } else {
+                    if (transactions != null) {
+                        transactions.abandonner(sessionId); // Plus personne ne peut confirmer ses réservations
+                    }
+                    sessions.detacher(sessionId);
+                }
+            }
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    // Méthode pour définir comment prévenir la connexion que des événements d'abonnement attendent d'être écrits
+    public void definirSignalEvenements(Runnable signal) {
+        this.signalEvenements = signal;
+    }
+
+    // Méthode pour savoir si des événements d'abonnement attendent d'être écrits
+    public boolean aDesEvenements() {
+        return abonnement != null && abonnement.aDesEvenements();
+    }
+
+    // Méthode pour écrire les événements en attente : des lignes "EVT <idCommande> <statut>" en mode texte,
+    // une trame de réponse d'idRequete 0 en mode binaire. À appeler entre deux réponses.
+    public void ecrireEvenements(PrintWriter writer, OutputStream sortieBrute) throws IOException {
+        if (abonnement == null) {
+            return;
+        }
+        List<String> lignes = abonnement.retirer();
+        if (lignes.isEmpty()) {
+            return;
+        }
+        if (binaire) {
+            for (String ligne : lignes) {
+                writerBinaire.println(ligne);
+            }
+            writerBinaire.flush();
+            ProtocoleBinaire.ecrireReponse(sortieBrute, 0, ProtocoleBinaire.OK, tamponBinaire);
+            tamponBinaire.reset();
+        } else {
+            for (String ligne : lignes) {
+                writer.println(ligne);
+            }
+        }
+    }
+
+    // Écriture des événements par le serveur à un thread par client ; une erreur d'écriture sera vue par la lecture
+    private void pousserEvenements(PrintWriter writer, OutputStream sortieSocket) {
+        verrou.lock();
+        try {
+            ecrireEvenements(writer, sortieSocket);
+            writer.flush();
+            sortieSocket.flush();
+        } catch (IOException e) {
+            System.err.println("Erreur d'envoi des événements : " + e.getMessage());
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    // Méthode pour traiter une ligne de commande complète et écrire la réponse terminée par "FIN"
+    public void traiterLigne(String ligne, PrintWriter writer) {
+        String[] parts = ligne.split(" "); // Diviser la commande en parties
+
+        if (parts.length == 2 && parts[0].equals("protocole") && parts[1].equals("binaire")) {
+            passerEnBinaire();
+            writer.println("Protocole binaire activé.");
+            writer.println("FIN");
+            writer.flush();
+            return;
+        }
+
+        // Mode lot de l'administrateur : les lignes entre "lot" et "fin_lot" sont accumulées sans réponse,
+        // puis appliquées ensemble avec une seule réponse
+        if (lot != null && !ligne.equals("fin_lot")) {
+            ajouterAuLot(ligne);
+            return;
+        }
+        if (isAdmin && ligne.equals("lot")) {
+            commencerLot();
+            return;
+        }
+
+        String refus = admettre(MetriquesServeur.indiceCommande(parts[0]));
+        if (refus != null) {
+            writer.println(refus); // Réponse immédiate, sans exécuter la commande
+            writer.println("FIN");
+            writer.flush();
+            return;
+        }
+
+        long debut = System.nanoTime();
+        boolean erreur = false;
+        commandeCourante = MetriquesServeur.AUTRE;
+        try {
+            // Traitement des commandes en fonction du rôle de l'utilisateur (administrateur ou client)
+            if (isAdmin) {
+                handleAdminCommand(parts, writer);
+            } else {
+                handleClientCommand(parts, writer);
+            }
+        } catch (Exception e) {
+            erreur = true;
+            writer.println(e.getMessage()); // Si une exception est levée, l'envoyer au client
+        }
+        long duree = System.nanoTime() - debut;
+        metriques.enregistrer(commandeCourante, duree, erreur);
+        if (admission != null && !isAdmin) {
+            admission.sortir(classeAdmise, duree);
+        }
+        writer.println("FIN"); // Marquer la fin de la réponse
+        writer.flush(); // Une seule écriture par réponse
+    }
+
+    // Méthode pour admettre une requête client (indice de commande de MetriquesServeur) : renvoie le message de refus,
+    // ou null si elle peut s'exécuter ; une requête admise doit ensuite rendre sa place par admission.sortir().
+    // L'administrateur n'est jamais limité.
+    private String admettre(int commande) {
+        if (admission == null || isAdmin) {
+            return null;
+        }
+        int classe = ControleAdmission.classeDe(commande);
+        if (!seaux.consommer(classe)) {
+            metriques.requeteRejetee(commande, ControleAdmission.MOTIF_DEBIT);
+            return ControleAdmission.TROP_DE_REQUETES;
+        }
+        if (!admission.entrer(classe)) {
+            metriques.requeteRejetee(commande, ControleAdmission.MOTIF_CONCURRENCE);
+            return ControleAdmission.OCCUPE;
+        }
+        classeAdmise = classe;
+        return null;
+    }
+
+    // Méthode pour obtenir l'identifiant de session attribué par ouvrirSession
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    // Méthode pour savoir si la connexion est passée au protocole binaire
+    public boolean estBinaire() {
+        return binaire;
+    }
+
+    private void passerEnBinaire() {
+        binaire = true;
+        tamponBinaire = new ByteArrayOutputStream();
+        writerBinaire = new PrintWriter(new OutputStreamWriter(tamponBinaire, StandardCharsets.UTF_8));
+        sortie = tamponBinaire; // Le catalogue en octets fait désormais partie du texte de la réponse binaire
+    }
+
+    // Boucle de lecture du mode binaire (serveur à un thread par client) : les réponses ne sont envoyées que lorsque
+    // toutes les requêtes déjà reçues ont été traitées, pour regrouper les écritures d'un client qui en enchaîne plusieurs
+    private void bouclerBinaire(InputStream in, OutputStream out) throws IOException {
+        DataInputStream entree = new DataInputStream(new BufferedInputStream(in));
+        ByteBuffer requete;
+        while ((requete = ProtocoleBinaire.lireTrame(entree)) != null) {
+            verrou.lock();
+            try {
+                traiterRequeteBinaire(requete, out);
+                if (entree.available() == 0) {
+                    out.flush();
+                }
+            } finally {
+                verrou.unlock();
+            }
+        }
+    }
+
+    // Méthode pour traiter une requête binaire (voir ProtocoleBinaire) et écrire sa trame de réponse dans "reponse"
+    public void traiterRequeteBinaire(ByteBuffer requete, OutputStream reponse) throws IOException {
+        byte statut = ProtocoleBinaire.OK;
+        int idRequete = 0;
+        boolean admise = false;
+        long debut = System.nanoTime();
+        commandeCourante = MetriquesServeur.AUTRE;
+        try {
+            byte operation = requete.get();
+            idRequete = requete.getInt();
+            String refus = admettre(indiceRequete(operation, requete));
+            if (refus != null) {
+                writerBinaire.println(refus);
+                statut = ProtocoleBinaire.OCCUPE;
+            } else {
+                admise = true;
+                executerBinaire(operation, requete, writerBinaire);
+            }
+        } catch (BufferUnderflowException e) {
+            writerBinaire.println("Erreur : Requête binaire incomplète.");
+            statut = ProtocoleBinaire.ERREUR;
+        } catch (Exception e) {
+            writerBinaire.println(e.getMessage());
+            statut = ProtocoleBinaire.ERREUR;
+        }
+        if (statut != ProtocoleBinaire.OCCUPE) {
+            long duree = System.nanoTime() - debut;
+            metriques.enregistrer(commandeCourante, duree, statut != ProtocoleBinaire.OK);
+            if (admise && admission != null && !isAdmin) {
+                admission.sortir(classeAdmise, duree);
+            }
+        }
+        writerBinaire.flush();
+        ProtocoleBinaire.ecrireReponse(reponse, idRequete, statut, tamponBinaire);
+        tamponBinaire.reset();
+    }
+
+    // Méthode pour savoir si une ligne de commande peut bloquer le thread qui l'exécute (attente de la synchronisation
+    // du journal, lecture d'un fichier) : le serveur NIO l'exécute alors hors de sa boucle d'événements
+    public boolean estBloquante(String ligne) {
+        if (lot != null) {
+            return journal != null && ligne.equals("fin_lot"); // Les lignes d'un lot sont seulement accumulées
+        }
+        int fin = ligne.indexOf(' ');
+        String commande = fin < 0 ? ligne : ligne.substring(0, fin);
+        if (commande.equals("reprendre")) {
+            return journal != null; // Relit l'archive de la session dans le répertoire des données
+        }
+        return estBloquante(MetriquesServeur.indiceCommande(commande));
+    }
+
+    // Même question pour une requête binaire complète (opération, idRequete, champs), sans la consommer
+    public boolean estBloquante(ByteBuffer requete) {
+        ByteBuffer copie = requete.duplicate();
+        try {
+            byte operation = copie.get();
+            copie.getInt();
+            if (operation == ProtocoleBinaire.TEXTE) {
+                String texte = ProtocoleBinaire.lireTexte(copie);
+                return texte.startsWith("lot\n") ? journal != null : estBloquante(texte);
+            }
+            return estBloquante(MetriquesServeur.indiceOperation(operation));
+        } catch (BufferUnderflowException e) {
+            return false; // Requête incomplète : l'erreur est renvoyée sans rien attendre
+        }
+    }
+
+    private boolean estBloquante(int commande) {
+        switch (commande) {
+            case MetriquesServeur.IMPORTER:
                 return true;
+            case MetriquesServeur.COMMANDER:
+            case MetriquesServeur.TRANSACTION:
+            case MetriquesServeur.AJOUTER_PRODUIT:
+            case MetriquesServeur.MODIFIER_PRODUIT:
+            case MetriquesServeur.SUPPRIMER_PRODUIT:
+            case MetriquesServeur.LOT:
+                return journal != null; // Attente de la synchronisation du journal
+            default:
+                return false;
+        }
+    }
+
+    // Méthode pour obtenir l'indice de commande (MetriquesServeur) d'une requête binaire sans la consommer
+    private static int indiceRequete(byte operation, ByteBuffer requete) {
+        if (operation != ProtocoleBinaire.TEXTE) {
+            return MetriquesServeur.indiceOperation(operation);
+        }
+        String texte = ProtocoleBinaire.lireTexte(requete.duplicate());
+        int fin = texte.indexOf(' ');
+        return MetriquesServeur.indiceCommande(fin < 0 ? texte : texte.substring(0, fin));
+    }
+
+    // Exécute une opération binaire avec les mêmes opérations (et les mêmes droits) que le protocole texte
+    private void executerBinaire(byte operation, ByteBuffer requete, PrintWriter writer) throws Exception {
+        if (operation == ProtocoleBinaire.TEXTE) {
+            String texte = ProtocoleBinaire.lireTexte(requete);
+            if (isAdmin && texte.startsWith("lot\n")) {
+                // Lot complet en une requête : "lot", une opération par ligne, puis "fin_lot" (facultatif)
+                commandeCourante = MetriquesServeur.LOT;
+                String[] lignes = texte.split("\n");
+                commencerLot();
+                for (int i = 1; i < lignes.length && !lignes[i].equals("fin_lot"); i++) {
+                    ajouterAuLot(lignes[i]);
+                }
+                terminerLot(writer);
+                return;
+            }
+            String[] parts = texte.split(" ");
+            if (isAdmin) {
+                handleAdminCommand(parts, writer);
             } else {
-                writer.println("Bienvenue, Client !");
-                return false; // Sinon, l'utilisateur est un client
+                handleClientCommand(parts, writer);
             }
+            return;
+        }
+        commandeCourante = MetriquesServeur.indiceOperation(operation);
+        boolean operationAdmin = operation >= ProtocoleBinaire.AJOUTER_PRODUIT && operation <= ProtocoleBinaire.SUPPRIMER_PRODUIT;
+        if (operationAdmin != isAdmin) {
+            throw new InvalidOrderException(isAdmin ? "Commande inconnue pour administrateur." : "Commande inconnue pour client.");
+        }
+        switch (operation) {
+            case ProtocoleBinaire.CATALOGUE: {
+                int debut = requete.getInt();
+                int limite = requete.getInt();
+                String prefixe = ProtocoleBinaire.lireChaine(requete);
+                afficherCatalogue(debut, limite, prefixe.isEmpty() ? null : prefixe, writer);
+                break;
+            }
+            case ProtocoleBinaire.AJOUTER_AU_CHARIOT: {
+                String produitId = ProtocoleBinaire.lireChaine(requete);
+                ajouterAuChariot(produitId, requete.getInt(), writer);
+                break;
+            }
+            case ProtocoleBinaire.COMMANDER:
+                commander(writer);
+                break;
+            case ProtocoleBinaire.AFFICHER_CHARIOT:
+                afficherChariot(writer);
+                break;
+            case ProtocoleBinaire.VOIR_COMMANDES:
+                if (requete.remaining() >= 8) {
+                    voirCommandes(requete.getInt(), requete.getInt(), writer);
+                } else {
+                    voirCommandes(0, Integer.MAX_VALUE, writer); // Requête sans pagination : tout l'historique
+                }
+                break;
+            case ProtocoleBinaire.AJOUTER_PRODUIT: {
+                String id = ProtocoleBinaire.lireChaine(requete);
+                String nom = ProtocoleBinaire.lireChaine(requete);
+                int quantite = requete.getInt();
+                ajouterProduit(id, nom, quantite, requete.getDouble(), writer);
+                break;
+            }
+            case ProtocoleBinaire.MODIFIER_PRODUIT: {
+                String id = ProtocoleBinaire.lireChaine(requete);
+                int quantite = requete.getInt();
+                modifierProduit(id, quantite, requete.getDouble(), writer);
+                break;
+            }
+            case ProtocoleBinaire.SUPPRIMER_PRODUIT:
+                supprimerProduit(ProtocoleBinaire.lireChaine(requete), writer);
+                break;
+            default:
+                throw new InvalidOrderException("Erreur : Opération binaire inconnue : " + operation);
+        }
+    }
+
+    // Méthode pour attribuer un rôle à l'utilisateur (administrateur ou client)
+    private boolean assignRole(PrintWriter writer) {
+        // La réservation atomique du rôle remplace le bloc synchronisé, qui épinglait les threads virtuels
+        if (GestionnaireStockServer.tenterConnexionAdmin()) {
+            writer.println("Bienvenue, Administrateur !");
+            return true;
+        } else {
+            writer.println("Bienvenue, Client !");
+            return false; // Sinon, l'utilisateur est un client
         }
     }
 
     // Méthode pour traiter les commandes de l'administrateur
     private void handleAdminCommand(String[] parts, PrintWriter writer) throws Exception {
         String commande = parts[0];
+        commandeCourante = MetriquesServeur.indiceCommande(commande);
         switch (commande) {
             case "ajouter_produit":
                 if (parts.length == 5) {
-                    String id = parts[1];
-                    String nom = parts[2];
-                    int quantite = Integer.parseInt(parts[3]);
-                    double prix = Double.parseDouble(parts[4]);
-                    stock.put(id, new Produit(id, nom, quantite, prix));
-                    writer.println("Produit ajouté : " + id);
+                    ajouterProduit(parts[1], parts[2], Integer.parseInt(parts[3]), Double.parseDouble(parts[4]), writer);
                 } else {
                     throw new InvalidOrderException("Erreur : Format invalide pour ajouter_produit.");
                 }
@@ -94,15 +504,7 @@ public class ClientHandler implements Runnable {
 
             case "modifier_produit":
                 if (parts.length == 4) {
-                    String id = parts[1];
-                    int quantite = Integer.parseInt(parts[2]);
-                    double prix = Double.parseDouble(parts[3]);
-                    Produit produit = stock.get(id);
-                    if (produit == null) {
-                        throw new StockUnavailableException("Erreur : Produit non trouvé.");
-                    }
-                    produit.updateProduit(quantite, prix);
-                    writer.println("Produit modifié : " + id);
+                    modifierProduit(parts[1], Integer.parseInt(parts[2]), Double.parseDouble(parts[3]), writer);
                 } else {
                     throw new InvalidOrderException("Erreur : Format invalide pour modifier_produit.");
                 }
@@ -110,17 +512,56 @@ public class ClientHandler implements Runnable {
 
             case "supprimer_produit":
                 if (parts.length == 2) {
-                    String id = parts[1];
-                    if (stock.remove(id) != null) {
-                        writer.println("Produit supprimé : " + id);
-                    } else {
-                        throw new StockUnavailableException("Erreur : Produit non trouvé.");
-                    }
+                    supprimerProduit(parts[1], writer);
                 } else {
                     throw new InvalidOrderException("Erreur : Format invalide pour supprimer_produit.");
                 }
                 break;
 
+            case "stats":
+                writer.print(metriques.rapport()); // Compteurs, latences et jauges du serveur
+                break;
+
+            case "abonner":
+                abonner(writer); // Événements de toutes les commandes
+                break;
+
+            case "desabonner":
+                desabonner(writer);
+                break;
+
+            case "importer":
+                if (parts.length >= 2) {
+                    importer(String.join(" ", Arrays.copyOfRange(parts, 1, parts.length)), writer); // Le chemin peut contenir des espaces
+                } else {
+                    throw new InvalidOrderException("Erreur : Format invalide pour importer.");
+                }
+                break;
+
+            case "fin_lot":
+                terminerLot(writer);
+                break;
+
+            case "ventes":
+                writer.print(ventes.resume()); // Totaux et fenêtre glissante
+                break;
+
+            case "top_ventes":
+                if (parts.length <= 2) {
+                    afficherMeilleuresVentes(parts.length == 2 ? Integer.parseInt(parts[1]) : 10, writer);
+                } else {
+                    throw new InvalidOrderException("Erreur : Format invalide pour top_ventes.");
+                }
+                break;
+
+            case "ventes_produit":
+                if (parts.length == 2) {
+                    afficherVentesProduit(parts[1], writer);
+                } else {
+                    throw new InvalidOrderException("Erreur : Format invalide pour ventes_produit.");
+                }
+                break;
+
             default:
                 writer.println("Commande inconnue pour administrateur.");
                 break;
@@ -130,58 +571,95 @@ public class ClientHandler implements Runnable {
     // Méthode pour traiter les commandes du client
     private void handleClientCommand(String[] parts, PrintWriter writer) throws Exception {
         String commande = parts[0];
+        commandeCourante = MetriquesServeur.indiceCommande(commande);
         switch (commande) {
             case "catalogue":
-                for (Produit produit : stock.values()) {
-                    writer.println(produit); // Affiche le catalogue des produits disponibles
+                // Formes acceptées : "catalogue", "catalogue <prefixe>", "catalogue <debut> <limite>", "catalogue <debut> <limite> <prefixe>"
+                if (parts.length == 1) {
+                    afficherCatalogue(0, Integer.MAX_VALUE, null, writer);
+                } else if (parts.length == 2) {
+                    afficherCatalogue(0, Integer.MAX_VALUE, parts[1], writer);
+                } else if (parts.length == 3 || parts.length == 4) {
+                    afficherCatalogue(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), parts.length == 4 ? parts[3] : null, writer);
+                } else {
+                    throw new InvalidOrderException("Erreur : Format invalide pour catalogue.");
                 }
                 break;
 
+            case "rechercher":
+                rechercher(parts, writer);
+                break;
+
             case "ajouter_au_chariot":
                 if (parts.length == 3) {
-                    String produitId = parts[1];
-                    int quantite = Integer.parseInt(parts[2]);
-                    Produit produit = stock.get(produitId);
-                    if (produit == null) {
-                        throw new StockUnavailableException("Erreur : Produit non trouvé.");
-                    }
-                    chariots.get(sessionId).ajouterProduit(produitId, quantite); // Ajoute le produit au chariot du client
-                    writer.println("Produit ajouté au chariot : " + produitId);
+                    ajouterAuChariot(parts[1], Integer.parseInt(parts[2]), writer);
                 } else {
                     throw new InvalidOrderException("Erreur : Format invalide.");
                 }
                 break;
 
             case "commander":
-                Chariot chariot = chariots.get(sessionId);
-                Map<String, Integer> produits = chariot.getProduits();
-                double total = 0;
-
-                for (Map.Entry<String, Integer> entry : produits.entrySet()) {
-                    Produit produit = stock.get(entry.getKey());
-                    if (produit == null || produit.getQuantite() < entry.getValue()) {
-                        throw new StockUnavailableException("Erreur : Stock insuffisant pour " + entry.getKey());
-                    }
-                    produit.setQuantite(produit.getQuantite() - entry.getValue()); // Mise à jour de la quantité du produit en stock
-                    total += produit.getPrix() * entry.getValue(); // Calcul du total
+                commander(writer);
+                break;
+
+            case "afficher_chariot":
+                afficherChariot(writer);
+                break;
+
+            case "voir_commandes":
+                // Formes acceptées : "voir_commandes" et "voir_commandes <debut> <limite>"
+                if (parts.length == 1) {
+                    voirCommandes(0, Integer.MAX_VALUE, writer);
+                } else if (parts.length == 3) {
+                    voirCommandes(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), writer);
+                } else {
+                    throw new InvalidOrderException("Erreur : Format invalide pour voir_commandes.");
                 }
+                break;
 
-                Commande nouvelleCommande = new Commande(produits, total);
-                commandes.get(sessionId).add(nouvelleCommande); // Ajoute la commande à la liste des commandes du client
-                chariot.vider(); // Vide le chariot après la commande
+            case "abonner":
+                abonner(writer); // Événements des commandes de la session
+                break;
 
-                writer.println("Commande passée. Total : " + total);
-                deliveryExecutor.submit(() -> handleDelivery(nouvelleCommande)); // Soumet la gestion de la livraison de la commande dans un thread séparé
+            case "session":
+                writer.println("Session : " + sessionId); // Jeton à donner à "reprendre" après une reconnexion
                 break;
 
-            case "afficher_chariot":
-                writer.println(chariots.get(sessionId).toString()); // Affiche le contenu du chariot du client
+            case "reprendre":
+                if (parts.length == 2) {
+                    reprendre(parts[1], writer);
+                } else {
+                    throw new InvalidOrderException("Erreur : Format invalide pour reprendre.");
+                }
                 break;
 
-            case "voir_commandes":
-                List<Commande> listeCommandes = commandes.get(sessionId);
-                for (Commande c : listeCommandes) {
-                    writer.println(c); // Affiche toutes les commandes du client
+            case "desabonner":
+                desabonner(writer);
+                break;
+
+            // Validation en deux phases d'une commande répartie sur plusieurs partitions (envoyées par le routeur du cluster)
+            case "preparer":
+                if (transactions != null && parts.length == 2) {
+                    preparer(parts[1], writer);
+                } else {
+                    throw new InvalidOrderException(transactions == null ? "Erreur : Commande réservée au mode cluster." : "Erreur : Format invalide pour preparer.");
+                }
+                break;
+
+            case "confirmer":
+                if (transactions != null && parts.length == 2) {
+                    confirmer(parts[1], writer);
+                } else {
+                    throw new InvalidOrderException(transactions == null ? "Erreur : Commande réservée au mode cluster." : "Erreur : Format invalide pour confirmer.");
+                }
+                break;
+
+            case "annuler":
+                if (transactions != null && parts.length == 2) {
+                    transactions.annuler(sessionId, parts[1]);
+                    writer.println("Transaction annulée.");
+                } else {
+                    throw new InvalidOrderException(transactions == null ? "Erreur : Commande réservée au mode cluster." : "Erreur : Format invalide pour annuler.");
                 }
                 break;
 
@@ -191,18 +669,265 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    // Méthode pour simuler la gestion de la livraison de la commande
-    private void handleDelivery(Commande commande) {
+    // Opérations communes aux protocoles texte et binaire
+
+    private void ajouterProduit(String id, String nom, int quantite, double prix, PrintWriter writer) throws IOException, InvalidOrderException {
+        if (partition != null && !partition.possede(id)) {
+            throw new InvalidOrderException("Erreur : Le produit " + id + " appartient à la partition "
+                    + Partition.partitionDe(id, partition.getNombre()) + ", pas à " + partition.getIndice() + ".");
+        }
+        serviceStock.ajouterProduit(id, nom, quantite, prix);
+        writer.println("Produit ajouté : " + id);
+    }
+
+    private void modifierProduit(String id, int quantite, double prix, PrintWriter writer) throws IOException, StockUnavailableException {
+        serviceStock.modifierProduit(id, quantite, prix);
+        writer.println("Produit modifié : " + id);
+    }
+
+    private void supprimerProduit(String id, PrintWriter writer) throws IOException, StockUnavailableException {
+        serviceStock.supprimerProduit(id);
+        writer.println("Produit supprimé : " + id);
+    }
+
+    // Import en masse d'un fichier CSV du serveur (voir ImportCatalogue)
+    private void importer(String chemin, PrintWriter writer) throws IOException, InvalidOrderException {
+        Path fichier = Paths.get(chemin);
+        if (!Files.isRegularFile(fichier)) {
+            throw new InvalidOrderException("Erreur : Fichier introuvable : " + chemin);
+        }
+        writer.print(new ImportCatalogue(serviceStock).importer(fichier));
+    }
+
+    private void commencerLot() {
+        lot = new ArrayList<>();
+        erreursLot = new ArrayList<>();
+        lignesLot = 0;
+    }
+
+    // Ajoute une ligne au lot en cours ; les lots très longs sont appliqués par tranches pour borner la mémoire
+    private void ajouterAuLot(String ligne) {
+        lignesLot++;
+        String[] parts = ligne.split(" ");
         try {
-            commande.setStatut("En préparation");
-            Thread.sleep(new Random().nextInt(5000) + 2000); // Simulation d'un délai de préparation
-            commande.setStatut("Expédiée");
-            Thread.sleep(new Random().nextInt(5000) + 2000); // Simulation d'un délai d'expédition
-            commande.setStatut("Livrée");
-            System.out.println("Commande ID " + commande.getId() + " a été livrée.");
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            System.err.println("Erreur pendant la livraison : " + e.getMessage());
+            if (parts[0].equals("ajouter_produit") && parts.length == 5) {
+                lot.add(OperationStock.ajout(parts[1], parts[2], Integer.parseInt(parts[3]), Double.parseDouble(parts[4])));
+            } else if (parts[0].equals("modifier_produit") && parts.length == 4) {
+                lot.add(OperationStock.modification(parts[1], Integer.parseInt(parts[2]), Double.parseDouble(parts[3])));
+            } else if (parts[0].equals("supprimer_produit") && parts.length == 2) {
+                lot.add(OperationStock.suppression(parts[1]));
+            } else if (!ligne.isEmpty()) {
+                erreursLot.add("Ligne " + lignesLot + " : Opération invalide dans un lot : " + ligne);
+            }
+        } catch (NumberFormatException e) {
+            erreursLot.add("Ligne " + lignesLot + " : Nombre invalide : " + ligne);
+        }
+        if (lot.size() >= TAILLE_TRANCHE_LOT) {
+            appliquerLot();
+        }
+    }
+
+    private void appliquerLot() {
+        try {
+            serviceStock.appliquerLot(lot, erreursLot);
+        } catch (IOException e) {
+            erreursLot.add(e.getMessage() + " (" + lot.size() + " opérations non appliquées)");
+        }
+        lot.clear();
+    }
+
+    // Affiche les "k" produits les plus vendus (au plus AnalyseVentes.TOP_MAX)
+    private void afficherMeilleuresVentes(int k, PrintWriter writer) throws InvalidOrderException {
+        if (k < 1 || k > AnalyseVentes.TOP_MAX) {
+            throw new InvalidOrderException("Erreur : Le nombre de produits doit être compris entre 1 et " + AnalyseVentes.TOP_MAX + ".");
+        }
+        List<AnalyseVentes.VentesProduit> meilleures = ventes.meilleuresVentes(k);
+        if (meilleures.isEmpty()) {
+            writer.println("Aucune vente.");
+        }
+        int rang = 1;
+        for (AnalyseVentes.VentesProduit produit : meilleures) {
+            writer.println(rang++ + ". " + ventes.decrire(produit));
+        }
+    }
+
+    // Affiche les ventes d'un produit
+    private void afficherVentesProduit(String id, PrintWriter writer) {
+        AnalyseVentes.VentesProduit produit = ventes.ventesProduit(id);
+        writer.println(produit == null ? "Aucune vente pour le produit : " + id : ventes.decrire(produit));
+    }
+
+    // Applique la fin du lot et écrit son unique réponse : un résumé puis les premières erreurs
+    private void terminerLot(PrintWriter writer) throws InvalidOrderException {
+        if (lot == null) {
+            throw new InvalidOrderException("Erreur : Aucun lot en cours.");
+        }
+        appliquerLot();
+        int erreurs = erreursLot.size();
+        writer.println("Lot appliqué : " + lignesLot + " lignes, " + erreurs + " erreurs.");
+        for (int i = 0; i < Math.min(erreurs, 20); i++) {
+            writer.println(erreursLot.get(i));
+        }
+        if (erreurs > 20) {
+            writer.println("(" + (erreurs - 20) + " autres erreurs)");
+        }
+        lot = null;
+        erreursLot = null;
+    }
+
+    private void afficherCatalogue(int debut, int limite, String prefixe, PrintWriter writer) throws IOException, InvalidOrderException {
+        if (debut < 0 || limite < 0) {
+            throw new InvalidOrderException("Erreur : Pagination invalide.");
+        }
+        writer.flush(); // Le catalogue est écrit directement en octets, après ce qui a déjà été écrit
+        catalogue.ecrire(sortie, debut, limite, prefixe); // Affiche le catalogue des produits disponibles
+    }
+
+    // Recherche de produits : "rechercher <termes...> [prix:MIN-MAX] [dispo] [max:N]" (voir IndexRecherche)
+    private void rechercher(String[] parts, PrintWriter writer) throws InvalidOrderException {
+        StringBuilder texte = new StringBuilder();
+        double prixMin = 0;
+        double prixMax = Double.MAX_VALUE;
+        boolean disponibles = false;
+        int limite = 20;
+        try {
+            for (int i = 1; i < parts.length; i++) {
+                String part = parts[i];
+                if (part.startsWith("prix:")) {
+                    String[] bornes = part.substring("prix:".length()).split("-", -1);
+                    if (bornes.length != 2) {
+                        throw new InvalidOrderException("Erreur : Filtre de prix invalide (prix:MIN-MAX).");
+                    }
+                    prixMin = bornes[0].isEmpty() ? 0 : Double.parseDouble(bornes[0]);
+                    prixMax = bornes[1].isEmpty() ? Double.MAX_VALUE : Double.parseDouble(bornes[1]);
+                } else if (part.equals("dispo")) {
+                    disponibles = true;
+                } else if (part.startsWith("max:")) {
+                    limite = Math.min(Integer.parseInt(part.substring("max:".length())), 100);
+                } else {
+                    texte.append(part).append(' ');
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new InvalidOrderException("Erreur : Nombre invalide pour rechercher.");
+        }
+        if (texte.length() == 0 || limite < 1) {
+            throw new InvalidOrderException("Erreur : Format invalide pour rechercher.");
+        }
+        List<Produit> trouves = recherche.rechercher(texte.toString(), prixMin, prixMax, disponibles, limite);
+        if (trouves.isEmpty()) {
+            writer.println("Aucun produit trouvé.");
+        }
+        for (Produit produit : trouves) {
+            writer.println(produit);
+        }
+    }
+
+    private void ajouterAuChariot(String produitId, int quantite, PrintWriter writer) throws StockUnavailableException {
+        Produit produit = stock.get(produitId);
+        if (produit == null) {
+            throw new StockUnavailableException("Erreur : Produit non trouvé.");
+        }
+        // Ajoute le produit au chariot du client, sous l'ID du produit lui-même (instance partagée par les commandes)
+        chariots.get(sessionId).ajouterProduit(produit.getId(), quantite);
+        writer.println("Produit ajouté au chariot : " + produitId);
+    }
+
+    private void commander(PrintWriter writer) throws Exception {
+        Chariot chariot = chariots.get(sessionId);
+        // Réservation atomique de tout le chariot (en cas d'échec, aucun produit n'est décrémenté), puis journalisation
+        Commande nouvelleCommande = reservations.commander(sessionId, chariot.getProduits());
+        enregistrerCommande(chariot, nouvelleCommande);
+        writer.println("Commande passée. Total : " + nouvelleCommande.getTotal());
+    }
+
+    // Première phase d'une commande répartie : le chariot est réservé jusqu'à "confirmer" ou "annuler", ou jusqu'à
+    // ce que la session quitte la connexion
+    private void preparer(String idTransaction, PrintWriter writer) throws Exception {
+        Map<String, Integer> produits = new HashMap<>(chariots.get(sessionId).getProduits()); // Copie : le chariot est vidé à la confirmation
+        double total = transactions.preparer(sessionId, idTransaction, produits);
+        writer.println("Transaction préparée. Total : " + total);
+    }
+
+    // Seconde phase : la réservation devient une commande, comme avec "commander"
+    private void confirmer(String idTransaction, PrintWriter writer) throws Exception {
+        Commande nouvelleCommande = transactions.confirmer(sessionId, idTransaction);
+        enregistrerCommande(chariots.get(sessionId), nouvelleCommande);
+        writer.println("Commande passée. Total : " + nouvelleCommande.getTotal());
+    }
+
+    // Suites d'une commande journalisée : historique, métriques, suivi et planification de la livraison
+    private void enregistrerCommande(Chariot chariot, Commande nouvelleCommande) {
+        commandes.get(sessionId).add(nouvelleCommande); // Ajoute la commande à la liste des commandes du client
+        metriques.commandeCreee(nouvelleCommande);
+        ventes.commandePassee(nouvelleCommande); // Simple dépôt dans une file : les agrégats sont calculés par le thread d'analyse
+        if (abonnement != null) {
+            diffuseur.suivre(nouvelleCommande, abonnement); // Avant la planification, pour ne manquer aucun statut
+        }
+        chariot.vider(); // Vide le chariot après la commande
+        livraisons.planifier(nouvelleCommande); // La livraison avance en arrière-plan, sans occuper de thread
+    }
+
+    private void afficherChariot(PrintWriter writer) {
+        writer.println(chariots.get(sessionId).toString()); // Affiche le contenu du chariot du client
+    }
+
+    // Affiche au plus "limite" commandes du client à partir de la commande numéro "debut" (dans l'ordre de création),
+    // sans parcourir ni copier le reste de l'historique
+    private void voirCommandes(int debut, int limite, PrintWriter writer) throws InvalidOrderException {
+        if (debut < 0 || limite < 0) {
+            throw new InvalidOrderException("Erreur : Pagination invalide.");
+        }
+        HistoriqueCommandes historique = commandes.get(sessionId);
+        int fin = (int) Math.min(historique.size(), (long) debut + limite);
+        for (int i = debut; i < fin; i++) {
+            writer.println(historique.get(i));
+        }
+    }
+
+    // Méthode pour reprendre une session détachée : la session courante est détachée (oubliée si elle est vide)
+    // et la connexion continue avec le chariot et les commandes de la session reprise
+    private void reprendre(String jeton, PrintWriter writer) throws IOException, InvalidOrderException {
+        if (jeton.equals(sessionId)) {
+            writer.println("Session reprise : " + sessionId);
+            return;
+        }
+        if (!sessions.reprendre(jeton)) {
+            throw new InvalidOrderException("Erreur : Session inconnue ou déjà utilisée.");
+        }
+        if (transactions != null) {
+            transactions.abandonner(sessionId);
+        }
+        sessions.detacher(sessionId);
+        sessionId = jeton;
+        if (abonnement != null) {
+            for (Commande c : commandes.get(sessionId)) {
+                diffuseur.suivre(c, abonnement); // L'abonnement suit désormais les commandes de la session reprise
+            }
+        }
+        writer.println("Session reprise : " + sessionId);
+    }
+
+    // Méthode pour abonner la session aux changements de statut : ses commandes pour un client, toutes pour l'administrateur
+    private void abonner(PrintWriter writer) {
+        if (abonnement == null) {
+            abonnement = diffuseur.creerAbonnement(signalEvenements);
+            if (isAdmin) {
+                diffuseur.suivreTout(abonnement);
+            } else {
+                for (Commande c : commandes.get(sessionId)) {
+                    diffuseur.suivre(c, abonnement);
+                }
+            }
+        }
+        writer.println("Abonnement activé.");
+    }
+
+    private void desabonner(PrintWriter writer) {
+        if (abonnement != null) {
+            diffuseur.desabonner(abonnement);
+            abonnement = null;
         }
+        writer.println("Abonnement désactivé.");
     }
 }
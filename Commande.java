@@ -1,20 +1,84 @@
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+// Les lignes d'une commande ne changent plus après sa création : elles sont gardées dans des tableaux parallèles
+// (ID de produit partagés entre toutes les commandes, quantités en int, prix unitaires en centimes) plutôt que dans
+// une HashMap par commande, et le total est gardé en centimes. Les ID reçus sont gardés tels quels : le chariot les tient déjà de Produit.getId(),
+// si bien que toutes les commandes partagent l'instance de la clé du stock.
 public class Commande {
     // Attributs de la classe Commande
-    private static int compteur = 1;  // Compteur statique pour générer des ID de commande uniques
+    private static final AtomicInteger compteur = new AtomicInteger(1);  // Compteur pour générer des ID de commande uniques
+    private static int pas = 1;       // Écart entre deux ID consécutifs (le nombre de partitions en mode cluster)
+    private static int decalage = 0;  // Reste des ID de ce serveur modulo "pas" (le numéro de sa partition)
     private final int id;             // ID unique de la commande
-    private final Map<String, Integer> produits;  // Liste des produits dans la commande (clé: ID produit, valeur: quantité)
-    private final double total;       // Montant total de la commande
+    private final String[] produits;  // ID des produits de la commande (instances partagées)
+    private final int[] quantites;    // Quantité de chaque produit, au même indice que son ID
+    private final long[] prix;        // Prix unitaire de chaque produit au moment de la réservation, en centimes
+    private final long totalCentimes; // Montant total de la commande, en centimes
     private volatile String statut;   // Statut de la commande (ex: "En préparation", "Expédiée", "Livrée")
 
-    // Constructeur de la classe Commande
-    public Commande(Map<String, Integer> produits, double total) {
-        this.id = compteur++;   // L'ID de la commande est attribué de manière unique avec le compteur statique
-        this.produits = new HashMap<>(produits);  // Crée une nouvelle carte de produits pour éviter les modifications extérieures
-        this.total = total;    // Initialise le montant total de la commande
+    // Constructeur de la classe Commande : "prix" donne le prix unitaire (en centimes) de chaque ligne de "produits",
+    // dans l'ordre où la carte les parcourt (voir MoteurReservation.reserver)
+    public Commande(Map<String, Integer> produits, long[] prix) {
+        this(compteur.getAndIncrement() * pas + decalage, produits, prix, -1, false); // L'ID de la commande est attribué de manière unique sans verrou
+    }
+
+    // Constructeur utilisé lors de la restauration du journal : l'ID d'origine est conservé
+    public Commande(int id, Map<String, Integer> produits, long[] prix) {
+        this(id, produits, prix, -1, true);
+    }
+
+    // Constructeur des commandes enregistrées avant les prix par ligne : le total enregistré est gardé, et réparti
+    // également entre les unités pour le prix de chaque ligne
+    public Commande(int id, Map<String, Integer> produits, double total) {
+        this(id, produits, repartir(produits, Math.round(total * 100)), Math.round(total * 100), true);
+    }
+
+    // "totalCentimes" vaut -1 s'il faut le calculer à partir des lignes
+    private Commande(int id, Map<String, Integer> produits, long[] prix, long totalCentimes, boolean restauree) {
+        this.id = id;
+        this.produits = new String[produits.size()];  // Copie des lignes pour éviter les modifications extérieures
+        this.quantites = new int[produits.size()];
+        this.prix = prix.clone();
+        long total = 0;
+        int i = 0;
+        for (Map.Entry<String, Integer> ligne : produits.entrySet()) {
+            this.produits[i] = ligne.getKey();
+            this.quantites[i] = ligne.getValue();
+            total += prix[i] * quantites[i];
+            i++;
+        }
+        this.totalCentimes = totalCentimes < 0 ? total : totalCentimes;
         this.statut = "En préparation";  // Initialise le statut de la commande par défaut à "En préparation"
+        if (restauree) {
+            reserverIdentifiants(id); // Les nouvelles commandes reçoivent un ID supérieur aux ID restaurés
+        }
+    }
+
+    // Prix unitaire moyen, en centimes, de chaque ligne d'une commande dont seul le total est connu
+    private static long[] repartir(Map<String, Integer> produits, long totalCentimes) {
+        long unites = 0;
+        for (int quantite : produits.values()) {
+            unites += quantite;
+        }
+        long[] prix = new long[produits.size()];
+        Arrays.fill(prix, unites == 0 ? 0 : Math.round((double) totalCentimes / unites));
+        return prix;
+    }
+
+    // Méthode pour que les nouvelles commandes reçoivent un ID supérieur à "id" (restauration d'une commande, ou d'un
+    // ID déjà attribué à une commande qui n'est plus dans le journal)
+    public static void reserverIdentifiants(int id) {
+        compteur.accumulateAndGet(id / pas + 1, Math::max);
+    }
+
+    // Méthode pour numéroter les commandes d'un serveur de partition (à appeler au démarrage, avant toute commande) :
+    // ses ID sont congrus à son numéro de partition, si bien qu'ils restent uniques dans tout le cluster
+    public static void numeroterPourPartition(Partition partition) {
+        pas = partition.getNombre();
+        decalage = partition.getIndice();
     }
 
     // Méthode pour obtenir l'ID de la commande
@@ -22,23 +86,45 @@ public class Commande {
         return id;  // Retourne l'ID de la commande
     }
 
-    // Méthode pour obtenir les produits de la commande
+    // Méthode pour obtenir les produits de la commande (carte construite à chaque appel)
     public Map<String, Integer> getProduits() {
-        return produits;  // Retourne la carte des produits dans la commande
+        Map<String, Integer> carte = new LinkedHashMap<>();
+        for (int i = 0; i < produits.length; i++) {
+            carte.put(produits[i], quantites[i]);
+        }
+        return carte;  // Retourne la carte des produits dans la commande
+    }
+
+    // Méthodes pour parcourir les lignes de la commande sans construire de carte
+    public int getNombreLignes() {
+        return produits.length;
+    }
+
+    public String getProduit(int ligne) {
+        return produits[ligne];
+    }
+
+    public int getQuantite(int ligne) {
+        return quantites[ligne];
+    }
+
+    // Prix unitaire de la ligne, en centimes
+    public long getPrix(int ligne) {
+        return prix[ligne];
     }
 
     // Méthode pour obtenir le total de la commande
     public double getTotal() {
-        return total;  // Retourne le montant total de la commande
+        return totalCentimes / 100.0;  // Retourne le montant total de la commande
     }
 
-    // Méthode synchronisée pour obtenir le statut de la commande
-    public synchronized String getStatut() {
+    // Méthode pour obtenir le statut de la commande (le champ volatile suffit, sans verrou)
+    public String getStatut() {
         return statut;  // Retourne le statut de la commande
     }
 
-    // Méthode synchronisée pour modifier le statut de la commande
-    public synchronized void setStatut(String statut) {
+    // Méthode pour modifier le statut de la commande
+    public void setStatut(String statut) {
         this.statut = statut;  // Modifie le statut de la commande
     }
 
@@ -47,11 +133,11 @@ public class Commande {
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("Commande ID: ").append(id).append("\n");  // Ajoute l'ID de la commande
-        for (Map.Entry<String, Integer> entry : produits.entrySet()) {  // Parcourt les produits de la commande
-            sb.append("Produit ID: ").append(entry.getKey())  // Ajoute l'ID du produit
-              .append(", Quantité: ").append(entry.getValue()).append("\n");  // Ajoute la quantité du produit
+        for (int i = 0; i < produits.length; i++) {  // Parcourt les produits de la commande
+            sb.append("Produit ID: ").append(produits[i])  // Ajoute l'ID du produit
+              .append(", Quantité: ").append(quantites[i]).append("\n");  // Ajoute la quantité du produit
         }
-        sb.append("Total: ").append(total).append("\nStatut: ").append(statut).append("\n");  // Ajoute le total et le statut de la commande
+        sb.append("Total: ").append(getTotal()).append("\nStatut: ").append(statut).append("\n");  // Ajoute le total et le statut de la commande
         return sb.toString();  // Retourne la chaîne représentant la commande
     }
 }
@@ -0,0 +1,119 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// Regroupe l'état partagé du serveur, transmis à chaque ClientHandler quel que soit le mode (threads ou NIO)
+public class ContexteServeur {
+    private final Map<String, Produit> stock; // Le stock de produits
+    private final Map<String, Chariot> chariots; // Les chariots des clients, par sessionId
+    private final Map<String, HistoriqueCommandes> commandes; // Les commandes des clients, par sessionId
+    private final GestionnaireSessions sessions; // Le cycle de vie des sessions client (reprise, éviction, archivage)
+    private final PlanificateurLivraisons livraisons; // Le planificateur des livraisons simulées
+    private final ServiceStock serviceStock; // Les opérations d'administration du stock (journalisées et signalées)
+    private final MoteurReservation reservations; // Le moteur de réservation du stock
+    private final CacheCatalogue catalogue; // Le catalogue déjà mis en forme
+    private final IndexRecherche recherche; // L'index de recherche des produits par nom et par ID
+    private final AnalyseVentes ventes; // Les statistiques de ventes en temps réel
+    private final JournalStock journal; // Le journal de persistance, ou null si la persistance est désactivée
+    private final MetriquesServeur metriques; // Les compteurs et latences du serveur
+    private final DiffuseurStatuts diffuseur; // La diffusion des changements de statut aux sessions abonnées
+    private final Partition partition; // La partition du stock tenue par ce serveur en mode cluster, ou null
+    private final TransactionsPartition transactions; // Les réservations en deux phases du mode cluster, ou null
+    private final ControleAdmission admission; // Le contrôle d'admission des requêtes client, ou null s'il est désactivé
+
+    // Constructeur du contexte
+    public ContexteServeur(Map<String, Produit> stock, GestionnaireSessions sessions, PlanificateurLivraisons livraisons, JournalStock journal) {
+        this(stock, sessions, livraisons, journal, null, null);
+    }
+
+    // Constructeur complet : "partition" est non nulle pour un serveur de partition (mode cluster),
+    // "admission" est nul pour désactiver le contrôle d'admission
+    public ContexteServeur(Map<String, Produit> stock, GestionnaireSessions sessions, PlanificateurLivraisons livraisons,
+                           JournalStock journal, Partition partition, ControleAdmission admission) {
+        this.stock = stock;
+        this.sessions = sessions;
+        this.chariots = sessions.getChariots();
+        this.commandes = sessions.getCommandes();
+        this.livraisons = livraisons;
+        this.serviceStock = new ServiceStock(stock, journal);
+        this.metriques = new MetriquesServeur(sessions, livraisons, journal);
+        this.reservations = new MoteurReservation(serviceStock, metriques);
+        this.catalogue = new CacheCatalogue(stock);
+        this.journal = journal;
+        serviceStock.ajouterEcouteur(catalogue);
+        this.recherche = new IndexRecherche(stock);
+        serviceStock.ajouterEcouteur(recherche);
+        this.ventes = new AnalyseVentes(stock, commandes);
+        ventes.demarrer();
+        this.diffuseur = new DiffuseurStatuts();
+        livraisons.demarrer(metriques, diffuseur, journal);
+        this.partition = partition;
+        this.transactions = partition != null ? new TransactionsPartition(reservations) : null;
+        metriques.suivreTransactions(transactions);
+        this.admission = admission;
+        metriques.suivreAdmission(admission);
+    }
+
+    public Map<String, Produit> getStock() {
+        return stock;
+    }
+
+    public Map<String, Chariot> getChariots() {
+        return chariots;
+    }
+
+    public Map<String, HistoriqueCommandes> getCommandes() {
+        return commandes;
+    }
+
+    public GestionnaireSessions getSessions() {
+        return sessions;
+    }
+
+    public PlanificateurLivraisons getLivraisons() {
+        return livraisons;
+    }
+
+    public ServiceStock getServiceStock() {
+        return serviceStock;
+    }
+
+    public CacheCatalogue getCatalogue() {
+        return catalogue;
+    }
+
+    public IndexRecherche getRecherche() {
+        return recherche;
+    }
+
+    public AnalyseVentes getVentes() {
+        return ventes;
+    }
+
+    public MoteurReservation getReservations() {
+        return reservations;
+    }
+
+    public JournalStock getJournal() {
+        return journal;
+    }
+
+    public MetriquesServeur getMetriques() {
+        return metriques;
+    }
+
+    public DiffuseurStatuts getDiffuseur() {
+        return diffuseur;
+    }
+
+    public Partition getPartition() {
+        return partition;
+    }
+
+    public TransactionsPartition getTransactions() {
+        return transactions;
+    }
+
+    public ControleAdmission getAdmission() {
+        return admission;
+    }
+}
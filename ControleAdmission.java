@@ -0,0 +1,201 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Contrôle d'admission du serveur : plutôt que de laisser les requêtes s'accumuler (et la latence monter pour tout le monde)
+// quand la charge dépasse ce que le serveur peut traiter, une requête en trop est refusée aussitôt avec une réponse explicite.
+// - Débit par session : un seau à jetons par classe de commande (achat : ajouter_au_chariot, commander ; navigation : le reste).
+//   Une session qui inonde le serveur est freinée sans gêner les autres.
+// - Concurrence globale : nombre de requêtes client exécutées en même temps, borné par une limite qui s'adapte à la latence.
+//   Toutes les 100 ms, la latence moyenne de chaque classe est comparée à la latence de référence de cette classe (la plus
+//   basse observée, lentement remontée) : si l'une dépasse le double, la limite baisse en proportion ; sinon, elle
+//   augmente de sa racine carrée quand elle a servi. Un achat (journalisé) coûte bien plus qu'une navigation : avec une
+//   seule moyenne, un simple changement de la part des achats ferait baisser la limite sans que le serveur ralentisse.
+//   Cette limite ne protège que le serveur à un thread par connexion : avec --nio, les requêtes s'exécutent sur les
+//   boucles d'événements (et les travailleurs des requêtes bloquantes), si bien que "enCours" ne dépasse jamais leur
+//   nombre ; seuls les débits par session et le nombre de connexions y limitent alors la charge.
+// - Priorité : la navigation n'a droit qu'à 80 % de la limite ; sous forte charge, elle est donc refusée la première
+//   et les achats passent.
+// - Connexions : au-delà de --connexions-max, une nouvelle connexion reçoit "Serveur occupé" et est fermée, pour que les
+//   pools de threads ne grossissent pas sans fin.
+// Les commandes de l'administrateur ne sont jamais limitées, pour qu'il puisse intervenir pendant une surcharge.
+public class ControleAdmission {
+    // Classes de commandes
+    public static final int ACHAT = 0;
+    public static final int NAVIGATION = 1;
+    public static final String[] NOMS_CLASSES = {"achat", "navigation"};
+    // Motifs de refus, pour les métriques
+    public static final int MOTIF_DEBIT = 0;
+    public static final int MOTIF_CONCURRENCE = 1;
+    public static final int MOTIF_CONNEXIONS = 2;
+    public static final String[] NOMS_MOTIFS = {"debit_session", "concurrence", "connexions"};
+
+    public static final String OCCUPE = "Erreur : Serveur occupé, réessayez plus tard.";
+    public static final String TROP_DE_REQUETES = "Erreur : Trop de requêtes, réessayez plus tard.";
+
+    private static final long FENETRE_NANOS = TimeUnit.MILLISECONDS.toNanos(100); // Période d'ajustement de la limite
+    private static final int ECHANTILLONS_MIN = 20; // En dessous, la fenêtre ne dit rien de la latence
+    private static final double TOLERANCE = 2.0; // Latence acceptée par rapport à la référence avant de réduire la limite
+    private static final double LISSAGE = 0.2; // Part de la nouvelle valeur à chaque ajustement
+    private static final double PART_NAVIGATION = 0.8; // Part de la limite ouverte à la navigation
+
+    private final double[] debits; // Jetons par seconde de chaque classe, pour une session (0 = sans limite)
+    private final double[] rafales; // Contenance de chaque seau
+    private final int limiteMin;
+    private final int limiteMax;
+    private final int connexionsMax;
+    private volatile int limite;
+    private final AtomicInteger enCours = new AtomicInteger();
+    private final AtomicInteger maxEnCoursFenetre = new AtomicInteger(); // Plus forte concurrence de la fenêtre
+    private final AtomicInteger connexions = new AtomicInteger();
+    private final LongAdder[] sommeLatences = {new LongAdder(), new LongAdder()}; // Par classe
+    private final LongAdder[] nombreLatences = {new LongAdder(), new LongAdder()};
+    private final AtomicLong debutFenetre = new AtomicLong(System.nanoTime());
+    private final long[] latencesReference = new long[2]; // Par classe, en ns, 0 tant qu'aucune fenêtre n'a été mesurée
+
+    // Constructeur : débits par session en requêtes par seconde (rafale de deux secondes), bornes de la limite de concurrence
+    public ControleAdmission(double debitAchat, double debitNavigation, int limiteMin, int limiteMax, int connexionsMax) {
+        this.debits = new double[] {debitAchat, debitNavigation};
+        this.rafales = new double[] {Math.max(1, 2 * debitAchat), Math.max(1, 2 * debitNavigation)};
+        this.limiteMin = Math.max(1, limiteMin);
+        this.limiteMax = Math.max(this.limiteMin, limiteMax);
+        this.connexionsMax = connexionsMax;
+        this.limite = this.limiteMax; // Réduite dès les premières fenêtres si la latence monte
+    }
+
+    // Méthode pour obtenir la classe d'une commande (indices de MetriquesServeur)
+    public static int classeDe(int commande) {
+        switch (commande) {
+            case MetriquesServeur.AJOUTER_AU_CHARIOT:
+            case MetriquesServeur.COMMANDER:
+            case MetriquesServeur.TRANSACTION:
+                return ACHAT;
+            default:
+                return NAVIGATION;
+        }
+    }
+
+    // Seaux à jetons d'une session, un par classe ; utilisés par le seul thread qui traite la session, donc sans verrou
+    public final class Seaux {
+        private final double[] jetons = rafales.clone();
+        private final long[] derniers = {System.nanoTime(), System.nanoTime()};
+
+        // Méthode pour prendre un jeton ; renvoie faux si la session a dépassé son débit
+        public boolean consommer(int classe) {
+            if (debits[classe] <= 0) {
+                return true;
+            }
+            long maintenant = System.nanoTime();
+            jetons[classe] = Math.min(rafales[classe], jetons[classe] + (maintenant - derniers[classe]) * debits[classe] / 1e9);
+            derniers[classe] = maintenant;
+            if (jetons[classe] < 1) {
+                return false;
+            }
+            jetons[classe] -= 1;
+            return true;
+        }
+    }
+
+    public Seaux creerSeaux() {
+        return new Seaux();
+    }
+
+    // Méthode pour réserver une place d'exécution ; renvoie faux si la limite de la classe est atteinte.
+    // Une place obtenue doit être rendue par sortir().
+    public boolean entrer(int classe) {
+        int actuelle = limite;
+        int plafond = classe == ACHAT ? actuelle : Math.max(1, (int) (actuelle * PART_NAVIGATION));
+        while (true) {
+            int nombre = enCours.get();
+            if (nombre >= plafond) {
+                return false;
+            }
+            if (enCours.compareAndSet(nombre, nombre + 1)) {
+                maxEnCoursFenetre.accumulateAndGet(nombre + 1, Math::max);
+                return true;
+            }
+        }
+    }
+
+    // Méthode pour rendre une place d'exécution, avec la classe et la durée de la requête ; ajuste la limite à la fin
+    // de chaque fenêtre
+    public void sortir(int classe, long dureeNanos) {
+        enCours.decrementAndGet();
+        sommeLatences[classe].add(dureeNanos);
+        nombreLatences[classe].increment();
+        long debut = debutFenetre.get();
+        long maintenant = System.nanoTime();
+        if (maintenant - debut >= FENETRE_NANOS && debutFenetre.compareAndSet(debut, maintenant)) {
+            ajuster(); // Un seul thread par fenêtre
+        }
+    }
+
+    // Appelée par un seul thread à la fois (celui qui a clos la fenêtre)
+    private synchronized void ajuster() {
+        int maxEnCours = maxEnCoursFenetre.getAndSet(enCours.get());
+        double rapport = Double.MAX_VALUE; // Plus faible rapport référence / moyenne parmi les classes mesurées
+        for (int classe = 0; classe < latencesReference.length; classe++) {
+            long nombre = nombreLatences[classe].sumThenReset();
+            long somme = sommeLatences[classe].sumThenReset();
+            if (nombre < ECHANTILLONS_MIN) {
+                continue; // Trop peu de requêtes de cette classe dans la fenêtre pour juger sa latence
+            }
+            long moyenne = Math.max(1, somme / nombre);
+            long reference = latencesReference[classe];
+            // La référence suit la plus basse moyenne, mais remonte d'environ 1 % par seconde : un changement durable
+            // (catalogue plus gros, disque plus lent) finit par être accepté
+            reference = reference == 0 ? moyenne : Math.min(moyenne, reference + Math.max(1, reference / 1000));
+            latencesReference[classe] = reference;
+            rapport = Math.min(rapport, (double) reference / moyenne);
+        }
+        if (rapport == Double.MAX_VALUE) {
+            return;
+        }
+
+        int actuelle = limite;
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * rapport));
+        double cible = actuelle * gradient;
+        if (gradient >= 1.0 && maxEnCours >= actuelle / 2) {
+            cible += Math.sqrt(actuelle); // Latence correcte et limite utilisée : on essaie plus haut
+        }
+        int nouvelle = (int) Math.round(actuelle + LISSAGE * (cible - actuelle));
+        if (cible > actuelle && nouvelle == actuelle) {
+            nouvelle++;
+        }
+        limite = Math.max(limiteMin, Math.min(limiteMax, nouvelle));
+    }
+
+    // Méthode appelée à chaque nouvelle connexion ; renvoie faux si le nombre maximal de connexions est atteint
+    public boolean accepterConnexion() {
+        while (true) {
+            int nombre = connexions.get();
+            if (nombre >= connexionsMax) {
+                return false;
+            }
+            if (connexions.compareAndSet(nombre, nombre + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void connexionFermee() {
+        connexions.decrementAndGet();
+    }
+
+    public int getLimite() {
+        return limite;
+    }
+
+    public int getEnCours() {
+        return enCours.get();
+    }
+
+    public int getConnexions() {
+        return connexions.get();
+    }
+
+    public synchronized long getLatenceReference(int classe) {
+        return latencesReference[classe];
+    }
+}
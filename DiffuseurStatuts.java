@@ -0,0 +1,131 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Diffusion des changements de statut des commandes aux sessions abonnées (commande "abonner"), au lieu de relire
+// toutes les commandes avec "voir_commandes". Un client suit ses propres commandes, l'administrateur toutes les commandes.
+// Chaque abonnement a sa propre file d'événements, bornée : si un client lit lentement, un nouveau statut remplace
+// celui encore en attente pour la même commande, et au-delà de TAILLE_MAX_FILE commandes en attente, les plus anciens
+// événements sont abandonnés (le client reçoit "EVT PERTE <n>" et peut relire ses commandes).
+public class DiffuseurStatuts {
+    public static final int TAILLE_MAX_FILE = 1024; // Nombre maximal de commandes en attente par abonnement
+
+    private final Map<Integer, Abonnement> suivis = new ConcurrentHashMap<>(); // Commandes suivies par un client, par ID
+    private final List<Abonnement> globaux = new CopyOnWriteArrayList<>(); // Abonnements à toutes les commandes
+    private final ExecutorService emetteurs; // Écritures des événements pour les connexions bloquantes (pool borné)
+
+    // Abonnement d'une session : file d'événements en attente et signal donné à la connexion quand la file se remplit
+    public static final class Abonnement {
+        private final LinkedHashMap<Integer, String> enAttente = new LinkedHashMap<>(); // Dernier statut par commande, dans l'ordre d'arrivée
+        private final AtomicBoolean signale = new AtomicBoolean(); // Vrai tant que des événements attendent d'être écrits
+        private final Runnable signal;
+        private int perdus;
+        private volatile boolean ferme;
+
+        Abonnement(Runnable signal) {
+            this.signal = signal;
+        }
+
+        // Ajoute un événement à la file ; la connexion n'est signalée qu'une fois jusqu'à ce qu'elle vide la file
+        void publier(int idCommande, String statut) {
+            synchronized (this) {
+                if (ferme) {
+                    return;
+                }
+                if (enAttente.put(idCommande, statut) == null && enAttente.size() > TAILLE_MAX_FILE) {
+                    Iterator<Integer> plusAncien = enAttente.keySet().iterator();
+                    plusAncien.next();
+                    plusAncien.remove();
+                    perdus++;
+                }
+            }
+            if (signale.compareAndSet(false, true)) {
+                signal.run();
+            }
+        }
+
+        // Vrai si des événements attendent d'être écrits
+        public boolean aDesEvenements() {
+            return signale.get();
+        }
+
+        // Retire tous les événements en attente, sous forme de lignes "EVT <idCommande> <statut>"
+        public List<String> retirer() {
+            signale.set(false); // Un événement publié pendant le retrait signalera de nouveau la connexion
+            List<String> lignes = new ArrayList<>();
+            synchronized (this) {
+                if (perdus > 0) {
+                    lignes.add("EVT PERTE " + perdus);
+                    perdus = 0;
+                }
+                for (Map.Entry<Integer, String> evenement : enAttente.entrySet()) {
+                    lignes.add("EVT " + evenement.getKey() + " " + evenement.getValue());
+                }
+                enAttente.clear();
+            }
+            return lignes;
+        }
+    }
+
+    // Constructeur du diffuseur : les écritures passent par un nombre fixe de threads, quel que soit le nombre de connexions
+    // abonnées. La file du pool reste bornée par le nombre d'abonnements, car une connexion n'est signalée qu'une fois
+    // tant qu'elle n'a pas vidé ses événements.
+    public DiffuseurStatuts() {
+        int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), tache -> {
+            Thread thread = new Thread(tache, "emission-evenements");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true); // Aucun thread gardé quand personne n'est abonné
+        this.emetteurs = pool;
+    }
+
+    // Méthode pour créer un abonnement ; "signal" est appelé (depuis n'importe quel thread) quand des événements arrivent
+    public Abonnement creerAbonnement(Runnable signal) {
+        return new Abonnement(signal);
+    }
+
+    // Méthode pour suivre une commande d'un client abonné (les commandes déjà livrées n'ont plus d'événement à recevoir)
+    public void suivre(Commande commande, Abonnement abonnement) {
+        if (!"Livrée".equals(commande.getStatut())) {
+            suivis.put(commande.getId(), abonnement);
+        }
+    }
+
+    // Méthode pour abonner une session à toutes les commandes (administrateur)
+    public void suivreTout(Abonnement abonnement) {
+        globaux.add(abonnement);
+    }
+
+    // Méthode pour clore un abonnement ; ses commandes suivies sont oubliées au prochain changement de statut
+    public void desabonner(Abonnement abonnement) {
+        synchronized (abonnement) {
+            abonnement.ferme = true;
+            abonnement.enAttente.clear();
+        }
+        globaux.remove(abonnement);
+    }
+
+    // Méthode appelée à chaque changement de statut d'une commande
+    public void statutChange(Commande commande, String statut) {
+        int id = commande.getId();
+        boolean livree = "Livrée".equals(statut);
+        Abonnement abonnement = livree ? suivis.remove(id) : suivis.get(id);
+        if (abonnement != null) {
+            if (abonnement.ferme) {
+                suivis.remove(id);
+            } else {
+                abonnement.publier(id, statut);
+            }
+        }
+        for (Abonnement global : globaux) {
+            global.publier(id, statut);
+        }
+    }
+
+    // Méthode pour exécuter l'écriture des événements d'une connexion bloquante hors du thread qui les publie
+    public void executer(Runnable ecriture) {
+        emetteurs.execute(ecriture);
+    }
+}
@@ -0,0 +1,11 @@
+// Interface des composants tenus à jour à chaque changement du stock (cache du catalogue, index, ...)
+public interface EcouteurStock {
+    // Un produit a été ajouté ou remplacé par un nouvel objet Produit
+    void produitAjoute(Produit produit);
+
+    // La quantité ou le prix d'un produit existant a changé
+    void produitModifie(Produit produit);
+
+    // Un produit a été retiré du stock
+    void produitSupprime(String id);
+}
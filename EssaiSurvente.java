@@ -0,0 +1,189 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Vérification reproductible de la réservation sans verrou (MoteurReservation, Produit.retirer) : aucune survente,
+// aucune unité perdue. Des threads se disputent quelques produits à faible stock avec des chariots de plusieurs lignes
+// qui se recouvrent ; une partie des commandes réservées est ensuite rendue (liberer), comme une commande qui n'a pas pu
+// être enregistrée. Pendant l'essai, un observateur vérifie qu'aucune quantité ne passe sous zéro ; à la fin, pour chaque
+// produit, stock initial = stock final + unités vendues. Le chemin tout ou rien (une ligne refusée fait rendre les lignes
+// déjà retirées) est d'abord vérifié seul, puis sollicité en continu par la concurrence.
+// Le programme se termine avec le code 1 si une vérification échoue.
+//
+// Exemple : java EssaiSurvente --threads=16 --produits=4 --stock=5000 --tours=5
+public class EssaiSurvente {
+    private static int echecs;
+
+    public static void main(String[] args) throws Exception {
+        int threads = 16;
+        int produits = 4;
+        int stockInitial = 5000;
+        int tours = 5;
+        for (String arg : args) {
+            if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--produits=")) {
+                produits = Integer.parseInt(arg.substring("--produits=".length()));
+            } else if (arg.startsWith("--stock=")) {
+                stockInitial = Integer.parseInt(arg.substring("--stock=".length()));
+            } else if (arg.startsWith("--tours=")) {
+                tours = Integer.parseInt(arg.substring("--tours=".length()));
+            } else {
+                System.err.println("Option inconnue : " + arg);
+                return;
+            }
+        }
+
+        verifierToutOuRien();
+        for (int tour = 1; tour <= tours; tour++) {
+            verifierConcurrence(tour, threads, produits, stockInitial);
+        }
+        if (echecs > 0) {
+            System.out.println(echecs + " vérification(s) en échec.");
+            System.exit(1);
+        }
+        System.out.println("Toutes les vérifications sont réussies.");
+    }
+
+    private static ContexteServeur creerContexte() {
+        return new ContexteServeur(new ConcurrentHashMap<>(),
+                new GestionnaireSessions(new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), 1800, 100000, null),
+                new PlanificateurLivraisons(PlanificateurLivraisons.Distribution.lire("fixe:0"), false), null);
+    }
+
+    private static void verifier(boolean condition, String message) {
+        if (!condition) {
+            echecs++;
+            System.out.println("ÉCHEC : " + message);
+        }
+    }
+
+    // Un chariot dont une ligne ne peut pas être servie est refusé en entier, sans toucher aux autres lignes
+    private static void verifierToutOuRien() throws Exception {
+        ContexteServeur contexte = creerContexte();
+        contexte.getServiceStock().ajouterProduit("A", "Produit A", 5, 1.0);
+        contexte.getServiceStock().ajouterProduit("B", "Produit B", 2, 1.0);
+        contexte.getServiceStock().ajouterProduit("C", "Produit C", 5, 1.0);
+        MoteurReservation reservations = contexte.getReservations();
+        Map<String, Produit> stock = contexte.getStock();
+
+        Map<String, Integer> chariot = new LinkedHashMap<>(); // Ordre fixe : A et C sont retirés avant que B soit refusé
+        chariot.put("A", 3);
+        chariot.put("C", 4);
+        chariot.put("B", 3);
+        try {
+            reservations.reserver(chariot);
+            verifier(false, "un chariot dépassant le stock de B a été accepté");
+        } catch (StockUnavailableException e) {
+            // Attendu
+        }
+        verifier(stock.get("A").getQuantite() == 5 && stock.get("B").getQuantite() == 2 && stock.get("C").getQuantite() == 5,
+                "le refus n'a pas rendu les lignes déjà retirées : " + stock.values());
+
+        chariot.put("B", -1); // Quantité invalide après deux lignes retirées
+        try {
+            reservations.reserver(chariot);
+            verifier(false, "une quantité négative a été acceptée");
+        } catch (InvalidOrderException e) {
+            // Attendu
+        }
+        verifier(stock.get("A").getQuantite() == 5 && stock.get("C").getQuantite() == 5,
+                "la quantité invalide n'a pas rendu les lignes déjà retirées : " + stock.values());
+
+        chariot.put("B", 2);
+        double total = reservations.reserver(chariot);
+        verifier(total == 9.0 && stock.get("A").getQuantite() == 2 && stock.get("B").getQuantite() == 0
+                && stock.get("C").getQuantite() == 1, "réservation complète incorrecte : " + stock.values());
+        System.out.println("Tout ou rien : " + (echecs == 0 ? "correct" : "en échec"));
+    }
+
+    // Les threads commandent jusqu'à épuisement du stock ; chaque produit doit vérifier initial = final + vendues
+    private static void verifierConcurrence(int tour, int threads, int nombreProduits, int stockInitial) throws Exception {
+        ContexteServeur contexte = creerContexte();
+        String[] ids = new String[nombreProduits];
+        Produit[] produits = new Produit[nombreProduits];
+        for (int i = 0; i < nombreProduits; i++) {
+            ids[i] = "S" + i;
+            contexte.getServiceStock().ajouterProduit(ids[i], "Produit" + i, stockInitial, 1.0);
+            produits[i] = contexte.getStock().get(ids[i]);
+        }
+        MoteurReservation reservations = contexte.getReservations();
+        AtomicLongArray vendues = new AtomicLongArray(nombreProduits);
+        AtomicBoolean fini = new AtomicBoolean();
+        AtomicBoolean negatif = new AtomicBoolean();
+        long[] compteurs = new long[3]; // Réservations acceptées, refusées, rendues (sommées à la fin des threads)
+
+        // L'observateur lit les quantités en continu : une survente se verrait comme une quantité négative
+        Thread observateur = new Thread(() -> {
+            while (!fini.get()) {
+                for (Produit produit : produits) {
+                    if (produit.getQuantite() < 0) {
+                        negatif.set(true);
+                    }
+                }
+            }
+        }, "observateur");
+        observateur.start();
+
+        ExecutorService executeur = Executors.newFixedThreadPool(threads);
+        CyclicBarrier depart = new CyclicBarrier(threads);
+        List<Future<long[]>> resultats = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            resultats.add(executeur.submit(() -> {
+                ThreadLocalRandom aleatoire = ThreadLocalRandom.current();
+                long[] local = new long[3];
+                int refusesDeSuite = 0;
+                depart.await();
+                // Un thread s'arrête quand ses chariots sont refusés longtemps de suite (stock presque épuisé)
+                while (refusesDeSuite < 200) {
+                    // Chariot de 1 à 3 lignes distinctes, parmi peu de produits : les chariots se recouvrent
+                    Map<String, Integer> chariot = new HashMap<>();
+                    int lignes = 1 + aleatoire.nextInt(Math.min(3, nombreProduits));
+                    while (chariot.size() < lignes) {
+                        chariot.put(ids[aleatoire.nextInt(nombreProduits)], 1 + aleatoire.nextInt(5));
+                    }
+                    try {
+                        reservations.reserver(chariot);
+                    } catch (StockUnavailableException e) {
+                        local[1]++;
+                        refusesDeSuite++;
+                        continue;
+                    }
+                    refusesDeSuite = 0;
+                    if (aleatoire.nextInt(10) == 0) {
+                        reservations.liberer(chariot); // Commande non enregistrée : le stock est rendu
+                        local[2]++;
+                        continue;
+                    }
+                    local[0]++;
+                    for (Map.Entry<String, Integer> ligne : chariot.entrySet()) {
+                        vendues.addAndGet(Integer.parseInt(ligne.getKey().substring(1)), ligne.getValue());
+                    }
+                }
+                return local;
+            }));
+        }
+        for (Future<long[]> resultat : resultats) {
+            long[] local = resultat.get();
+            for (int i = 0; i < compteurs.length; i++) {
+                compteurs[i] += local[i];
+            }
+        }
+        executeur.shutdown();
+        fini.set(true);
+        observateur.join();
+
+        verifier(!negatif.get(), "tour " + tour + " : une quantité est passée sous zéro");
+        long totalVendues = 0;
+        for (int i = 0; i < nombreProduits; i++) {
+            int restant = produits[i].getQuantite();
+            totalVendues += vendues.get(i);
+            verifier(restant >= 0, "tour " + tour + " : " + ids[i] + " a un stock final négatif (" + restant + ")");
+            verifier(stockInitial == restant + vendues.get(i), "tour " + tour + " : " + ids[i] + " initial " + stockInitial
+                    + " != final " + restant + " + vendues " + vendues.get(i));
+        }
+        System.out.printf("Tour %d : %d threads, %d commandes, %d refus, %d rendues, %d unités vendues sur %d%n", tour, threads,
+                compteurs[0], compteurs[1], compteurs[2], totalVendues, (long) stockInitial * nombreProduits);
+    }
+}
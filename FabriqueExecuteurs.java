@@ -0,0 +1,18 @@
+import java.util.concurrent.*;
+
+// Fabrique des pools d'exécution du serveur : threads virtuels si la JVM les propose (Java 21+), threads classiques sinon
+public class FabriqueExecuteurs {
+
+    // Méthode pour créer un exécuteur "un thread par tâche", virtuel si demandé et disponible
+    public static ExecutorService creer(boolean virtuel) {
+        if (virtuel) {
+            try {
+                // Appel par réflexion pour que le projet compile toujours avec un JDK plus ancien
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Threads virtuels indisponibles sur cette JVM, utilisation de threads classiques.");
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+}
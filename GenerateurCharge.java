@@ -0,0 +1,354 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Générateur de charge sans interface : ouvre N sessions client sur le serveur (protocole texte, comme GestionnaireStockClient)
+// et rejoue un mélange pondéré des commandes de "Les commandes.txt". Une session administrateur peut en parallèle
+// réapprovisionner le stock.
+//
+// Deux modes d'arrivée :
+//   boucle fermée (par défaut) : chaque session envoie sa requête suivante dès la réponse reçue (plus un temps de pause) ;
+//   boucle ouverte (--debit=R) : R requêtes par seconde au total, à intervalles fixes. La latence est alors comptée depuis
+//   l'instant où la requête aurait dû partir, pour ne pas masquer l'attente d'un serveur saturé.
+//
+// Exemple : java GenerateurCharge --sessions=200 --duree=60 --debit=5000 --sortie=charge.txt
+public class GenerateurCharge {
+    // Nom, poids par défaut et description de chaque type de requête du mélange
+    private static final String[] TYPES = {"catalogue", "recherche", "ajouter", "commander", "chariot", "commandes"};
+    private static final String MELANGE_PAR_DEFAUT = "catalogue:15,recherche:5,ajouter:45,commander:15,chariot:10,commandes:10";
+    private static final String REAPPROVISIONNEMENT = "reapprovisionner";
+    private static final int TAILLE_PAGE = 50;
+
+    private final String hote;
+    private final int port;
+    private final int sessions;
+    private final int duree;
+    private final int echauffement;
+    private final double debit;            // Requêtes par seconde pour l'ensemble des sessions, 0 = boucle fermée
+    private final int pause;               // Pause (ms) entre deux requêtes d'une session en boucle fermée
+    private final double reapprovisionnements; // Réapprovisionnements par seconde, 0 = aucun
+    private final int stockCible;          // Quantité remise en stock par un réapprovisionnement
+    private final int[] poids = new int[TYPES.length];
+    private int poidsTotal;
+
+    private final Map<String, HistogrammeLatence> latences = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> erreurs = new ConcurrentHashMap<>(); // Par type de requête et message d'erreur
+    private final LongAdder echecsConnexion = new LongAdder();
+    private volatile boolean enMesure;
+    private volatile boolean arret;
+    private List<String> ids = new ArrayList<>();
+    private Map<String, String> prix = new HashMap<>();
+
+    private GenerateurCharge(Map<String, String> options) {
+        this.hote = options.getOrDefault("hote", "localhost");
+        this.port = Integer.parseInt(options.getOrDefault("port", "12345"));
+        this.sessions = Integer.parseInt(options.getOrDefault("sessions", "50"));
+        this.duree = Integer.parseInt(options.getOrDefault("duree", "30"));
+        this.echauffement = Integer.parseInt(options.getOrDefault("echauffement", "5"));
+        this.debit = Double.parseDouble(options.getOrDefault("debit", "0"));
+        this.pause = Integer.parseInt(options.getOrDefault("pause", "0"));
+        this.reapprovisionnements = Double.parseDouble(options.getOrDefault("reapprovisionnement", "50"));
+        this.stockCible = Integer.parseInt(options.getOrDefault("stock-cible", "100000"));
+
+        for (String element : options.getOrDefault("melange", MELANGE_PAR_DEFAUT).split(",")) {
+            String[] paire = element.split(":");
+            int type = Arrays.asList(TYPES).indexOf(paire[0]);
+            if (paire.length != 2 || type < 0) {
+                throw new IllegalArgumentException("Mélange invalide : " + element + " (types : " + String.join(", ", TYPES) + ")");
+            }
+            poids[type] = Integer.parseInt(paire[1]);
+            poidsTotal += poids[type];
+        }
+        if (poidsTotal <= 0) {
+            throw new IllegalArgumentException("Le mélange ne contient aucune requête.");
+        }
+        for (String type : TYPES) {
+            latences.put(type, new HistogrammeLatence());
+        }
+        latences.put(REAPPROVISIONNEMENT, new HistogrammeLatence());
+    }
+
+    // Connexion texte au serveur : une requête à la fois, réponse terminée par "FIN"
+    private final class Connexion implements Closeable {
+        final Socket socket;
+        final BufferedReader reader;
+        final PrintWriter writer;
+        final String bienvenue;
+
+        Connexion() throws IOException {
+            socket = new Socket(hote, port);
+            socket.setTcpNoDelay(true);
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            bienvenue = reader.readLine();
+            if (bienvenue == null) {
+                throw new EOFException("Connexion fermée par le serveur");
+            }
+        }
+
+        // Envoie une commande et renvoie les lignes de sa réponse
+        List<String> envoyer(String commande) throws IOException {
+            writer.println(commande);
+            writer.flush();
+            List<String> lignes = new ArrayList<>();
+            String ligne;
+            while (!"FIN".equals(ligne = reader.readLine())) {
+                if (ligne == null) {
+                    throw new EOFException("Connexion fermée par le serveur");
+                }
+                lignes.add(ligne);
+            }
+            return lignes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int egal = arg.indexOf('=');
+            if (!arg.startsWith("--") || egal < 0) {
+                System.err.println("Option inconnue : " + arg);
+                return;
+            }
+            options.put(arg.substring(2, egal), arg.substring(egal + 1));
+        }
+        String fichier = options.getOrDefault("sortie", "resultats-charge.txt");
+        new GenerateurCharge(options).lancer(fichier);
+    }
+
+    private void lancer(String fichier) throws Exception {
+        // L'administrateur se connecte en premier : sinon la première session client recevrait le rôle
+        Connexion admin = new Connexion();
+        if (!admin.bienvenue.contains("Administrateur")) {
+            System.err.println("Un administrateur est déjà connecté : pas de réapprovisionnement.");
+            admin.close();
+            admin = null;
+        }
+        chargerCatalogue();
+        if (ids.isEmpty()) {
+            System.err.println("Le catalogue est vide : rien à commander.");
+            return;
+        }
+
+        ExecutorService executeur = FabriqueExecuteurs.creer(true);
+        CountDownLatch fin = new CountDownLatch(sessions);
+        long depart = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            int numero = i;
+            executeur.execute(() -> {
+                try {
+                    session(numero, depart);
+                } finally {
+                    fin.countDown();
+                }
+            });
+        }
+        if (admin != null && reapprovisionnements > 0) {
+            Connexion connexionAdmin = admin;
+            executeur.execute(() -> reapprovisionner(connexionAdmin, depart));
+        }
+
+        System.out.println("Échauffement (" + echauffement + " s), " + sessions + " sessions"
+                + (debit > 0 ? ", boucle ouverte à " + debit + " requêtes/s" : ", boucle fermée"));
+        Thread.sleep(echauffement * 1000L);
+        for (HistogrammeLatence histogramme : latences.values()) {
+            histogramme.reinitialiser();
+        }
+        erreurs.clear();
+        enMesure = true;
+        long debutMesure = System.nanoTime();
+        long requetesPrecedentes = 0;
+        int secondePrecedente = 0;
+        for (int seconde = 1; seconde <= duree; seconde++) {
+            Thread.sleep(1000);
+            if (seconde % 5 == 0 || seconde == duree) {
+                long requetes = totalRequetes();
+                System.out.printf("%3d s : %,d requêtes/s%n", seconde, (requetes - requetesPrecedentes) / (seconde - secondePrecedente));
+                requetesPrecedentes = requetes;
+                secondePrecedente = seconde;
+            }
+        }
+        enMesure = false;
+        long dureeMesure = System.nanoTime() - debutMesure;
+        arret = true;
+        fin.await(10, TimeUnit.SECONDS);
+        executeur.shutdownNow();
+        if (admin != null) {
+            admin.close();
+        }
+
+        String rapport = rapport(dureeMesure);
+        System.out.print(rapport);
+        try (Writer sortie = new OutputStreamWriter(new FileOutputStream(fichier), StandardCharsets.UTF_8)) {
+            sortie.write(rapport);
+        }
+        System.out.println("Résultats écrits dans " + fichier);
+    }
+
+    // Lit le catalogue une fois pour connaître les produits (ID et prix)
+    private void chargerCatalogue() throws IOException {
+        try (Connexion connexion = new Connexion()) {
+            for (String ligne : connexion.envoyer("catalogue")) {
+                String[] champs = ligne.split(" \\| ");
+                if (champs.length == 4) {
+                    ids.add(champs[0]);
+                    prix.put(champs[0], champs[3].substring(champs[3].indexOf(':') + 1).trim());
+                }
+            }
+        }
+    }
+
+    // Boucle d'une session client
+    private void session(int numero, long depart) {
+        Random aleatoire = new Random(numero);
+        // En boucle ouverte, chaque session envoie debit/sessions requêtes par seconde, décalées pour étaler les envois
+        long intervalle = debit > 0 ? (long) (1e9 * sessions / debit) : 0;
+        long prevu = depart + (intervalle > 0 ? intervalle * numero / sessions : 0);
+
+        try (Connexion connexion = new Connexion()) {
+            while (!arret) {
+                if (intervalle > 0) {
+                    long attente = prevu - System.nanoTime();
+                    if (attente > 0) {
+                        TimeUnit.NANOSECONDS.sleep(attente);
+                    }
+                }
+                int type = tirerType(aleatoire);
+                long debut = intervalle > 0 ? prevu : System.nanoTime();
+                List<String> reponse = connexion.envoyer(requete(type, aleatoire));
+                enregistrer(TYPES[type], debut, reponse);
+                if (intervalle > 0) {
+                    prevu += intervalle;
+                } else if (pause > 0) {
+                    Thread.sleep(pause);
+                }
+            }
+        } catch (IOException e) {
+            if (!arret) {
+                echecsConnexion.increment();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Flux de réapprovisionnement de l'administrateur : remet un produit au hasard à "stockCible" unités
+    private void reapprovisionner(Connexion admin, long depart) {
+        Random aleatoire = new Random();
+        long intervalle = (long) (1e9 / reapprovisionnements);
+        long prevu = depart;
+        try {
+            while (!arret) {
+                long attente = prevu - System.nanoTime();
+                if (attente > 0) {
+                    TimeUnit.NANOSECONDS.sleep(attente);
+                }
+                String id = ids.get(aleatoire.nextInt(ids.size()));
+                List<String> reponse = admin.envoyer("modifier_produit " + id + " " + stockCible + " " + prix.get(id));
+                enregistrer(REAPPROVISIONNEMENT, prevu, reponse);
+                prevu += intervalle;
+            }
+        } catch (IOException e) {
+            if (!arret) {
+                echecsConnexion.increment();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int tirerType(Random aleatoire) {
+        int tirage = aleatoire.nextInt(poidsTotal);
+        for (int i = 0; i < poids.length; i++) {
+            tirage -= poids[i];
+            if (tirage < 0) {
+                return i;
+            }
+        }
+        return poids.length - 1;
+    }
+
+    // Construit la ligne de commande d'un type de requête
+    private String requete(int type, Random aleatoire) {
+        switch (TYPES[type]) {
+            case "catalogue":
+                return "catalogue " + aleatoire.nextInt(ids.size()) + " " + TAILLE_PAGE;
+            case "recherche": {
+                String id = ids.get(aleatoire.nextInt(ids.size()));
+                return "rechercher " + id.substring(0, Math.max(1, id.length() - 1));
+            }
+            case "ajouter":
+                return "ajouter_au_chariot " + ids.get(aleatoire.nextInt(ids.size())) + " " + (1 + aleatoire.nextInt(3));
+            case "commander":
+                return "commander";
+            case "chariot":
+                return "afficher_chariot";
+            default:
+                return "voir_commandes";
+        }
+    }
+
+    // Enregistre la latence d'une réponse et, si c'est une erreur, son message
+    private void enregistrer(String type, long debut, List<String> reponse) {
+        long latence = System.nanoTime() - debut;
+        if (!enMesure) {
+            return;
+        }
+        latences.get(type).enregistrer(latence);
+        for (String ligne : reponse) {
+            if (ligne.startsWith("Erreur") || ligne.startsWith("Commande inconnue")) {
+                int pour = ligne.indexOf(" pour ");
+                String message = pour > 0 && !ligne.startsWith("Commande inconnue") ? ligne.substring(0, pour) : ligne;
+                erreurs.computeIfAbsent(type + " | " + message, cle -> new LongAdder()).increment();
+                break;
+            }
+        }
+    }
+
+    private long totalRequetes() {
+        long total = 0;
+        for (HistogrammeLatence histogramme : latences.values()) {
+            total += histogramme.getNombre();
+        }
+        return total;
+    }
+
+    // Rapport final : débit, centiles par commande et erreurs
+    private String rapport(long dureeMesure) {
+        StringBuilder sb = new StringBuilder();
+        double secondes = dureeMesure / 1e9;
+        sb.append(String.format("Sessions : %d, durée : %.1f s, %s%n", sessions, secondes,
+                debit > 0 ? "boucle ouverte à " + debit + " requêtes/s" : "boucle fermée"));
+        sb.append(String.format("Débit total : %,.0f requêtes/s%n%n", totalRequetes() / secondes));
+        sb.append(String.format("%-17s %10s %12s %10s %10s %10s %10s %10s%n",
+                "commande", "nombre", "requêtes/s", "p50(ms)", "p90(ms)", "p99(ms)", "p99.9(ms)", "max(ms)"));
+        List<String> types = new ArrayList<>(Arrays.asList(TYPES));
+        types.add(REAPPROVISIONNEMENT);
+        for (String type : types) {
+            HistogrammeLatence h = latences.get(type);
+            if (h.getNombre() == 0) {
+                continue;
+            }
+            sb.append(String.format("%-17s %10d %12.1f %10.3f %10.3f %10.3f %10.3f %10.3f%n", type, h.getNombre(),
+                    h.getNombre() / secondes, h.centile(50) / 1e6, h.centile(90) / 1e6, h.centile(99) / 1e6,
+                    h.centile(99.9) / 1e6, h.getMax() / 1e6));
+        }
+        sb.append(String.format("%nErreurs :%n"));
+        if (erreurs.isEmpty() && echecsConnexion.sum() == 0) {
+            sb.append("  aucune\n");
+        }
+        new TreeMap<>(erreurs).forEach((message, nombre) -> sb.append(String.format("  %-60s %d%n", message, nombre.sum())));
+        if (echecsConnexion.sum() > 0) {
+            sb.append(String.format("  %-60s %d%n", "connexions interrompues", echecsConnexion.sum()));
+        }
+        return sb.toString();
+    }
+}
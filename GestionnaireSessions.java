@@ -0,0 +1,272 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Cycle de vie des sessions client : création à la connexion, détachement à la déconnexion, reprise avec le jeton
+// de session ("reprendre <jeton>") et éviction des sessions détachées.
+// Une session vide (chariot vide, aucune commande) est oubliée dès la déconnexion. Les autres restent reprenables
+// pendant "ttl" ; elles sont rangées par ordre de détachement, si bien que l'éviction ne parcourt que les sessions
+// expirées (ou les plus anciennes quand il y en a plus de "maxDetachees"), jamais toutes les sessions.
+// À l'éviction, le chariot est abandonné et l'historique des commandes est déchargé dans le dossier d'archives,
+// d'où une reprise ultérieure le recharge. L'archive reste en place pendant que la session est en mémoire : la
+// compaction du journal y ajoute les commandes livrées (archiverLivrees), que le journal ne garde pas.
+public class GestionnaireSessions {
+    // En tête des archives dont les commandes portent le prix de chaque ligne ; les archives plus anciennes commencent
+    // directement par leur nombre de commandes, jamais négatif
+    private static final int VERSION_PRIX = -2;
+
+    private final Map<String, Chariot> chariots; // Les chariots des sessions présentes en mémoire
+    private final Map<String, HistoriqueCommandes> commandes; // Les commandes des sessions présentes en mémoire
+    private final long ttlNanos; // Durée pendant laquelle une session détachée reste en mémoire
+    private final int maxDetachees; // Nombre maximal de sessions détachées en mémoire
+    private final Path dossierArchives; // Dossier des historiques déchargés, ou null pour les abandonner
+    private final LinkedHashMap<String, Long> detachees = new LinkedHashMap<>(); // Instant de détachement, du plus ancien au plus récent
+    private final LongAdder evincees = new LongAdder();
+    private final LongAdder archivees = new LongAdder();
+    private ScheduledExecutorService eviction;
+
+    // Constructeur du gestionnaire ; les sessions déjà présentes (restaurées du journal) sont considérées comme détachées,
+    // et leur historique est complété par les commandes livrées de leur archive
+    public GestionnaireSessions(Map<String, Chariot> chariots, Map<String, HistoriqueCommandes> commandes, long ttlSecondes, int maxDetachees, Path dossierArchives) {
+        this.chariots = chariots;
+        this.commandes = commandes;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSecondes);
+        this.maxDetachees = maxDetachees;
+        this.dossierArchives = dossierArchives;
+        long maintenant = System.nanoTime();
+        for (Map.Entry<String, HistoriqueCommandes> session : commandes.entrySet()) {
+            try {
+                HistoriqueCommandes archive = lireArchive(session.getKey());
+                if (archive != null) {
+                    session.setValue(fusionner(archive, session.getValue()));
+                }
+            } catch (IOException e) {
+                System.err.println("Erreur de lecture de l'archive de la session " + session.getKey() + " : " + e.getMessage());
+            }
+            chariots.putIfAbsent(session.getKey(), new Chariot());
+            detachees.put(session.getKey(), maintenant);
+        }
+    }
+
+    // Méthode pour démarrer l'éviction périodique (une fois par seconde)
+    public synchronized void demarrer() {
+        if (eviction != null) {
+            return;
+        }
+        eviction = Executors.newSingleThreadScheduledExecutor(tache -> {
+            Thread thread = new Thread(tache, "eviction-sessions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        eviction.scheduleWithFixedDelay(this::evincer, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public synchronized void arreter() {
+        if (eviction != null) {
+            eviction.shutdownNow();
+        }
+    }
+
+    // Méthode pour ouvrir une nouvelle session ; renvoie son jeton (l'identifiant de session)
+    public String ouvrir() {
+        String sessionId = UUID.randomUUID().toString();
+        chariots.put(sessionId, new Chariot());
+        commandes.put(sessionId, new HistoriqueCommandes());
+        return sessionId;
+    }
+
+    // Méthode pour détacher la session d'une connexion fermée : oubliée si elle est vide, reprenable sinon
+    public void detacher(String sessionId) {
+        Chariot chariot = chariots.get(sessionId);
+        HistoriqueCommandes liste = commandes.get(sessionId);
+        if ((chariot == null || chariot.getProduits().isEmpty()) && (liste == null || liste.isEmpty())) {
+            chariots.remove(sessionId);
+            commandes.remove(sessionId);
+            return;
+        }
+        synchronized (this) {
+            detachees.put(sessionId, System.nanoTime());
+        }
+    }
+
+    // Méthode pour reprendre une session détachée (ou archivée) ; renvoie faux si le jeton est inconnu
+    // ou si la session est déjà utilisée par une autre connexion
+    public synchronized boolean reprendre(String sessionId) throws IOException {
+        if (detachees.remove(sessionId) != null) {
+            return true;
+        }
+        if (commandes.containsKey(sessionId)) {
+            return false; // Session attachée à une autre connexion
+        }
+        HistoriqueCommandes historique = lireArchive(sessionId);
+        if (historique == null) {
+            return false;
+        }
+        chariots.put(sessionId, new Chariot());
+        commandes.put(sessionId, historique);
+        return true;
+    }
+
+    public Map<String, Chariot> getChariots() {
+        return chariots;
+    }
+
+    public Map<String, HistoriqueCommandes> getCommandes() {
+        return commandes;
+    }
+
+    public synchronized int getNombreDetachees() {
+        return detachees.size();
+    }
+
+    public long getNombreEvincees() {
+        return evincees.sum();
+    }
+
+    public long getNombreArchivees() {
+        return archivees.sum();
+    }
+
+    // Évince les sessions détachées expirées, puis les plus anciennes au-delà de maxDetachees.
+    // Une session dont une livraison est en cours est gardée jusqu'au tour suivant, pour archiver des statuts définitifs.
+    void evincer() {
+        long maintenant = System.nanoTime();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> it = detachees.entrySet().iterator();
+            List<String> reportees = new ArrayList<>();
+            while (it.hasNext()) {
+                Map.Entry<String, Long> entree = it.next();
+                boolean expiree = maintenant - entree.getValue() >= ttlNanos;
+                if (!expiree && detachees.size() <= maxDetachees) {
+                    break; // Les suivantes sont plus récentes
+                }
+                it.remove();
+                String sessionId = entree.getKey();
+                HistoriqueCommandes liste = commandes.get(sessionId);
+                if (liste != null && !liste.toutesLivrees()) {
+                    reportees.add(sessionId);
+                    continue;
+                }
+                try {
+                    archiver(sessionId, liste);
+                } catch (IOException e) {
+                    System.err.println("Erreur d'archivage de la session " + sessionId + " : " + e.getMessage());
+                    reportees.add(sessionId);
+                    continue;
+                }
+                chariots.remove(sessionId);
+                commandes.remove(sessionId);
+                evincees.increment();
+            }
+            for (String sessionId : reportees) {
+                detachees.put(sessionId, maintenant);
+            }
+        }
+    }
+
+    // Méthode appelée par la compaction du journal : ajoute à l'archive d'une session ses commandes livrées
+    // que l'archive ne contient pas encore (si la session est en mémoire, son historique les contient déjà)
+    public synchronized void archiverLivrees(String sessionId, List<Commande> livrees) throws IOException {
+        if (dossierArchives == null) {
+            return;
+        }
+        HistoriqueCommandes archive = lireArchive(sessionId);
+        if (archive == null) {
+            archiver(sessionId, livrees);
+            return;
+        }
+        HistoriqueCommandes fusion = fusionner(archive, livrees);
+        if (fusion.size() > archive.size()) { // Sinon, l'archive contient déjà ces commandes
+            archiver(sessionId, fusion);
+        }
+    }
+
+    // Historique formé des commandes des deux listes, sans doublon, dans l'ordre des ID
+    private static HistoriqueCommandes fusionner(List<Commande> premieres, List<Commande> secondes) {
+        Map<Integer, Commande> parId = new TreeMap<>();
+        for (Commande commande : premieres) {
+            parId.put(commande.getId(), commande);
+        }
+        for (Commande commande : secondes) {
+            parId.put(commande.getId(), commande); // La plus récente des deux versions d'une même commande
+        }
+        HistoriqueCommandes liste = new HistoriqueCommandes();
+        for (Commande commande : parId.values()) {
+            liste.add(commande);
+        }
+        return liste;
+    }
+
+    // Décharge l'historique des commandes d'une session (sans commande ou sans dossier d'archives, rien n'est écrit)
+    private void archiver(String sessionId, List<Commande> liste) throws IOException {
+        if (dossierArchives == null || liste == null || liste.isEmpty()) {
+            return;
+        }
+        Path fichier = fichierArchive(sessionId);
+        Files.createDirectories(fichier.getParent());
+        Path temporaire = fichier.resolveSibling(fichier.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaire)))) {
+            out.writeInt(VERSION_PRIX);
+            out.writeInt(liste.size());
+            for (Commande commande : liste) {
+                out.writeInt(commande.getId());
+                out.writeUTF(commande.getStatut());
+                out.writeDouble(commande.getTotal());
+                out.writeInt(commande.getNombreLignes());
+                for (int j = 0; j < commande.getNombreLignes(); j++) {
+                    out.writeUTF(commande.getProduit(j));
+                    out.writeInt(commande.getQuantite(j));
+                    out.writeLong(commande.getPrix(j));
+                }
+            }
+        }
+        Files.move(temporaire, fichier, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        archivees.increment();
+    }
+
+    // Relit l'historique archivé d'une session ; renvoie null s'il n'existe pas
+    private HistoriqueCommandes lireArchive(String sessionId) throws IOException {
+        if (dossierArchives == null || !sessionId.matches("[0-9a-f-]{36}")) {
+            return null;
+        }
+        Path fichier = fichierArchive(sessionId);
+        if (!Files.exists(fichier)) {
+            return null;
+        }
+        HistoriqueCommandes liste = new HistoriqueCommandes();
+        Map<String, String> ids = new HashMap<>(); // Une seule instance de chaque ID de produit pour les commandes de l'archive
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(fichier)))) {
+            int nombre = in.readInt();
+            boolean avecPrix = nombre == VERSION_PRIX;
+            if (avecPrix) {
+                nombre = in.readInt();
+            }
+            for (int i = 0; i < nombre; i++) {
+                int id = in.readInt();
+                String statut = in.readUTF();
+                double total = in.readDouble();
+                int lignes = in.readInt();
+                Map<String, Integer> produits = new LinkedHashMap<>(); // Dans l'ordre de l'archive, comme les prix
+                long[] prix = new long[lignes];
+                for (int j = 0; j < lignes; j++) {
+                    String produitId = in.readUTF();
+                    produits.put(ids.computeIfAbsent(produitId, cle -> cle), in.readInt());
+                    if (avecPrix) {
+                        prix[j] = in.readLong();
+                    }
+                }
+                Commande commande = avecPrix ? new Commande(id, produits, prix) : new Commande(id, produits, total);
+                commande.setStatut(statut);
+                liste.add(commande);
+            }
+        }
+        return liste; // L'archive est gardée : la compaction du journal peut la compléter, l'éviction la réécrit en entier
+    }
+
+    // Les archives sont réparties en sous-dossiers selon les deux premiers caractères du jeton
+    private Path fichierArchive(String sessionId) {
+        return dossierArchives.resolve(sessionId.substring(0, 2)).resolve(sessionId + ".bin");
+    }
+}
@@ -1,19 +1,23 @@
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.Scanner;
 
 public class GestionnaireStockClient {
     public static void main(String[] args) {
         try (Socket socket = new Socket("localhost", 12345);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-             PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
              Scanner scanner = new Scanner(System.in)) {
 
             System.out.println("Connecté au serveur !");
-            System.out.println("Serveur : " + reader.readLine());
+            String bienvenue = reader.readLine();
+            System.out.println("Serveur : " + bienvenue);
+            boolean administrateur = bienvenue.contains("Administrateur");
+            boolean enLot = false; // Entre "lot" et "fin_lot", le serveur ne répond qu'à la fin du lot
 
             while (true) {
-                System.out.print("Vous : ");
+                System.out.print(enLot ? "Lot : " : "Vous : ");
                 String commande = scanner.nextLine();
                 writer.println(commande);
 
@@ -21,6 +25,14 @@ public class GestionnaireStockClient {
                     System.out.println("Déconnexion...");
                     break;
                 }
+                if (administrateur && commande.equals("lot")) {
+                    enLot = true;
+                } else if (commande.equals("fin_lot")) {
+                    enLot = false;
+                }
+                if (enLot) {
+                    continue;
+                }
 
                 String response;
                 while (!(response = reader.readLine()).equals("FIN")) {
@@ -1,50 +1,216 @@
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class GestionnaireStockServer {
+    // Le port d'écoute du serveur par défaut (option --port=N)
+    private static final int PORT = 12345;
     // Le stock de produits, géré par une Map thread-safe pour éviter des problèmes de concurrence
     private static final Map<String, Produit> stock = new ConcurrentHashMap<>();
     // Les chariots des clients, également gérés par une Map thread-safe
     private static final Map<String, Chariot> chariots = new ConcurrentHashMap<>();
     // Les commandes des clients, une Map associant chaque client à sa liste de commandes
-    private static final Map<String, List<Commande>> commandes = new ConcurrentHashMap<>();
-    // ExecutorService pour gérer la livraison des commandes de manière asynchrone
-    private static final ExecutorService deliveryExecutor = Executors.newCachedThreadPool();
-    // Variable pour vérifier si un administrateur est connecté
-    private static boolean isAdminConnected = false;
-
-    // Méthode synchronisée pour vérifier si un administrateur est déjà connecté
-    public static synchronized boolean isAdminConnected() {
-        return isAdminConnected;
+    private static final Map<String, HistoriqueCommandes> commandes = new ConcurrentHashMap<>();
+    // Planificateur des livraisons des commandes (créé au démarrage selon les options)
+    private static PlanificateurLivraisons livraisons;
+    // Variable pour vérifier si un administrateur est connecté (atomique plutôt que synchronisée, pour ne pas bloquer les threads virtuels)
+    private static final AtomicBoolean isAdminConnected = new AtomicBoolean(false);
+
+    // Méthode pour vérifier si un administrateur est déjà connecté
+    public static boolean isAdminConnected() {
+        return isAdminConnected.get();
+    }
+
+    // Méthode pour définir l'état de connexion de l'administrateur
+    public static void setAdminConnected(boolean connected) {
+        isAdminConnected.set(connected);
+    }
+
+    // Méthode pour réserver le rôle d'administrateur : renvoie true pour la seule connexion qui l'obtient
+    public static boolean tenterConnexionAdmin() {
+        return isAdminConnected.compareAndSet(false, true);
+    }
+
+    // Méthode pour initialiser le stock avec quelques produits par défaut (journalisés si la persistance est active) ;
+    // un serveur de partition ne garde que ceux de sa partition
+    private static void initialiserStock(ServiceStock serviceStock, Partition partition) throws IOException {
+        String[][] produits = {{"P001", "Ordinateur", "10", "700.0"}, {"P002", "Souris", "50", "20.0"},
+                {"P003", "Clavier", "30", "50.0"}, {"P004", "Écran", "20", "150.0"}};
+        for (String[] produit : produits) {
+            if (partition == null || partition.possede(produit[0])) {
+                serviceStock.ajouterProduit(produit[0], produit[1], Integer.parseInt(produit[2]), Double.parseDouble(produit[3]));
+            }
+        }
     }
 
-    // Méthode synchronisée pour définir l'état de connexion de l'administrateur
-    public static synchronized void setAdminConnected(boolean connected) {
-        isAdminConnected = connected;
+    // Méthode pour refuser une connexion : le client reçoit "Serveur occupé" puis la connexion est fermée
+    private static void refuserConnexion(Socket socket) {
+        try (Socket s = socket) {
+            s.getOutputStream().write((ControleAdmission.OCCUPE + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // Client déjà parti
+        }
     }
 
     public static void main(String[] args) {
-        // Initialisation du stock avec quelques produits par défaut
-        stock.put("P001", new Produit("P001", "Ordinateur", 10, 700.0));
-        stock.put("P002", new Produit("P002", "Souris", 50, 20.0));
-        stock.put("P003", new Produit("P003", "Clavier", 30, 50.0));
-        stock.put("P004", new Produit("P004", "Écran", 20, 150.0));
+        // Lecture des options de démarrage : "--nio" active le serveur non bloquant, "--boucles=N" fixe son nombre de boucles,
+        // "--virtuel" exécute les connexions sur des threads virtuels, "--delai-livraison=DISTRIBUTION" règle la durée de chaque étape de livraison,
+        // "--donnees=REPERTOIRE" active la persistance (journal et instantanés) dans ce répertoire,
+        // "--metriques=PORT" expose les métriques en texte sur ce port local,
+        // "--session-ttl=SECONDES" et "--sessions-max=N" bornent la durée et le nombre des sessions détachées reprenables,
+        // "--port=N" change le port d'écoute, "--partition=I/N" fait de ce serveur la partition I d'un cluster de N serveurs,
+        // "--debit-achat=R" et "--debit-navigation=R" limitent chaque session à R requêtes par seconde (0 = sans limite),
+        // "--concurrence-min=N" et "--concurrence-max=N" bornent la limite adaptative de requêtes exécutées en même temps,
+        // "--connexions-max=N" borne le nombre de connexions ouvertes, "--sans-admission" désactive le contrôle d'admission
+        boolean modeNio = false;
+        boolean modeVirtuel = false;
+        int nombreBoucles = Runtime.getRuntime().availableProcessors();
+        PlanificateurLivraisons.Distribution delaiLivraison = PlanificateurLivraisons.Distribution.lire("uniforme:2000-7000");
+        String repertoireDonnees = null;
+        int portMetriques = -1;
+        long ttlSessions = 1800;
+        int maxSessionsDetachees = 100000;
+        int port = PORT;
+        Partition partition = null;
+        double debitAchat = 100;
+        double debitNavigation = 200;
+        int concurrenceMin = Runtime.getRuntime().availableProcessors();
+        int concurrenceMax = 256;
+        int connexionsMax = 10000;
+        boolean avecAdmission = true;
+        for (String arg : args) {
+            if (arg.equals("--nio")) {
+                modeNio = true;
+            } else if (arg.startsWith("--boucles=")) {
+                nombreBoucles = Integer.parseInt(arg.substring("--boucles=".length()));
+            } else if (arg.equals("--virtuel")) {
+                modeVirtuel = true;
+            } else if (arg.startsWith("--delai-livraison=")) {
+                delaiLivraison = PlanificateurLivraisons.Distribution.lire(arg.substring("--delai-livraison=".length()));
+            } else if (arg.startsWith("--donnees=")) {
+                repertoireDonnees = arg.substring("--donnees=".length());
+            } else if (arg.startsWith("--metriques=")) {
+                portMetriques = Integer.parseInt(arg.substring("--metriques=".length()));
+            } else if (arg.startsWith("--session-ttl=")) {
+                ttlSessions = Long.parseLong(arg.substring("--session-ttl=".length()));
+            } else if (arg.startsWith("--sessions-max=")) {
+                maxSessionsDetachees = Integer.parseInt(arg.substring("--sessions-max=".length()));
+            } else if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--partition=")) {
+                partition = Partition.lire(arg.substring("--partition=".length()));
+            } else if (arg.startsWith("--debit-achat=")) {
+                debitAchat = Double.parseDouble(arg.substring("--debit-achat=".length()));
+            } else if (arg.startsWith("--debit-navigation=")) {
+                debitNavigation = Double.parseDouble(arg.substring("--debit-navigation=".length()));
+            } else if (arg.startsWith("--concurrence-min=")) {
+                concurrenceMin = Integer.parseInt(arg.substring("--concurrence-min=".length()));
+            } else if (arg.startsWith("--concurrence-max=")) {
+                concurrenceMax = Integer.parseInt(arg.substring("--concurrence-max=".length()));
+            } else if (arg.startsWith("--connexions-max=")) {
+                connexionsMax = Integer.parseInt(arg.substring("--connexions-max=".length()));
+            } else if (arg.equals("--sans-admission")) {
+                avecAdmission = false;
+            } else {
+                System.err.println("Option inconnue : " + arg);
+            }
+        }
+        livraisons = new PlanificateurLivraisons(delaiLivraison);
+        if (partition != null) {
+            Commande.numeroterPourPartition(partition); // Avant la restauration, qui ajuste le compteur des ID
+        }
+
+        // Restauration de l'état persistant, ou stock par défaut au premier démarrage
+        JournalStock journal = null;
+        List<Commande> aLivrer = Collections.emptyList();
+        try {
+            if (repertoireDonnees != null) {
+                journal = new JournalStock(Paths.get(repertoireDonnees));
+                aLivrer = journal.restaurer(stock, commandes, ttlSessions);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        // Les sessions restaurées sont reprenables avec leur jeton ; les historiques évincés sont archivés avec les données,
+        // de même que les commandes livrées retirées du journal
+        GestionnaireSessions sessions = new GestionnaireSessions(chariots, commandes, ttlSessions, maxSessionsDetachees,
+                repertoireDonnees != null ? Paths.get(repertoireDonnees, "sessions") : null);
+        sessions.demarrer();
+        if (journal != null) {
+            try {
+                journal.demarrer(sessions);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+        ControleAdmission admission = avecAdmission
+                ? new ControleAdmission(debitAchat, debitNavigation, concurrenceMin, concurrenceMax, connexionsMax) : null;
+        ContexteServeur contexte = new ContexteServeur(stock, sessions, livraisons, journal, partition, admission);
+        for (Commande commande : aLivrer) {
+            livraisons.planifier(commande); // Les livraisons interrompues par l'arrêt reprennent à leur dernière étape journalisée
+        }
+        if (portMetriques >= 0) {
+            try {
+                contexte.getMetriques().demarrerExposition(portMetriques);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+        if (journal == null || journal.estVide()) {
+            try {
+                initialiserStock(contexte.getServiceStock(), partition);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+
+        if (modeNio) {
+            try {
+                new ServeurNio(port, nombreBoucles, contexte).demarrer();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
 
-        // Démarrage du serveur sur le port 12345
-        try (ServerSocket serverSocket = new ServerSocket(12345)) {
-            System.out.println("Serveur démarré sur le port 12345.");
+        // Démarrage du serveur sur le port 12345 (ou celui de l'option --port)
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            System.out.println("Serveur démarré sur le port " + port + (partition != null ? " (partition " + partition + ")." : "."));
 
             // ExecutorService pour gérer les connexions clients de manière concurrente
-            ExecutorService executor = Executors.newCachedThreadPool();
+            ExecutorService executor = FabriqueExecuteurs.creer(modeVirtuel);
 
             // Boucle infinie pour accepter les connexions des clients
             while (true) {
                 // Attente de la connexion d'un client
                 Socket clientSocket = serverSocket.accept();
-                // Soumettre le traitement de chaque client à un thread dans le pool d'exécution
-                executor.submit(new ClientHandler(clientSocket, stock, chariots, commandes, deliveryExecutor));
+                if (admission == null) {
+                    // Soumettre le traitement de chaque client à un thread dans le pool d'exécution
+                    executor.submit(new ClientHandler(clientSocket, contexte));
+                    continue;
+                }
+                if (!admission.accepterConnexion()) {
+                    // Trop de connexions ouvertes : refus explicite, sans thread de plus dans le pool
+                    contexte.getMetriques().requeteRejetee(MetriquesServeur.AUTRE, ControleAdmission.MOTIF_CONNEXIONS);
+                    refuserConnexion(clientSocket);
+                    continue;
+                }
+                ClientHandler handler = new ClientHandler(clientSocket, contexte);
+                executor.submit(() -> {
+                    try {
+                        handler.run();
+                    } finally {
+                        admission.connexionFermee();
+                    }
+                });
             }
         } catch (IOException e) {
             e.printStackTrace(); // Si une exception survient, l'afficher
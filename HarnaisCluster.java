@@ -0,0 +1,238 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Harnais de mesure du mode cluster, entièrement local : pour chaque nombre de partitions N demandé, il lance N serveurs
+// de partition et autant de routeurs (processus Java séparés, ports à partir de --port-base), charge le catalogue par le
+// premier routeur, puis fait passer des commandes par des clients répartis entre les routeurs pendant --duree secondes.
+// Chaque client ajoute un produit au hasard (deux produits, souvent sur deux partitions, pour une part --multi des commandes)
+// puis commande. Le tableau final donne le débit de commandes, les centiles de latence d'une commande complète
+// et l'accélération par rapport au premier nombre de partitions ; elle ne peut approcher N que si la machine a assez
+// de cœurs pour tous les processus.
+//
+// Exemple : java HarnaisCluster --partitions=1,2,4 --clients=64 --duree=20 --produits=1000 --multi=0.1
+public class HarnaisCluster {
+    private final int[] nombresPartitions;
+    private final int clients;
+    private final int duree;
+    private final int echauffement;
+    private final int produits;
+    private final double multi; // Part des commandes de deux produits
+    private final int portBase;
+    private final List<Process> processus = new ArrayList<>();
+
+    private HarnaisCluster(Map<String, String> options) {
+        this.nombresPartitions = Arrays.stream(options.getOrDefault("partitions", "1,2,4").split(",")).mapToInt(Integer::parseInt).toArray();
+        this.clients = Integer.parseInt(options.getOrDefault("clients", "32"));
+        this.duree = Integer.parseInt(options.getOrDefault("duree", "10"));
+        this.echauffement = Integer.parseInt(options.getOrDefault("echauffement", "3"));
+        this.produits = Integer.parseInt(options.getOrDefault("produits", "1000"));
+        this.multi = Double.parseDouble(options.getOrDefault("multi", "0.1"));
+        this.portBase = Integer.parseInt(options.getOrDefault("port-base", "13000"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int egal = arg.indexOf('=');
+            if (!arg.startsWith("--") || egal < 0) {
+                System.err.println("Option inconnue : " + arg);
+                return;
+            }
+            options.put(arg.substring(2, egal), arg.substring(egal + 1));
+        }
+        new HarnaisCluster(options).lancer();
+    }
+
+    // Résultat d'une mesure
+    private static final class Resultat {
+        final int partitions;
+        final double debit;
+        final HistogrammeLatence latences;
+        final long echecs;
+
+        Resultat(int partitions, double debit, HistogrammeLatence latences, long echecs) {
+            this.partitions = partitions;
+            this.debit = debit;
+            this.latences = latences;
+            this.echecs = echecs;
+        }
+    }
+
+    private void lancer() throws Exception {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::arreterProcessus)); // Pas de processus orphelin après Ctrl+C
+        System.out.println("Cœurs disponibles : " + Runtime.getRuntime().availableProcessors()
+                + ", clients : " + clients + ", durée : " + duree + " s, produits : " + produits + ", commandes multi-partitions : " + multi);
+        List<Resultat> resultats = new ArrayList<>();
+        for (int nombre : nombresPartitions) {
+            try {
+                resultats.add(mesurer(nombre));
+            } finally {
+                arreterProcessus();
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%-11s %12s %10s %10s %10s %8s %14s%n", "partitions", "commandes/s", "p50(ms)", "p99(ms)", "p99.9(ms)", "échecs", "accélération");
+        for (Resultat resultat : resultats) {
+            System.out.printf(Locale.ROOT, "%-11d %,12.0f %10.2f %10.2f %10.2f %8d %13.2fx%n", resultat.partitions, resultat.debit,
+                    resultat.latences.centile(50) / 1e6, resultat.latences.centile(99) / 1e6, resultat.latences.centile(99.9) / 1e6,
+                    resultat.echecs, resultat.debit / resultats.get(0).debit);
+        }
+    }
+
+    // Lance un cluster de "nombre" partitions et autant de routeurs, puis le met sous charge
+    private Resultat mesurer(int nombre) throws Exception {
+        System.out.println("Démarrage de " + nombre + " partition(s) et " + nombre + " routeur(s)...");
+        StringBuilder adresses = new StringBuilder();
+        for (int p = 0; p < nombre; p++) {
+            int port = portBase + p;
+            lancerProcessus("GestionnaireStockServer", "sur le port " + port, "--port=" + port, "--partition=" + p + "/" + nombre,
+                    "--delai-livraison=fixe:1000", "--sans-admission"); // Mesure de la capacité : aucune requête refusée
+            adresses.append(p == 0 ? "" : ",").append("localhost:").append(port);
+        }
+        int[] portsRouteurs = new int[nombre];
+        for (int r = 0; r < nombre; r++) {
+            portsRouteurs[r] = portBase + 100 + r;
+            lancerProcessus("RouteurCluster", "sur le port " + portsRouteurs[r], "--port=" + portsRouteurs[r], "--partitions=" + adresses);
+        }
+
+        // Seul le premier routeur a un administrateur (les suivants sont secondaires) : le harnais en garde le rôle pendant
+        // la mesure (sinon un client le recevrait) et charge le catalogue par lui
+        Connexion admin = new Connexion(portsRouteurs[0]);
+        for (int i = 0; i < produits; i++) {
+            List<String> reponse = admin.envoyer(String.format("ajouter_produit P%06d Produit%d 1000000000 1.5", i, i));
+            if (reponse.isEmpty() || !reponse.get(0).startsWith("Produit ajouté")) {
+                throw new IOException("Chargement du catalogue refusé : " + reponse);
+            }
+        }
+
+        HistogrammeLatence latences = new HistogrammeLatence();
+        LongAdder reussies = new LongAdder();
+        LongAdder echecs = new LongAdder();
+        long debutMesure = System.nanoTime() + TimeUnit.SECONDS.toNanos(echauffement);
+        long finMesure = debutMesure + TimeUnit.SECONDS.toNanos(duree);
+        ExecutorService executeur = Executors.newFixedThreadPool(clients);
+        List<Future<?>> taches = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int port = portsRouteurs[c % nombre];
+            taches.add(executeur.submit(() -> {
+                ThreadLocalRandom aleatoire = ThreadLocalRandom.current();
+                try (Connexion connexion = new Connexion(port)) {
+                    long maintenant;
+                    while ((maintenant = System.nanoTime()) < finMesure) {
+                        connexion.envoyer(String.format("ajouter_au_chariot P%06d 1", aleatoire.nextInt(produits)));
+                        if (aleatoire.nextDouble() < multi) {
+                            connexion.envoyer(String.format("ajouter_au_chariot P%06d 1", aleatoire.nextInt(produits)));
+                        }
+                        List<String> reponse = connexion.envoyer("commander");
+                        long fin = System.nanoTime();
+                        if (maintenant >= debutMesure && fin <= finMesure) {
+                            latences.enregistrer(fin - maintenant);
+                            if (!reponse.isEmpty() && reponse.get(0).startsWith("Commande passée")) {
+                                reussies.increment();
+                            } else {
+                                echecs.increment();
+                            }
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> tache : taches) {
+            tache.get();
+        }
+        executeur.shutdown();
+        admin.close();
+        double debit = reussies.sum() / (double) duree;
+        System.out.printf(Locale.ROOT, "  %d partition(s) : %,.0f commandes/s, %d échecs%n", nombre, debit, echecs.sum());
+        return new Resultat(nombre, debit, latences, echecs.sum());
+    }
+
+    // Lance "classe" dans un nouveau processus Java (même classpath) et attend une ligne contenant "pret" sur sa sortie
+    // (texte sans accent : la sortie du processus est dans l'encodage par défaut de la plateforme) ;
+    // la suite de la sortie est lue et ignorée, pour que le processus ne bloque jamais en écriture
+    private void lancerProcessus(String classe, String pret, String... options) throws Exception {
+        List<String> commande = new ArrayList<>(Arrays.asList(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), classe));
+        commande.addAll(Arrays.asList(options));
+        Process process = new ProcessBuilder(commande).redirectErrorStream(true).start();
+        processus.add(process);
+        CountDownLatch demarre = new CountDownLatch(1);
+        Thread lecteur = new Thread(() -> {
+            try (BufferedReader sortie = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String ligne;
+                while ((ligne = sortie.readLine()) != null) {
+                    if (demarre.getCount() > 0) {
+                        System.out.println("  [" + classe + "] " + ligne);
+                        if (ligne.contains(pret)) {
+                            demarre.countDown();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Processus arrêté
+            }
+        }, "sortie-" + classe);
+        lecteur.setDaemon(true);
+        lecteur.start();
+        if (!demarre.await(30, TimeUnit.SECONDS)) {
+            throw new IOException(classe + " n'a pas démarré : " + String.join(" ", options));
+        }
+    }
+
+    private synchronized void arreterProcessus() {
+        for (Process process : processus) {
+            process.destroy();
+        }
+        for (Process process : processus) {
+            try {
+                process.waitFor(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        processus.clear();
+    }
+
+    // Connexion texte à un routeur : une requête à la fois, réponse terminée par "FIN"
+    private static final class Connexion implements Closeable {
+        final Socket socket;
+        final BufferedReader reader;
+        final PrintWriter writer;
+
+        Connexion(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            socket.setTcpNoDelay(true);
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            if (reader.readLine() == null) {
+                throw new EOFException("Connexion fermée par le routeur");
+            }
+        }
+
+        List<String> envoyer(String commande) throws IOException {
+            writer.println(commande);
+            writer.flush();
+            List<String> lignes = new ArrayList<>();
+            String ligne;
+            while (!"FIN".equals(ligne = reader.readLine())) {
+                if (ligne == null) {
+                    throw new EOFException("Connexion fermée par le routeur");
+                }
+                lignes.add(ligne);
+            }
+            return lignes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Histogramme de latences (en nanosecondes) à seuils log-linéaires : chaque puissance de deux est découpée en 32 tranches,
+// soit une précision d'environ 3 % sur toute la plage. L'enregistrement ne prend aucun verrou : plusieurs threads
+// peuvent enregistrer en même temps dans le même histogramme.
+public class HistogrammeLatence {
+    private static final int BITS_TRANCHE = 5;                              // 32 tranches par puissance de deux
+    private static final int TRANCHES = 1 << BITS_TRANCHE;
+    private static final int LINEAIRE = 2 * TRANCHES;                       // Valeurs 0 à 63 : un compteur par valeur
+    private static final int NOMBRE_COMPTEURS = LINEAIRE + (63 - 6) * TRANCHES;
+
+    private final AtomicLongArray compteurs = new AtomicLongArray(NOMBRE_COMPTEURS);
+    private final LongAdder nombre = new LongAdder();
+    private final LongAdder somme = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    // Méthode pour enregistrer une latence
+    public void enregistrer(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        compteurs.incrementAndGet(indice(nanos));
+        nombre.increment();
+        somme.add(nanos);
+        if (nanos > max.get()) {
+            max.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    // Méthode pour ajouter à cet histogramme les valeurs d'un autre
+    public void ajouter(HistogrammeLatence autre) {
+        for (int i = 0; i < NOMBRE_COMPTEURS; i++) {
+            long n = autre.compteurs.get(i);
+            if (n != 0) {
+                compteurs.addAndGet(i, n);
+            }
+        }
+        nombre.add(autre.nombre.sum());
+        somme.add(autre.somme.sum());
+        max.accumulateAndGet(autre.max.get(), Math::max);
+    }
+
+    // Méthode pour remettre l'histogramme à zéro (les enregistrements concurrents peuvent être en partie perdus)
+    public void reinitialiser() {
+        for (int i = 0; i < NOMBRE_COMPTEURS; i++) {
+            compteurs.set(i, 0);
+        }
+        nombre.reset();
+        somme.reset();
+        max.set(0);
+    }
+
+    public long getNombre() {
+        return nombre.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMoyenne() {
+        long n = nombre.sum();
+        return n == 0 ? 0 : (double) somme.sum() / n;
+    }
+
+    // Méthode pour obtenir la latence sous laquelle se trouvent "centile" % des valeurs (borne haute de la tranche)
+    public long centile(double centile) {
+        long total = 0;
+        long[] copie = new long[NOMBRE_COMPTEURS];
+        for (int i = 0; i < NOMBRE_COMPTEURS; i++) {
+            copie[i] = compteurs.get(i);
+            total += copie[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rang = (long) Math.ceil(total * centile / 100.0);
+        long cumul = 0;
+        for (int i = 0; i < NOMBRE_COMPTEURS; i++) {
+            cumul += copie[i];
+            if (cumul >= Math.max(rang, 1)) {
+                return Math.min(borneHaute(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // Résumé lisible : nombre, moyenne et centiles en microsecondes
+    public String resume() {
+        return String.format("n=%d moy=%.1fµs p50=%.1fµs p90=%.1fµs p99=%.1fµs p99.9=%.1fµs max=%.1fµs",
+                getNombre(), getMoyenne() / 1000.0, centile(50) / 1000.0, centile(90) / 1000.0,
+                centile(99) / 1000.0, centile(99.9) / 1000.0, getMax() / 1000.0);
+    }
+
+    private static int indice(long valeur) {
+        if (valeur < LINEAIRE) {
+            return (int) valeur;
+        }
+        int bitFort = 63 - Long.numberOfLeadingZeros(valeur); // Au moins 6
+        int decalage = bitFort - BITS_TRANCHE;
+        int tranche = (int) (valeur >>> decalage) - TRANCHES;   // Entre 0 et 31
+        return LINEAIRE + (bitFort - 6) * TRANCHES + tranche;
+    }
+
+    private static long borneHaute(int indice) {
+        if (indice < LINEAIRE) {
+            return indice;
+        }
+        int bitFort = (indice - LINEAIRE) / TRANCHES + 6;
+        int tranche = (indice - LINEAIRE) % TRANCHES;
+        int decalage = bitFort - BITS_TRANCHE;
+        return ((long) (TRANCHES + tranche + 1) << decalage) - 1;
+    }
+}
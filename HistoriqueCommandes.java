@@ -0,0 +1,58 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+// Historique des commandes d'une session, dans l'ordre de création. Seule la connexion propriétaire de la session
+// ajoute des commandes ; les autres threads (métriques, éviction des sessions) lisent sans verrou : le tableau n'est
+// remplacé qu'après copie, et la taille n'est publiée qu'une fois la commande rangée.
+// Les statuts n'avançant que vers "Livrée", l'historique retient aussi la première commande non livrée, ce qui évite
+// de reparcourir les commandes déjà livrées pour savoir s'il reste une livraison en cours.
+public class HistoriqueCommandes extends AbstractList<Commande> implements RandomAccess {
+    private volatile Commande[] elements = new Commande[4];
+    private volatile int taille;
+    private int premierNonLivre; // Les commandes d'indice inférieur sont toutes livrées
+
+    // Méthode pour ajouter une commande à la fin de l'historique
+    @Override
+    public synchronized boolean add(Commande commande) {
+        Commande[] tableau = elements;
+        int n = taille;
+        if (n == tableau.length) {
+            tableau = Arrays.copyOf(tableau, n + (n >> 1) + 1);
+            elements = tableau;
+        }
+        tableau[n] = commande;
+        taille = n + 1; // Publie la commande aux lecteurs
+        return true;
+    }
+
+    @Override
+    public Commande get(int indice) {
+        int n = taille; // Lue avant le tableau : le tableau lu contient au moins les n premières commandes
+        if (indice < 0 || indice >= n) {
+            throw new IndexOutOfBoundsException("Indice " + indice + ", taille " + n);
+        }
+        return elements[indice];
+    }
+
+    @Override
+    public int size() {
+        return taille;
+    }
+
+    @Override
+    public synchronized void clear() {
+        elements = new Commande[4];
+        taille = 0;
+        premierNonLivre = 0;
+    }
+
+    // Méthode pour savoir si toutes les commandes de l'historique sont livrées (coût amorti constant)
+    public synchronized boolean toutesLivrees() {
+        int n = taille;
+        while (premierNonLivre < n && "Livrée".equals(elements[premierNonLivre].getStatut())) {
+            premierNonLivre++;
+        }
+        return premierNonLivre == n;
+    }
+}
@@ -0,0 +1,326 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Import en masse d'un catalogue fournisseur depuis un fichier CSV du serveur (commande administrateur "importer <chemin>").
+// Chaque ligne "id;nom;quantite;prix" crée le produit, ou met à jour la quantité et le prix d'un produit existant.
+// Les lignes vides, les commentaires "#" et une ligne d'en-tête en première ligne sont ignorés.
+// Le fichier est projeté en mémoire par morceaux analysés en parallèle, directement dans les octets : les nombres sont
+// lus sans créer de chaîne et le nom n'est décodé que pour un nouveau produit. Les morceaux sont ensuite appliqués
+// dans l'ordre du fichier, par lots journalisés ensemble (voir ServiceStock.appliquerLot).
+public class ImportCatalogue {
+    private static final int TAILLE_MORCEAU = 8 << 20;   // Octets analysés par une tâche
+    private static final int TAILLE_MAX_LIGNE = 64 << 10; // Une ligne qui déborde d'un morceau peut dépasser sa fin d'autant
+    private static final int TAILLE_LOT = 10_000;        // Opérations journalisées et appliquées ensemble
+    private static final int ERREURS_AFFICHEES = 20;
+
+    private final ServiceStock serviceStock;
+
+    // Lignes valides d'un morceau, en tableaux parallèles, et erreurs (numéro de ligne dans le morceau, message)
+    private static final class Morceau {
+        final ByteBuffer octets; // Projection du morceau, gardée pour décoder les noms des nouveaux produits
+        int nombre;
+        String[] ids = new String[1024];
+        int[] debutsNom = new int[1024];
+        int[] longueursNom = new int[1024];
+        int[] quantites = new int[1024];
+        double[] prix = new double[1024];
+        final List<Integer> lignesErreur = new ArrayList<>();
+        final List<String> messagesErreur = new ArrayList<>();
+        int lignes; // Nombre de lignes commençant dans le morceau
+        final int[] separateurs = new int[3]; // Positions des séparateurs de la ligne en cours d'analyse
+
+        Morceau(ByteBuffer octets) {
+            this.octets = octets;
+        }
+
+        void ajouter(String id, int debutNom, int longueurNom, int quantite, double prixUnitaire) {
+            if (nombre == ids.length) {
+                int taille = nombre * 2;
+                ids = Arrays.copyOf(ids, taille);
+                debutsNom = Arrays.copyOf(debutsNom, taille);
+                longueursNom = Arrays.copyOf(longueursNom, taille);
+                quantites = Arrays.copyOf(quantites, taille);
+                prix = Arrays.copyOf(prix, taille);
+            }
+            ids[nombre] = id;
+            debutsNom[nombre] = debutNom;
+            longueursNom[nombre] = longueurNom;
+            quantites[nombre] = quantite;
+            prix[nombre] = prixUnitaire;
+            nombre++;
+        }
+
+        void erreur(int ligne, String message) {
+            lignesErreur.add(ligne);
+            messagesErreur.add(message);
+        }
+    }
+
+    // Constructeur de l'import ; les modifications passent par le service du stock (journal, cache du catalogue)
+    public ImportCatalogue(ServiceStock serviceStock) {
+        this.serviceStock = serviceStock;
+    }
+
+    // Méthode pour importer le fichier ; renvoie le compte rendu (une ligne de résumé, puis les premières erreurs)
+    public String importer(Path fichier) throws IOException {
+        long debut = System.nanoTime();
+        try (FileChannel canal = FileChannel.open(fichier, StandardOpenOption.READ)) {
+            long taille = canal.size();
+            int nombreMorceaux = (int) ((taille + TAILLE_MORCEAU - 1) / TAILLE_MORCEAU);
+            int paralleles = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), nombreMorceaux));
+            ExecutorService analyseurs = Executors.newFixedThreadPool(paralleles, tache -> {
+                Thread thread = new Thread(tache, "import-catalogue");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<Morceau>> analyses = new ArrayList<>(nombreMorceaux);
+                List<OperationStock> lot = new ArrayList<>(TAILLE_LOT);
+                Set<String> ajoutesDuLot = new HashSet<>();
+                List<String> erreurs = new ArrayList<>();
+                long ajoutes = 0;
+                long modifies = 0;
+                long lignesErreur = 0;
+                int premiereLigne = 1; // Numéro, dans le fichier, de la première ligne du morceau courant
+                byte[] tampon = new byte[256];
+
+                for (int numero = 0; numero < nombreMorceaux; numero++) {
+                    // Les analyses avancent devant l'application, avec une avance bornée pour limiter la mémoire
+                    while (analyses.size() < nombreMorceaux && analyses.size() < numero + 2 * paralleles) {
+                        int aAnalyser = analyses.size();
+                        analyses.add(analyseurs.submit(() -> analyser(canal, taille, aAnalyser)));
+                    }
+                    Morceau morceau = attendre(analyses.get(numero));
+                    analyses.set(numero, null);
+
+                    for (int i = 0; i < morceau.lignesErreur.size(); i++) {
+                        lignesErreur++;
+                        if (erreurs.size() < ERREURS_AFFICHEES) {
+                            erreurs.add("Ligne " + (premiereLigne + morceau.lignesErreur.get(i) - 1) + " : " + morceau.messagesErreur.get(i));
+                        }
+                    }
+                    for (int i = 0; i < morceau.nombre; i++) {
+                        String id = morceau.ids[i];
+                        if (serviceStock.getStock().containsKey(id) || ajoutesDuLot.contains(id)) {
+                            lot.add(OperationStock.modification(id, morceau.quantites[i], morceau.prix[i]));
+                            modifies++;
+                        } else {
+                            if (tampon.length < morceau.longueursNom[i]) {
+                                tampon = new byte[morceau.longueursNom[i]];
+                            }
+                            copier(morceau.octets, morceau.debutsNom[i], tampon, morceau.longueursNom[i]);
+                            String nom = new String(tampon, 0, morceau.longueursNom[i], StandardCharsets.UTF_8);
+                            lot.add(OperationStock.ajout(id, nom, morceau.quantites[i], morceau.prix[i]));
+                            ajoutesDuLot.add(id);
+                            ajoutes++;
+                        }
+                        if (lot.size() == TAILLE_LOT) {
+                            lignesErreur += appliquer(lot, erreurs);
+                            ajoutesDuLot.clear();
+                        }
+                    }
+                    premiereLigne += morceau.lignes;
+                }
+                lignesErreur += appliquer(lot, erreurs);
+
+                StringBuilder compteRendu = new StringBuilder();
+                compteRendu.append("Import terminé : ").append(ajoutes).append(" produits ajoutés, ").append(modifies)
+                        .append(" modifiés, ").append(lignesErreur).append(" lignes en erreur, en ")
+                        .append((System.nanoTime() - debut) / 1_000_000).append(" ms.\n");
+                for (String erreur : erreurs) {
+                    compteRendu.append(erreur).append('\n');
+                }
+                if (lignesErreur > erreurs.size()) {
+                    compteRendu.append("(").append(lignesErreur - erreurs.size()).append(" autres erreurs)\n");
+                }
+                return compteRendu.toString();
+            } finally {
+                analyseurs.shutdownNow();
+            }
+        }
+    }
+
+    // Applique le lot puis le vide ; renvoie le nombre d'opérations refusées
+    private int appliquer(List<OperationStock> lot, List<String> erreurs) throws IOException {
+        if (lot.isEmpty()) {
+            return 0;
+        }
+        List<String> refus = new ArrayList<>();
+        serviceStock.appliquerLot(lot, refus);
+        for (String refuse : refus) {
+            if (erreurs.size() < ERREURS_AFFICHEES) {
+                erreurs.add(refuse);
+            }
+        }
+        lot.clear();
+        return refus.size();
+    }
+
+    private static Morceau attendre(Future<Morceau> analyse) throws IOException {
+        try {
+            return analyse.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Erreur : Import interrompu.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Erreur : Lecture du fichier impossible : " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    // Analyse le morceau "numero" : les lignes qui y commencent, y compris la dernière si elle déborde sur le suivant
+    private static Morceau analyser(FileChannel canal, long taille, int numero) throws IOException {
+        long debutMorceau = (long) numero * TAILLE_MORCEAU;
+        long debutProjection = numero == 0 ? 0 : debutMorceau - 1; // L'octet précédent indique si une ligne commence au début
+        long finProjection = Math.min(taille, debutMorceau + TAILLE_MORCEAU + TAILLE_MAX_LIGNE);
+        ByteBuffer octets = canal.map(FileChannel.MapMode.READ_ONLY, debutProjection, finProjection - debutProjection);
+        Morceau morceau = new Morceau(octets);
+        int limite = octets.limit();
+        int fin = (int) (Math.min(taille, debutMorceau + TAILLE_MORCEAU) - debutProjection); // Les lignes commençant avant "fin"
+
+        int position = 0;
+        if (numero > 0) {
+            // La ligne qui chevauche le début appartient au morceau précédent
+            position = 1;
+            if (octets.get(0) != '\n') {
+                while (position < limite && octets.get(position - 1) != '\n') {
+                    position++;
+                }
+            }
+        }
+        byte[] tampon = new byte[64];
+        while (position < fin) {
+            int finLigne = position;
+            while (finLigne < limite && octets.get(finLigne) != '\n') {
+                finLigne++;
+            }
+            morceau.lignes++;
+            if (finLigne == limite && finProjection < taille) {
+                morceau.erreur(morceau.lignes, "ligne trop longue");
+                break;
+            }
+            tampon = analyserLigne(octets, position, finLigne, morceau, numero == 0 && morceau.lignes == 1, tampon);
+            position = finLigne + 1;
+        }
+        return morceau;
+    }
+
+    // Analyse une ligne "id;nom;quantite;prix" ; renvoie le tampon de décodage de l'ID (agrandi si nécessaire)
+    private static byte[] analyserLigne(ByteBuffer octets, int debut, int fin, Morceau morceau, boolean premiere, byte[] tampon) {
+        if (fin > debut && octets.get(fin - 1) == '\r') {
+            fin--;
+        }
+        while (debut < fin && estBlanc(octets.get(debut))) {
+            debut++;
+        }
+        if (debut == fin || octets.get(debut) == '#') {
+            return tampon;
+        }
+        int[] separateurs = morceau.separateurs;
+        int trouves = 0;
+        for (int i = debut; i < fin && trouves < 3; i++) {
+            byte c = octets.get(i);
+            if (c == ';') {
+                separateurs[trouves++] = i;
+            }
+        }
+        if (trouves < 3) {
+            morceau.erreur(morceau.lignes, "format invalide (attendu : id;nom;quantite;prix)");
+            return tampon;
+        }
+        long quantite = lireEntier(octets, separateurs[1] + 1, separateurs[2]);
+        double prix = lireDecimal(octets, separateurs[2] + 1, fin);
+        if (quantite < 0 || Double.isNaN(prix)) {
+            if (!premiere) { // Une première ligne non numérique est un en-tête
+                morceau.erreur(morceau.lignes, "quantité ou prix invalide");
+            }
+            return tampon;
+        }
+        int finId = separateurs[0];
+        while (finId > debut && estBlanc(octets.get(finId - 1))) {
+            finId--;
+        }
+        int debutNom = separateurs[0] + 1;
+        int finNom = separateurs[1];
+        while (debutNom < finNom && estBlanc(octets.get(debutNom))) {
+            debutNom++;
+        }
+        while (finNom > debutNom && estBlanc(octets.get(finNom - 1))) {
+            finNom--;
+        }
+        int longueurId = finId - debut;
+        if (longueurId == 0) {
+            morceau.erreur(morceau.lignes, "ID vide");
+            return tampon;
+        }
+        if (tampon.length < longueurId) {
+            tampon = new byte[longueurId];
+        }
+        copier(octets, debut, tampon, longueurId);
+        morceau.ajouter(new String(tampon, 0, longueurId, StandardCharsets.UTF_8), debutNom, finNom - debutNom, (int) quantite, prix);
+        return tampon;
+    }
+
+    // Copie "longueur" octets à partir de la position absolue "debut", sans toucher à la position du tampon
+    // (ByteBuffer.get(int, byte[], int, int) n'existe qu'à partir de Java 13)
+    private static void copier(ByteBuffer octets, int debut, byte[] destination, int longueur) {
+        for (int i = 0; i < longueur; i++) {
+            destination[i] = octets.get(debut + i);
+        }
+    }
+
+    private static boolean estBlanc(byte c) {
+        return c == ' ' || c == '\t';
+    }
+
+    // Lit un entier positif (int) ; renvoie -1 si le champ n'en est pas un
+    private static long lireEntier(ByteBuffer octets, int debut, int fin) {
+        long valeur = 0;
+        boolean chiffre = false;
+        for (int i = debut; i < fin; i++) {
+            byte c = octets.get(i);
+            if (c >= '0' && c <= '9') {
+                valeur = valeur * 10 + (c - '0');
+                if (valeur > Integer.MAX_VALUE) {
+                    return -1;
+                }
+                chiffre = true;
+            } else if (!estBlanc(c)) {
+                return -1;
+            }
+        }
+        return chiffre ? valeur : -1;
+    }
+
+    // Lit un nombre décimal positif avec un point ("12.50") ; renvoie NaN si le champ n'en est pas un
+    private static double lireDecimal(ByteBuffer octets, int debut, int fin) {
+        long mantisse = 0;
+        int decimales = -1;
+        boolean chiffre = false;
+        for (int i = debut; i < fin; i++) {
+            byte c = octets.get(i);
+            if (c >= '0' && c <= '9') {
+                if (mantisse > (Long.MAX_VALUE - 9) / 10) {
+                    return Double.NaN;
+                }
+                mantisse = mantisse * 10 + (c - '0');
+                chiffre = true;
+                if (decimales >= 0) {
+                    decimales++;
+                }
+            } else if (c == '.' && decimales < 0) {
+                decimales = 0;
+            } else if (!estBlanc(c)) {
+                return Double.NaN;
+            }
+        }
+        if (!chiffre) {
+            return Double.NaN;
+        }
+        return decimales <= 0 ? mantisse : mantisse / Math.pow(10, decimales);
+    }
+}
@@ -0,0 +1,324 @@
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Index de recherche des produits (commande "rechercher"), tenu à jour à chaque ajout ou suppression.
+// - Noms : index inversé de trigrammes sur le nom normalisé (minuscules, sans accents, mots séparés par une espace).
+//   Chaque mot apporte aussi ses préfixes d'une et deux lettres, pour les termes courts. Un produit trouvé contient
+//   tous les termes de la recherche (un terme court doit commencer un mot du nom).
+// - ID : index trié des ID en minuscules, pour la recherche par préfixe.
+// Chaque ajout reçoit un nouveau numéro de document : les listes de numéros restent triées par simple ajout en fin,
+// et l'intersection parcourt la plus courte en ne cherchant que vers l'avant dans les autres (par pas doublés). La recherche
+// s'arrête dès que "limite" produits sont trouvés. Quantités et prix ne sont pas indexés : les filtres lisent
+// le produit, si bien que les commandes (qui modifient la quantité) ne touchent jamais l'index.
+// Un document supprimé ou remplacé laisse son numéro dans les listes ; quand ces documents morts dépassent la moitié
+// des numéros attribués, l'index est compacté (documents renumérotés dans le même ordre, listes filtrées).
+public class IndexRecherche implements EcouteurStock {
+    private final ReentrantReadWriteLock verrou = new ReentrantReadWriteLock(); // Recherches en parallèle, mises à jour exclusives
+    private final Map<Long, Liste> trigrammes = new HashMap<>(); // Numéros des documents contenant chaque trigramme
+    private final TreeMap<String, Integer> parId = new TreeMap<>(); // "id en minuscules\0id" -> numéro du document courant
+    private Produit[] produits = new Produit[1024]; // Produit de chaque document, null s'il a été supprimé ou remplacé
+    private String[] noms = new String[1024]; // Nom normalisé de chaque document
+    private int nombre; // Nombre de documents attribués
+    private int morts; // Nombre de documents supprimés ou remplacés, encore présents dans les listes
+
+    // Liste croissante de numéros de documents
+    private static final class Liste {
+        int[] numeros = new int[4];
+        int taille;
+
+        void ajouter(int numero) {
+            if (taille == numeros.length) {
+                numeros = Arrays.copyOf(numeros, taille * 2);
+            }
+            numeros[taille++] = numero;
+        }
+    }
+
+    // Constructeur de l'index : les produits déjà en stock sont indexés
+    public IndexRecherche(Map<String, Produit> stock) {
+        for (Produit produit : stock.values()) {
+            produitAjoute(produit);
+        }
+    }
+
+    @Override
+    public void produitAjoute(Produit produit) {
+        String nom = normaliser(produit.getNom());
+        long[] cles = cles(nom);
+        verrou.writeLock().lock();
+        try {
+            retirer(produit.getId());
+            if (nombre == produits.length) {
+                produits = Arrays.copyOf(produits, nombre * 2);
+                noms = Arrays.copyOf(noms, nombre * 2);
+            }
+            int numero = nombre++;
+            produits[numero] = produit;
+            noms[numero] = nom;
+            for (long cle : cles) {
+                trigrammes.computeIfAbsent(cle, c -> new Liste()).ajouter(numero);
+            }
+            parId.put(cleId(produit.getId()), numero);
+        } finally {
+            verrou.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void produitModifie(Produit produit) {
+        // Seuls la quantité et le prix changent : ils sont lus directement sur le produit lors des recherches
+    }
+
+    @Override
+    public void produitSupprime(String id) {
+        verrou.writeLock().lock();
+        try {
+            retirer(id);
+        } finally {
+            verrou.writeLock().unlock();
+        }
+    }
+
+    // Oublie le document courant d'un produit ; ses numéros restent dans les listes et sont ignorés à la recherche,
+    // jusqu'à la prochaine compaction
+    private void retirer(String id) {
+        Integer ancien = parId.remove(cleId(id));
+        if (ancien != null) {
+            produits[ancien] = null;
+            noms[ancien] = null;
+            morts++;
+            if (morts >= 64 && morts * 2 > nombre) {
+                compacter();
+            }
+        }
+    }
+
+    // Renumérote les documents vivants sans changer leur ordre, si bien que les listes filtrées restent triées.
+    // Coût proportionnel à la taille de l'index, amorti sur les suppressions qui l'ont déclenché.
+    private void compacter() {
+        int[] nouveaux = new int[nombre];
+        int vivants = 0;
+        for (int numero = 0; numero < nombre; numero++) {
+            nouveaux[numero] = produits[numero] != null ? vivants++ : -1;
+        }
+        int capacite = Math.max(1024, Integer.highestOneBit(Math.max(1, vivants)) * 2);
+        Produit[] nouveauxProduits = new Produit[capacite];
+        String[] nouveauxNoms = new String[capacite];
+        for (int numero = 0; numero < nombre; numero++) {
+            if (nouveaux[numero] >= 0) {
+                nouveauxProduits[nouveaux[numero]] = produits[numero];
+                nouveauxNoms[nouveaux[numero]] = noms[numero];
+            }
+        }
+        Iterator<Liste> listes = trigrammes.values().iterator();
+        while (listes.hasNext()) {
+            Liste liste = listes.next();
+            int taille = 0;
+            for (int i = 0; i < liste.taille; i++) {
+                int nouveau = nouveaux[liste.numeros[i]];
+                if (nouveau >= 0) {
+                    liste.numeros[taille++] = nouveau;
+                }
+            }
+            if (taille == 0) {
+                listes.remove(); // Trigramme qui n'apparaît plus dans aucun nom
+            } else if (taille < liste.numeros.length / 4) {
+                liste.numeros = Arrays.copyOf(liste.numeros, taille * 2);
+            }
+            liste.taille = taille;
+        }
+        for (Map.Entry<String, Integer> entree : parId.entrySet()) {
+            entree.setValue(nouveaux[entree.getValue()]);
+        }
+        produits = nouveauxProduits;
+        noms = nouveauxNoms;
+        nombre = vivants;
+        morts = 0;
+    }
+
+    // Méthode pour rechercher au plus "limite" produits : d'abord ceux dont l'ID commence par la recherche (si elle
+    // tient en un mot), puis ceux dont le nom contient tous les termes. Filtres : prix entre prixMin et prixMax,
+    // et quantité non nulle si "disponibles".
+    public List<Produit> rechercher(String texte, double prixMin, double prixMax, boolean disponibles, int limite) {
+        List<Produit> resultats = new ArrayList<>();
+        String[] termes = normaliser(texte).split(" ");
+        verrou.readLock().lock();
+        try {
+            Set<Integer> dejaTrouves = new HashSet<>();
+            String mot = texte.trim();
+            if (!mot.isEmpty() && mot.indexOf(' ') < 0) {
+                String prefixe = mot.toLowerCase(Locale.ROOT);
+                for (int numero : parId.subMap(prefixe, prefixe + Character.MAX_VALUE).values()) {
+                    if (resultats.size() == limite) {
+                        return resultats;
+                    }
+                    if (accepter(produits[numero], prixMin, prixMax, disponibles)) {
+                        resultats.add(produits[numero]);
+                        dejaTrouves.add(numero);
+                    }
+                }
+            }
+            if (termes[0].isEmpty()) {
+                return resultats;
+            }
+
+            // Listes à intersecter, de la plus courte à la plus longue
+            List<Liste> listes = new ArrayList<>();
+            for (String terme : termes) {
+                for (long cle : clesTerme(terme)) {
+                    Liste liste = trigrammes.get(cle);
+                    if (liste == null) {
+                        return resultats; // Un trigramme absent de tous les noms : aucun nom ne contient ce terme
+                    }
+                    listes.add(liste);
+                }
+            }
+            listes.sort(Comparator.comparingInt(liste -> liste.taille));
+            Liste plusCourte = listes.get(0);
+            int[] positions = new int[listes.size()];
+            candidats:
+            for (int i = 0; i < plusCourte.taille && resultats.size() < limite; i++) {
+                int numero = plusCourte.numeros[i];
+                for (int j = 1; j < listes.size(); j++) {
+                    Liste liste = listes.get(j);
+                    int position = chercher(liste, positions[j], numero);
+                    if (position < 0) {
+                        positions[j] = -position - 1;
+                        continue candidats;
+                    }
+                    positions[j] = position + 1;
+                }
+                String nom = noms[numero];
+                if (nom == null || !contientTous(nom, termes) || dejaTrouves.contains(numero)) {
+                    continue;
+                }
+                if (accepter(produits[numero], prixMin, prixMax, disponibles)) {
+                    resultats.add(produits[numero]);
+                }
+            }
+            return resultats;
+        } finally {
+            verrou.readLock().unlock();
+        }
+    }
+
+    // Cherche "numero" dans la liste à partir de "debut" : pas doublés jusqu'à le dépasser, puis dichotomie.
+    // Renvoie sa position, ou (-(position d'insertion) - 1) s'il est absent.
+    private static int chercher(Liste liste, int debut, int numero) {
+        int bas = debut;
+        int pas = 1;
+        while (bas + pas - 1 < liste.taille && liste.numeros[bas + pas - 1] < numero) {
+            bas += pas;
+            pas <<= 1;
+        }
+        return Arrays.binarySearch(liste.numeros, bas, Math.min(liste.taille, bas + pas), numero);
+    }
+
+    // Méthode pour obtenir le nombre de produits indexés
+    public int getNombreProduits() {
+        verrou.readLock().lock();
+        try {
+            return parId.size();
+        } finally {
+            verrou.readLock().unlock();
+        }
+    }
+
+    private static boolean accepter(Produit produit, double prixMin, double prixMax, boolean disponibles) {
+        double prix = produit.getPrix();
+        return prix >= prixMin && prix <= prixMax && (!disponibles || produit.getQuantite() > 0);
+    }
+
+    // Les trigrammes ne garantissent pas que le terme est contigu : le nom est vérifié
+    private static boolean contientTous(String nom, String[] termes) {
+        for (String terme : termes) {
+            boolean trouve = terme.length() >= 3
+                    ? nom.contains(terme)
+                    : nom.startsWith(terme) || nom.contains(" " + terme);
+            if (!trouve) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Méthode pour normaliser un texte : minuscules, accents retirés, ligatures développées,
+    // mots (lettres et chiffres) séparés par une seule espace
+    public static String normaliser(String texte) {
+        String decompose = Normalizer.normalize(texte, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decompose.length());
+        for (int i = 0; i < decompose.length(); i++) {
+            char c = decompose.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            c = Character.toLowerCase(c);
+            if (c == 'œ') {
+                sb.append("oe");
+            } else if (c == 'æ') {
+                sb.append("ae");
+            } else if (c == 'ß') {
+                sb.append("ss");
+            } else if (Character.isLetterOrDigit(c)) {
+                sb.append(c);
+            } else if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ') {
+                sb.append(' ');
+            }
+        }
+        int fin = sb.length();
+        if (fin > 0 && sb.charAt(fin - 1) == ' ') {
+            sb.setLength(fin - 1);
+        }
+        return sb.toString();
+    }
+
+    // Clés d'un nom normalisé, sans doublon : trigrammes de chaque mot et préfixes d'une et deux lettres
+    private static long[] cles(String nom) {
+        long[] cles = new long[nom.length() * 3 + 2];
+        int n = 0;
+        for (String mot : nom.split(" ")) {
+            if (mot.isEmpty()) {
+                continue;
+            }
+            cles[n++] = cle((char) 0, (char) 0, mot.charAt(0));
+            if (mot.length() >= 2) {
+                cles[n++] = cle((char) 0, mot.charAt(0), mot.charAt(1));
+            }
+            for (int i = 0; i + 3 <= mot.length(); i++) {
+                cles[n++] = cle(mot.charAt(i), mot.charAt(i + 1), mot.charAt(i + 2));
+            }
+        }
+        Arrays.sort(cles, 0, n);
+        int uniques = 0;
+        for (int i = 0; i < n; i++) {
+            if (uniques == 0 || cles[uniques - 1] != cles[i]) {
+                cles[uniques++] = cles[i];
+            }
+        }
+        return Arrays.copyOf(cles, uniques);
+    }
+
+    // Clés à intersecter pour un terme : ses trigrammes, ou son préfixe de mot s'il est court
+    private static long[] clesTerme(String terme) {
+        if (terme.length() == 1) {
+            return new long[] {cle((char) 0, (char) 0, terme.charAt(0))};
+        }
+        if (terme.length() == 2) {
+            return new long[] {cle((char) 0, terme.charAt(0), terme.charAt(1))};
+        }
+        long[] cles = new long[terme.length() - 2];
+        for (int i = 0; i < cles.length; i++) {
+            cles[i] = cle(terme.charAt(i), terme.charAt(i + 1), terme.charAt(i + 2));
+        }
+        return cles;
+    }
+
+    private static long cle(char a, char b, char c) {
+        return ((long) a << 32) | ((long) b << 16) | c;
+    }
+
+    private static String cleId(String id) {
+        return id.toLowerCase(Locale.ROOT) + '\0' + id;
+    }
+}
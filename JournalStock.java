@@ -0,0 +1,818 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.*;
+import java.util.zip.CRC32;
+
+// Journal de persistance du serveur : les opérations d'administration sont ajoutées à un journal binaire
+// (segments "journal-N.bin") avant d'être appliquées en mémoire ; une commande y est ajoutée dans l'instant où son
+// stock est réservé (voir ServiceStock), si bien que le rejeu suit l'ordre des modifications en mémoire. Un thread
+// unique écrit les enregistrements par lots, si bien que plusieurs commandes simultanées partagent un seul fsync
+// (validation groupée). Les segments fermés sont compactés en arrière-plan dans un instantané ("instantane-N.bin") :
+// au démarrage, seul le reste du journal est rejoué.
+// Les étapes de livraison sont journalisées sans attendre le disque (STATUT) : perdues lors d'un arrêt brutal, elles
+// sont simplement refaites. L'instantané ne garde que les commandes non livrées, avec leur dernier statut ; à chaque
+// compaction, les commandes livrées quittent le journal pour l'archive de leur session (voir GestionnaireSessions).
+// Les réservations des transactions réparties (voir TransactionsPartition) sont journalisées elles aussi, sans attendre
+// le disque (RESERVATION, puis LIBERATION ou LIBERATION suivie de COMMANDE à la confirmation). Une réservation encore
+// ouverte au redémarrage est rendue : le routeur qui l'avait préparée a perdu sa connexion.
+//
+// Format d'un enregistrement : [int longueur][octet type][contenu][int CRC32 du type et du contenu].
+// Format d'un instantané : [int MAGIC][int dernier segment inclus][int plus grand ID de commande]
+//                          [enregistrements COMMANDE, chacun suivi du STATUT de sa dernière étape atteinte...]
+//                          [enregistrements RESERVATION encore ouverts...]
+//                          [table du stock][long position de la table][int MAGIC].
+public class JournalStock implements Runnable {
+    private static final byte AJOUT = 1;
+    private static final byte MODIFICATION = 2;
+    private static final byte SUPPRESSION = 3;
+    private static final byte COMMANDE = 4;
+    private static final byte STATUT = 5;
+    private static final byte RESERVATION = 6;
+    private static final byte LIBERATION = 7;
+
+    private static final int MAGIC = 0x53544F32; // "STO2" (instantané des seules commandes non livrées)
+    private static final int DEBUT_ENREGISTREMENTS = 12; // Taille de l'en-tête d'un instantané
+    private static final int TAILLE_MAX_ENREGISTREMENT = 1 << 20; // Au-delà, l'enregistrement est considéré comme corrompu
+    private static final long TAILLE_MAX_SEGMENT = 64L * 1024 * 1024; // Taille à partir de laquelle on change de segment
+    private static final long AGE_MAX_SEGMENT_MS = 5 * 60 * 1000; // Âge à partir duquel un segment non vide est fermé
+    private static final int TAILLE_LOT_MAX = 4096; // Nombre maximal d'enregistrements validés par un même fsync
+
+    private static final Pattern NOM_SEGMENT = Pattern.compile("journal-(\\d+)\\.bin");
+    private static final Pattern NOM_INSTANTANE = Pattern.compile("instantane-(\\d+)\\.bin");
+
+    private final Path repertoire; // Le répertoire contenant segments et instantanés
+    private final BlockingQueue<Ecriture> enAttente = new LinkedBlockingQueue<>(); // Enregistrements en attente d'écriture
+    private final ByteBuffer tampon = ByteBuffer.allocateDirect(2 * TAILLE_MAX_ENREGISTREMENT); // Tampon d'écriture du thread de journalisation
+    private final ExecutorService compacteur = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "journal-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private FileChannel segment; // Le segment courant (utilisé uniquement par le thread d'écriture)
+    private long tailleSegment; // Nombre d'octets écrits dans le segment courant
+    private long ouvertureSegment; // Date d'ouverture du segment courant
+    private volatile int numeroSegment; // Numéro du segment courant
+    private volatile int dernierInstantane; // Numéro du dernier segment inclus dans l'instantané
+    private GestionnaireSessions sessions; // Destinataire des commandes livrées retirées du journal par la compaction
+    private Map<String, HistoriqueCommandes> aArchiver = Collections.emptyMap(); // Sessions non rechargées par restaurer
+    private List<byte[]> aLiberer = Collections.emptyList(); // Réservations ouvertes rendues par restaurer
+    private boolean vide = true; // Vrai si aucun état n'existait sur disque au démarrage
+
+    // Mesures : nombre d'enregistrements, nombre de fsync, latence cumulée de validation, durée de restauration
+    private final LongAdder ecritures = new LongAdder();
+    private final LongAdder synchronisations = new LongAdder();
+    private final LongAdder latenceTotaleNanos = new LongAdder();
+    private long dureeRestaurationMs;
+    private long enregistrementsRestaures;
+
+    // Enregistrement en attente, et son signal de fin (complété une fois l'enregistrement sur disque)
+    public static final class Ecriture {
+        private final byte[] octets;
+        private final CompletableFuture<Void> fin = new CompletableFuture<>();
+        private final long debut = System.nanoTime(); // Pour la latence de validation
+
+        private Ecriture(byte[] octets) {
+            this.octets = octets;
+        }
+    }
+
+    // Constructeur du journal
+    public JournalStock(Path repertoire) throws IOException {
+        this.repertoire = repertoire;
+        Files.createDirectories(repertoire);
+    }
+
+    // Méthode pour recharger l'état : dernier instantané puis segments plus récents.
+    // Renvoie les commandes non livrées, dont la livraison doit reprendre à leur dernière étape atteinte.
+    // Seules les sessions ayant une commande non livrée, ou une livraison datant de moins de "ttlSecondes", sont rangées
+    // dans "commandes" ; les autres sont archivées par demarrer, d'où "reprendre" les recharge au besoin.
+    public List<Commande> restaurer(Map<String, Produit> stock, Map<String, HistoriqueCommandes> commandes, long ttlSecondes) throws IOException {
+        long debut = System.nanoTime();
+        Files.deleteIfExists(repertoire.resolve("instantane.tmp")); // Reste d'une compaction interrompue
+
+        Map<Integer, Commande> aLivrer = new LinkedHashMap<>(); // Commandes non livrées, par ID
+        Map<String, byte[]> ouvertes = new LinkedHashMap<>(); // Réservations ni confirmées ni rendues, par transaction
+        dernierInstantane = numeroMax(NOM_INSTANTANE);
+        if (dernierInstantane > 0) {
+            vide = false;
+            chargerInstantane(fichierInstantane(dernierInstantane), stock, commandes, aLivrer, ouvertes);
+        }
+
+        Map<Integer, Long> livraisons = new HashMap<>(); // Date de livraison des commandes livrées depuis l'instantané
+        int dernierSegment = dernierInstantane;
+        for (int numero : numeros(NOM_SEGMENT)) {
+            if (numero <= dernierInstantane) {
+                Files.deleteIfExists(fichierSegment(numero)); // Déjà inclus dans l'instantané
+                continue;
+            }
+            vide = false;
+            dernierSegment = Math.max(dernierSegment, numero);
+            try (DataInputStream in = ouvrirLecture(fichierSegment(numero))) {
+                byte[] corps;
+                while ((corps = lireEnregistrement(in)) != null) {
+                    Commande commande = appliquer(corps, stock, commandes, true, aLivrer, ouvertes);
+                    if (corps[0] == STATUT && commande != null && "Livrée".equals(commande.getStatut())) {
+                        livraisons.put(commande.getId(), horodatage(corps));
+                    }
+                    enregistrementsRestaures++;
+                }
+            }
+        }
+        numeroSegment = dernierSegment;
+
+        // Les réservations ouvertes sont rendues (LIBERATION journalisées par demarrer)
+        aLiberer = new ArrayList<>();
+        for (byte[] reservation : ouvertes.values()) {
+            byte[] liberation = reservation.clone();
+            liberation[0] = LIBERATION;
+            appliquer(liberation, stock, null, true, null, null);
+            aLiberer.add(encadrer(LIBERATION, Arrays.copyOfRange(liberation, 1, liberation.length)));
+        }
+
+        // Les sessions dont toutes les commandes sont livrées depuis plus de ttl ne restent pas en mémoire
+        long limite = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(ttlSecondes);
+        aArchiver = new HashMap<>();
+        Iterator<Map.Entry<String, HistoriqueCommandes>> it = commandes.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, HistoriqueCommandes> session = it.next();
+            if (!session.getValue().toutesLivrees()) {
+                continue;
+            }
+            long derniere = 0;
+            for (Commande commande : session.getValue()) {
+                derniere = Math.max(derniere, livraisons.getOrDefault(commande.getId(), 0L));
+            }
+            if (derniere < limite) {
+                aArchiver.put(session.getKey(), session.getValue());
+                it.remove();
+            }
+        }
+
+        dureeRestaurationMs = (System.nanoTime() - debut) / 1_000_000;
+        System.out.println("Journal restauré : " + enregistrementsRestaures + " enregistrements en " + dureeRestaurationMs + " ms.");
+        return new ArrayList<>(aLivrer.values());
+    }
+
+    // Méthode pour ouvrir un nouveau segment et démarrer le thread d'écriture (à appeler après restaurer) ;
+    // les commandes livrées retirées du journal par la compaction sont confiées aux archives de "sessions"
+    public void demarrer(GestionnaireSessions sessions) throws IOException {
+        this.sessions = sessions;
+        // Archivage immédiat des sessions écartées par restaurer : leur jeton reste reprenable dès le démarrage
+        for (Map.Entry<String, HistoriqueCommandes> session : aArchiver.entrySet()) {
+            sessions.archiverLivrees(session.getKey(), session.getValue());
+        }
+        aArchiver = Collections.emptyMap();
+        for (byte[] liberation : aLiberer) {
+            enAttente.add(new Ecriture(liberation)); // Premiers enregistrements du nouveau segment
+        }
+        aLiberer = Collections.emptyList();
+        ouvrirSegment(numeroSegment + 1);
+        Thread thread = new Thread(this, "journal-ecriture");
+        thread.setDaemon(true);
+        thread.start();
+        // Les segments rejoués au démarrage sont compactés tout de suite, pour que le prochain démarrage soit rapide
+        compacteur.submit(this::compacterSansErreur);
+    }
+
+    // Méthode pour savoir si aucun état n'existait sur disque (premier démarrage)
+    public boolean estVide() {
+        return vide;
+    }
+
+    // Méthode pour journaliser l'ajout (ou le remplacement) d'un produit
+    public void journaliserAjout(String id, String nom, int quantite, double prix) throws IOException {
+        ecrireDurable(enregistrementAjout(id, nom, quantite, prix));
+    }
+
+    // Méthode pour journaliser la modification de la quantité et du prix d'un produit
+    public void journaliserModification(String id, int quantite, double prix) throws IOException {
+        ecrireDurable(enregistrementModification(id, quantite, prix));
+    }
+
+    // Méthode pour journaliser la suppression d'un produit
+    public void journaliserSuppression(String id) throws IOException {
+        ecrireDurable(enregistrementSuppression(id));
+    }
+
+    // Méthode pour journaliser un lot d'opérations : tous les enregistrements sont confiés au thread d'écriture
+    // avant d'attendre, si bien que le lot entier ne coûte que quelques fsync au lieu d'un par opération
+    public void journaliserLot(List<OperationStock> operations) throws IOException {
+        long debut = System.nanoTime();
+        List<Ecriture> lot = new ArrayList<>(operations.size());
+        for (OperationStock operation : operations) {
+            byte[] octets;
+            switch (operation.getType()) {
+                case OperationStock.AJOUT:
+                    octets = enregistrementAjout(operation.getId(), operation.getNom(), operation.getQuantite(), operation.getPrix());
+                    break;
+                case OperationStock.MODIFICATION:
+                    octets = enregistrementModification(operation.getId(), operation.getQuantite(), operation.getPrix());
+                    break;
+                default:
+                    octets = enregistrementSuppression(operation.getId());
+                    break;
+            }
+            lot.add(new Ecriture(octets));
+        }
+        enAttente.addAll(lot); // Dans l'ordre du lot : le rejeu retrouve le même état
+        for (Ecriture ecriture : lot) {
+            attendre(ecriture);
+        }
+        ecritures.add(lot.size());
+        latenceTotaleNanos.add((System.nanoTime() - debut) * lot.size());
+    }
+
+    private static byte[] enregistrementAjout(String id, String nom, int quantite, double prix) throws IOException {
+        ByteArrayOutputStream contenu = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(contenu);
+        out.writeUTF(id);
+        out.writeUTF(nom);
+        out.writeInt(quantite);
+        out.writeDouble(prix);
+        return encadrer(AJOUT, contenu.toByteArray());
+    }
+
+    private static byte[] enregistrementModification(String id, int quantite, double prix) throws IOException {
+        ByteArrayOutputStream contenu = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(contenu);
+        out.writeUTF(id);
+        out.writeInt(quantite);
+        out.writeDouble(prix);
+        return encadrer(MODIFICATION, contenu.toByteArray());
+    }
+
+    private static byte[] enregistrementSuppression(String id) throws IOException {
+        ByteArrayOutputStream contenu = new ByteArrayOutputStream(16);
+        DataOutputStream out = new DataOutputStream(contenu);
+        out.writeUTF(id);
+        return encadrer(SUPPRESSION, contenu.toByteArray());
+    }
+
+    // Méthode pour journaliser une commande passée par une session (les quantités sont retirées du stock au rejeu)
+    public void journaliserCommande(String sessionId, Commande commande) throws IOException {
+        attendreEcriture(confierCommande(sessionId, commande));
+    }
+
+    // Méthode pour confier une commande au thread d'écriture sans attendre le disque : l'appelant la place ainsi dans
+    // le journal à l'instant où il l'a réservée (voir MoteurReservation.commander), puis attend avec attendreEcriture
+    public Ecriture confierCommande(String sessionId, Commande commande) throws IOException {
+        return confier(enregistrementCommande(sessionId, commande));
+    }
+
+    // Contenu : session, ID, total, lignes (produit, quantité), puis le prix unitaire de chaque ligne en centimes
+    // (absent des enregistrements écrits avant les prix par ligne : voir appliquer)
+    private static byte[] enregistrementCommande(String sessionId, Commande commande) throws IOException {
+        ByteArrayOutputStream contenu = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(contenu);
+        out.writeUTF(sessionId);
+        out.writeInt(commande.getId());
+        out.writeDouble(commande.getTotal());
+        out.writeInt(commande.getNombreLignes());
+        for (int i = 0; i < commande.getNombreLignes(); i++) {
+            out.writeUTF(commande.getProduit(i));
+            out.writeInt(commande.getQuantite(i));
+        }
+        for (int i = 0; i < commande.getNombreLignes(); i++) {
+            out.writeLong(commande.getPrix(i));
+        }
+        return encadrer(COMMANDE, contenu.toByteArray());
+    }
+
+    // Méthode pour journaliser la réservation d'une transaction répartie, sans attendre le disque : la confirmation
+    // attendra le fsync, qui couvre aussi cet enregistrement (le thread d'écriture respecte l'ordre d'arrivée)
+    public void journaliserReservation(String transaction, Map<String, Integer> lignes) throws IOException {
+        confier(enregistrementReservation(RESERVATION, transaction, lignes));
+    }
+
+    // Méthode pour journaliser le retour en stock d'une réservation annulée ou abandonnée, sans attendre le disque :
+    // perdue lors d'un arrêt brutal, elle est refaite par restaurer, qui rend toutes les réservations ouvertes
+    public void journaliserLiberation(String transaction, Map<String, Integer> lignes) {
+        try {
+            confier(enregistrementReservation(LIBERATION, transaction, lignes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Impossible : la réservation, de même taille, a été acceptée
+        }
+    }
+
+    // Méthode pour journaliser la confirmation d'une transaction : sa réservation est rendue et la commande créée par
+    // un même lot d'octets, si bien que le rejeu ne retire pas le stock deux fois. Attend le disque.
+    public void journaliserConfirmation(String transaction, Map<String, Integer> lignes, String sessionId, Commande commande) throws IOException {
+        byte[] liberation = enregistrementReservation(LIBERATION, transaction, lignes);
+        byte[] creation = enregistrementCommande(sessionId, commande);
+        byte[] octets = Arrays.copyOf(liberation, liberation.length + creation.length);
+        System.arraycopy(creation, 0, octets, liberation.length, creation.length);
+        ecrireDurable(octets);
+    }
+
+    private static byte[] enregistrementReservation(byte type, String transaction, Map<String, Integer> lignes) throws IOException {
+        ByteArrayOutputStream contenu = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(contenu);
+        out.writeUTF(transaction);
+        out.writeInt(lignes.size());
+        for (Map.Entry<String, Integer> ligne : lignes.entrySet()) {
+            out.writeUTF(ligne.getKey());
+            out.writeInt(ligne.getValue());
+        }
+        return encadrer(type, contenu.toByteArray());
+    }
+
+    // Méthode pour journaliser une étape de livraison atteinte par une commande. N'attend pas le disque :
+    // appelée par le thread des livraisons, qui ne doit jamais bloquer
+    public void journaliserStatut(Commande commande, String statut) {
+        ByteArrayOutputStream contenu = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(contenu);
+        try {
+            out.writeInt(commande.getId());
+            out.writeUTF(statut);
+            out.writeLong(System.currentTimeMillis());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Impossible en mémoire
+        }
+        enAttente.add(new Ecriture(encadrer(STATUT, contenu.toByteArray())));
+    }
+
+    // Méthode pour obtenir les mesures du journal sous forme lisible
+    public String statistiques() {
+        long nombre = ecritures.sum();
+        long moyenneMicros = nombre == 0 ? 0 : latenceTotaleNanos.sum() / nombre / 1000;
+        return "Journal : " + nombre + " enregistrements, " + synchronisations.sum() + " fsync, latence moyenne "
+                + moyenneMicros + " µs, restauration " + enregistrementsRestaures + " enregistrements en " + dureeRestaurationMs + " ms";
+    }
+
+    // Méthode pour attendre qu'un enregistrement confié au thread d'écriture soit sur disque
+    public void attendreEcriture(Ecriture ecriture) throws IOException {
+        attendre(ecriture);
+        ecritures.increment();
+        latenceTotaleNanos.add(System.nanoTime() - ecriture.debut);
+    }
+
+    // Confie l'enregistrement au thread d'écriture et attend qu'il soit sur disque
+    private void ecrireDurable(byte[] octets) throws IOException {
+        attendreEcriture(confier(octets));
+    }
+
+    // Confie l'enregistrement au thread d'écriture : les enregistrements sont écrits dans l'ordre où ils sont confiés
+    private Ecriture confier(byte[] octets) throws IOException {
+        if (octets.length > TAILLE_MAX_ENREGISTREMENT) {
+            throw new IOException("Erreur : Enregistrement trop volumineux pour le journal.");
+        }
+        Ecriture ecriture = new Ecriture(octets);
+        enAttente.add(ecriture);
+        return ecriture;
+    }
+
+    // Attend que l'enregistrement soit sur disque
+    private static void attendre(Ecriture ecriture) throws IOException {
+        try {
+            ecriture.fin.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Erreur : Écriture du journal interrompue.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Erreur : Écriture du journal impossible.", e.getCause());
+        }
+    }
+
+    // Boucle du thread d'écriture : un lot d'enregistrements, une écriture, un seul fsync
+    @Override
+    public void run() {
+        List<Ecriture> lot = new ArrayList<>();
+        while (true) {
+            try {
+                Ecriture premiere = enAttente.poll(1, TimeUnit.SECONDS);
+                if (premiere != null) {
+                    lot.add(premiere);
+                    enAttente.drainTo(lot, TAILLE_LOT_MAX - 1);
+                    validerLot(lot);
+                    lot.clear();
+                }
+                if (tailleSegment >= TAILLE_MAX_SEGMENT
+                        || (tailleSegment > 0 && System.currentTimeMillis() - ouvertureSegment >= AGE_MAX_SEGMENT_MS)) {
+                    pivoter();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Erreur de journalisation : " + e.getMessage());
+            }
+        }
+    }
+
+    // Écrit le lot, force l'écriture sur disque puis réveille les appelants
+    private void validerLot(List<Ecriture> lot) {
+        try {
+            for (Ecriture ecriture : lot) {
+                if (ecriture.octets.length > tampon.remaining()) {
+                    viderTampon();
+                }
+                tampon.put(ecriture.octets); // Un enregistrement tient toujours dans le tampon (voir TAILLE_MAX_ENREGISTREMENT)
+                tailleSegment += ecriture.octets.length;
+            }
+            viderTampon();
+            segment.force(false);
+            synchronisations.increment();
+            for (Ecriture ecriture : lot) {
+                ecriture.fin.complete(null);
+            }
+        } catch (IOException e) {
+            for (Ecriture ecriture : lot) {
+                ecriture.fin.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void viderTampon() throws IOException {
+        tampon.flip();
+        while (tampon.hasRemaining()) {
+            segment.write(tampon);
+        }
+        tampon.clear();
+    }
+
+    // Ferme le segment courant, en ouvre un nouveau et lance la compaction des segments fermés
+    private void pivoter() throws IOException {
+        segment.close();
+        ouvrirSegment(numeroSegment + 1);
+        compacteur.submit(this::compacterSansErreur);
+    }
+
+    private void ouvrirSegment(int numero) throws IOException {
+        segment = FileChannel.open(fichierSegment(numero), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        tailleSegment = segment.size();
+        ouvertureSegment = System.currentTimeMillis();
+        numeroSegment = numero;
+    }
+
+    private void compacterSansErreur() {
+        try {
+            compacter();
+        } catch (IOException e) {
+            System.err.println("Erreur de compaction du journal : " + e.getMessage());
+        }
+    }
+
+    // Fusionne l'instantané courant et les segments fermés dans un nouvel instantané, puis supprime les anciens fichiers.
+    // Seules les commandes non livrées y sont gardées (enregistrements recopiés sans être décodés) : les commandes
+    // livrées depuis la compaction précédente sont décodées une fois, pour l'archive de leur session, puis oubliées.
+    private void compacter() throws IOException {
+        int ancien = dernierInstantane;
+        int jusqua = numeroSegment - 1; // Le segment courant est encore ouvert en écriture
+        if (jusqua <= ancien) {
+            return;
+        }
+
+        Map<String, Produit> produits = new LinkedHashMap<>();
+        Map<Integer, byte[]> nonLivrees = new LinkedHashMap<>(); // Enregistrement COMMANDE de chaque commande non livrée
+        Map<Integer, byte[]> etapes = new HashMap<>(); // Dernier enregistrement STATUT de ces commandes
+        Map<String, HistoriqueCommandes> livrees = new HashMap<>(); // Commandes livrées, par session
+        Map<String, byte[]> ouvertes = new LinkedHashMap<>(); // Enregistrement RESERVATION des transactions ouvertes
+        int idMax = 0;
+
+        // Commandes non livrées et table de stock de l'instantané précédent
+        if (ancien > 0) {
+            try (FileChannel precedent = FileChannel.open(fichierInstantane(ancien), StandardOpenOption.READ)) {
+                long positionTable = lirePied(precedent);
+                lireTable(precedent, positionTable, produits);
+                precedent.position(DEBUT_ENREGISTREMENTS - 4);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(precedent), 1 << 16));
+                idMax = in.readInt();
+                long position = DEBUT_ENREGISTREMENTS;
+                while (position < positionTable) {
+                    byte[] corps = lireEnregistrement(in);
+                    if (corps == null) {
+                        throw new IOException("Instantané corrompu : " + fichierInstantane(ancien));
+                    }
+                    if (corps[0] == RESERVATION) {
+                        ouvertes.put(transaction(corps), corps);
+                    } else {
+                        (corps[0] == COMMANDE ? nonLivrees : etapes).put(idCommande(corps), corps);
+                    }
+                    position += corps.length + 8;
+                }
+            }
+        }
+
+        // Application des segments fermés : le stock est mis à jour, les commandes et leurs étapes sont suivies
+        for (int numero = ancien + 1; numero <= jusqua; numero++) {
+            Path fichier = fichierSegment(numero);
+            if (!Files.exists(fichier)) {
+                continue;
+            }
+            try (DataInputStream in = ouvrirLecture(fichier)) {
+                byte[] corps;
+                while ((corps = lireEnregistrement(in)) != null) {
+                    appliquer(corps, produits, null, true, null, ouvertes);
+                    if (corps[0] == COMMANDE) {
+                        int id = idCommande(corps);
+                        nonLivrees.put(id, corps);
+                        idMax = Math.max(idMax, id);
+                    } else if (corps[0] == STATUT) {
+                        int id = idCommande(corps);
+                        if (!"Livrée".equals(statut(corps))) {
+                            etapes.put(id, corps);
+                            continue;
+                        }
+                        etapes.remove(id);
+                        byte[] commande = nonLivrees.remove(id);
+                        if (commande != null) {
+                            appliquer(commande, produits, livrees, false, null, null).setStatut("Livrée");
+                        }
+                    }
+                }
+            }
+        }
+
+        // Les commandes livrées sont archivées avant d'être retirées du journal : une compaction interrompue
+        // les archive simplement une seconde fois (l'archive ignore les ID déjà présents)
+        if (sessions != null) {
+            for (Map.Entry<String, HistoriqueCommandes> session : livrees.entrySet()) {
+                sessions.archiverLivrees(session.getKey(), session.getValue());
+            }
+        }
+
+        Path temporaire = repertoire.resolve("instantane.tmp");
+        try (FileChannel sortie = FileChannel.open(temporaire, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(sortie), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(jusqua);
+            out.writeInt(idMax);
+            for (Map.Entry<Integer, byte[]> commande : nonLivrees.entrySet()) {
+                ecrireEncadre(out, commande.getValue());
+                byte[] etape = etapes.get(commande.getKey());
+                if (etape != null) {
+                    ecrireEncadre(out, etape);
+                }
+            }
+            for (byte[] reservation : ouvertes.values()) {
+                ecrireEncadre(out, reservation);
+            }
+            out.flush();
+
+            long positionTable = sortie.position();
+            out.writeInt(produits.size());
+            for (Produit produit : produits.values()) {
+                out.writeUTF(produit.getId());
+                out.writeUTF(produit.getNom());
+                out.writeInt(produit.getQuantite());
+                out.writeDouble(produit.getPrix());
+            }
+            out.writeLong(positionTable);
+            out.writeInt(MAGIC);
+            out.flush();
+            sortie.force(true);
+        }
+
+        Files.move(temporaire, fichierInstantane(jusqua), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        dernierInstantane = jusqua;
+        if (ancien > 0) {
+            Files.deleteIfExists(fichierInstantane(ancien));
+        }
+        for (int numero = ancien + 1; numero <= jusqua; numero++) {
+            Files.deleteIfExists(fichierSegment(numero));
+        }
+    }
+
+    // Charge un instantané : table du stock, puis commandes non livrées (rangées aussi dans "aLivrer") et leurs étapes,
+    // et réservations ouvertes (rangées dans "ouvertes" ; la table en tient déjà compte)
+    private void chargerInstantane(Path fichier, Map<String, Produit> stock, Map<String, HistoriqueCommandes> commandes,
+                                   Map<Integer, Commande> aLivrer, Map<String, byte[]> ouvertes) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichier, StandardOpenOption.READ)) {
+            long positionTable = lirePied(canal);
+            lireTable(canal, positionTable, stock);
+
+            canal.position(DEBUT_ENREGISTREMENTS - 4);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(canal), 1 << 16));
+            Commande.reserverIdentifiants(in.readInt()); // Les commandes livrées et archivées gardent leur ID
+            long position = DEBUT_ENREGISTREMENTS;
+            while (position < positionTable) {
+                byte[] corps = lireEnregistrement(in);
+                if (corps == null) {
+                    throw new IOException("Instantané corrompu : " + fichier);
+                }
+                appliquer(corps, stock, commandes, false, aLivrer, ouvertes);
+                position += corps.length + 8;
+                enregistrementsRestaures++;
+            }
+        }
+    }
+
+    // Lit le pied d'un instantané et renvoie la position de la table du stock
+    private static long lirePied(FileChannel canal) throws IOException {
+        ByteBuffer pied = ByteBuffer.allocate(12);
+        canal.read(pied, canal.size() - 12);
+        pied.flip();
+        long positionTable = pied.getLong();
+        if (pied.getInt() != MAGIC) {
+            throw new IOException("Instantané corrompu");
+        }
+        return positionTable;
+    }
+
+    private static void lireTable(FileChannel canal, long positionTable, Map<String, Produit> stock) throws IOException {
+        canal.position(positionTable);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(canal), 1 << 16));
+        int nombre = in.readInt();
+        for (int i = 0; i < nombre; i++) {
+            String id = in.readUTF();
+            stock.put(id, new Produit(id, in.readUTF(), in.readInt(), in.readDouble()));
+        }
+    }
+
+    // Applique un enregistrement au stock. Pour une commande, la reconstruit dans "commandes" (si non null) et la renvoie ;
+    // "decrementer" indique si les quantités commandées doivent être retirées du stock. Les commandes non livrées sont
+    // suivies dans "aLivrer" (si non null), où les enregistrements STATUT leur sont appliqués (la commande est renvoyée).
+    // Les réservations ouvertes sont suivies dans "ouvertes" (si non null) ; "decrementer" vaut aussi pour leurs quantités.
+    private static Commande appliquer(byte[] corps, Map<String, Produit> stock, Map<String, HistoriqueCommandes> commandes,
+                                      boolean decrementer, Map<Integer, Commande> aLivrer, Map<String, byte[]> ouvertes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(corps, 1, corps.length - 1));
+        switch (corps[0]) {
+            case AJOUT: {
+                String id = in.readUTF();
+                stock.put(id, new Produit(id, in.readUTF(), in.readInt(), in.readDouble()));
+                return null;
+            }
+            case MODIFICATION: {
+                Produit produit = stock.get(in.readUTF());
+                int quantite = in.readInt();
+                double prix = in.readDouble();
+                if (produit != null) {
+                    produit.updateProduit(quantite, prix);
+                }
+                return null;
+            }
+            case SUPPRESSION:
+                stock.remove(in.readUTF());
+                return null;
+            case COMMANDE: {
+                String sessionId = in.readUTF();
+                int id = in.readInt();
+                double total = in.readDouble();
+                int nombre = in.readInt();
+                Map<String, Integer> lignes = new LinkedHashMap<>(); // Dans l'ordre de l'enregistrement, comme les prix
+                for (int i = 0; i < nombre; i++) {
+                    String produitId = in.readUTF();
+                    int quantite = in.readInt();
+                    Produit produit = stock.get(produitId);
+                    lignes.put(produit != null ? produit.getId() : produitId, quantite); // Instance de l'ID partagée avec le stock
+                    if (decrementer && produit != null) {
+                        produit.setQuantite(produit.getQuantite() - quantite);
+                    }
+                }
+                if (commandes == null) {
+                    return null;
+                }
+                Commande commande;
+                if (in.available() > 0) {
+                    long[] prix = new long[nombre];
+                    for (int i = 0; i < nombre; i++) {
+                        prix[i] = in.readLong();
+                    }
+                    commande = new Commande(id, lignes, prix);
+                } else {
+                    commande = new Commande(id, lignes, total); // Enregistrement antérieur aux prix par ligne
+                }
+                commandes.computeIfAbsent(sessionId, k -> new HistoriqueCommandes()).add(commande);
+                if (aLivrer != null) {
+                    aLivrer.put(id, commande);
+                }
+                return commande;
+            }
+            case STATUT: {
+                int id = in.readInt();
+                String statut = in.readUTF();
+                Commande commande = aLivrer != null ? aLivrer.get(id) : null;
+                if (commande != null) {
+                    commande.setStatut(statut);
+                    if ("Livrée".equals(statut)) {
+                        aLivrer.remove(id);
+                    }
+                }
+                return commande;
+            }
+            case RESERVATION:
+            case LIBERATION: {
+                String transaction = in.readUTF();
+                int nombre = in.readInt();
+                int signe = corps[0] == RESERVATION ? -1 : 1;
+                for (int i = 0; i < nombre; i++) {
+                    Produit produit = stock.get(in.readUTF());
+                    int quantite = in.readInt();
+                    if (decrementer && produit != null) {
+                        produit.setQuantite(produit.getQuantite() + signe * quantite);
+                    }
+                }
+                if (ouvertes != null) {
+                    if (corps[0] == RESERVATION) {
+                        ouvertes.put(transaction, corps);
+                    } else {
+                        ouvertes.remove(transaction);
+                    }
+                }
+                return null;
+            }
+            default:
+                throw new IOException("Type d'enregistrement inconnu : " + corps[0]);
+        }
+    }
+
+    // ID de la commande d'un enregistrement COMMANDE (après l'ID de session) ou STATUT (en tête)
+    private static int idCommande(byte[] corps) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(corps, 1, corps.length - 1));
+        if (corps[0] == COMMANDE) {
+            in.readUTF();
+        }
+        return in.readInt();
+    }
+
+    // Transaction d'un enregistrement RESERVATION ou LIBERATION
+    private static String transaction(byte[] corps) throws IOException {
+        return new DataInputStream(new ByteArrayInputStream(corps, 1, corps.length - 1)).readUTF();
+    }
+
+    // Statut d'un enregistrement STATUT
+    private static String statut(byte[] corps) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(corps, 5, corps.length - 5));
+        return in.readUTF();
+    }
+
+    // Date (en ms) d'un enregistrement STATUT
+    private static long horodatage(byte[] corps) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(corps, 5, corps.length - 5));
+        in.readUTF();
+        return in.readLong();
+    }
+
+    // Construit un enregistrement complet (longueur, type, contenu, CRC)
+    private static byte[] encadrer(byte type, byte[] contenu) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(contenu);
+        ByteBuffer octets = ByteBuffer.allocate(contenu.length + 9);
+        octets.putInt(contenu.length + 1).put(type).put(contenu).putInt((int) crc.getValue());
+        return octets.array();
+    }
+
+    private static void ecrireEncadre(DataOutputStream out, byte[] corps) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(corps);
+        out.writeInt(corps.length);
+        out.write(corps);
+        out.writeInt((int) crc.getValue());
+    }
+
+    // Lit un enregistrement (type suivi du contenu) ; renvoie null en fin de fichier ou si la fin est tronquée ou corrompue
+    private static byte[] lireEnregistrement(DataInputStream in) throws IOException {
+        try {
+            int longueur = in.readInt();
+            if (longueur <= 0 || longueur > TAILLE_MAX_ENREGISTREMENT) {
+                return null;
+            }
+            byte[] corps = new byte[longueur];
+            in.readFully(corps);
+            int attendu = in.readInt();
+            CRC32 crc = new CRC32();
+            crc.update(corps);
+            return (int) crc.getValue() == attendu ? corps : null;
+        } catch (EOFException e) {
+            return null; // Écriture interrompue par un arrêt brutal : la fin du segment est ignorée
+        }
+    }
+
+    private static DataInputStream ouvrirLecture(Path fichier) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(fichier), 1 << 16));
+    }
+
+    private Path fichierSegment(int numero) {
+        return repertoire.resolve(String.format("journal-%06d.bin", numero));
+    }
+
+    private Path fichierInstantane(int numero) {
+        return repertoire.resolve(String.format("instantane-%06d.bin", numero));
+    }
+
+    // Liste triée des numéros des fichiers du répertoire correspondant au motif
+    private List<Integer> numeros(Pattern motif) throws IOException {
+        List<Integer> resultat = new ArrayList<>();
+        try (DirectoryStream<Path> fichiers = Files.newDirectoryStream(repertoire)) {
+            for (Path fichier : fichiers) {
+                Matcher m = motif.matcher(fichier.getFileName().toString());
+                if (m.matches()) {
+                    resultat.add(Integer.parseInt(m.group(1)));
+                }
+            }
+        }
+        Collections.sort(resultat);
+        return resultat;
+    }
+
+    private int numeroMax(Pattern motif) throws IOException {
+        List<Integer> liste = numeros(motif);
+        return liste.isEmpty() ? 0 : liste.get(liste.size() - 1);
+    }
+}
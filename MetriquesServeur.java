@@ -0,0 +1,289 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Métriques du serveur : compteurs et latences par commande, jauges (sessions connectées ou détachées, chariots, commandes par statut, livraisons)
+// et ruptures de stock par produit. L'enregistrement sur le chemin critique n'utilise que des compteurs sans verrou
+// indexés par commande, sans allocation. Le rapport, au format texte "nom{étiquette} valeur", est renvoyé par la commande
+// administrateur "stats" et par le port d'exposition (option --metriques=PORT, sur l'interface locale uniquement).
+public class MetriquesServeur {
+    // Commandes suivies ; les opérations binaires 1 à 8 correspondent aux 8 premières (voir ProtocoleBinaire)
+    public static final int CATALOGUE = 0;
+    public static final int AJOUTER_AU_CHARIOT = 1;
+    public static final int COMMANDER = 2;
+    public static final int AFFICHER_CHARIOT = 3;
+    public static final int VOIR_COMMANDES = 4;
+    public static final int AJOUTER_PRODUIT = 5;
+    public static final int MODIFIER_PRODUIT = 6;
+    public static final int SUPPRIMER_PRODUIT = 7;
+    public static final int STATS = 8;
+    public static final int ABONNER = 9;
+    public static final int DESABONNER = 10;
+    public static final int IMPORTER = 11;
+    public static final int LOT = 12;
+    public static final int RECHERCHER = 13;
+    public static final int VENTES = 14;
+    public static final int TRANSACTION = 15;
+    public static final int AUTRE = 16;
+    private static final String[] NOMS_COMMANDES = {"catalogue", "ajouter_au_chariot", "commander", "afficher_chariot",
+            "voir_commandes", "ajouter_produit", "modifier_produit", "supprimer_produit", "stats", "abonner", "desabonner",
+            "importer", "lot", "rechercher", "ventes", "transaction", "autre"};
+    private static final String[] STATUTS = {"En préparation", "Expédiée", "Livrée"};
+
+    private final LongAdder[] appels = new LongAdder[NOMS_COMMANDES.length];
+    private final LongAdder[] erreurs = new LongAdder[NOMS_COMMANDES.length];
+    private final HistogrammeLatence[] latences = new HistogrammeLatence[NOMS_COMMANDES.length];
+    private final LongAdder[] commandesParStatut = new LongAdder[STATUTS.length];
+    private final Map<String, LongAdder> ruptures = new ConcurrentHashMap<>(); // Commandes refusées faute de stock, par produit
+    private final LongAdder[][] rejetees = new LongAdder[ControleAdmission.NOMS_MOTIFS.length][NOMS_COMMANDES.length]; // Par motif et commande
+    private final AtomicInteger sessions = new AtomicInteger();
+
+    private final Map<String, Chariot> chariots;
+    private final GestionnaireSessions sessionsClients;
+    private final PlanificateurLivraisons livraisons;
+    private final JournalStock journal;
+    private volatile TransactionsPartition transactions; // Réservations en deux phases (mode cluster), ou null
+    private volatile ControleAdmission admission; // Contrôle d'admission, ou null s'il est désactivé
+
+    // Constructeur des métriques ; les commandes déjà présentes (restaurées du journal) sont comptées par statut
+    public MetriquesServeur(GestionnaireSessions sessionsClients, PlanificateurLivraisons livraisons, JournalStock journal) {
+        this.chariots = sessionsClients.getChariots();
+        this.sessionsClients = sessionsClients;
+        this.livraisons = livraisons;
+        this.journal = journal;
+        for (int i = 0; i < NOMS_COMMANDES.length; i++) {
+            appels[i] = new LongAdder();
+            erreurs[i] = new LongAdder();
+            latences[i] = new HistogrammeLatence();
+        }
+        for (int i = 0; i < STATUTS.length; i++) {
+            commandesParStatut[i] = new LongAdder();
+        }
+        for (LongAdder[] parCommande : rejetees) {
+            for (int i = 0; i < parCommande.length; i++) {
+                parCommande[i] = new LongAdder();
+            }
+        }
+        for (HistoriqueCommandes liste : sessionsClients.getCommandes().values()) {
+            for (Commande commande : liste) {
+                int statut = indiceStatut(commande.getStatut());
+                if (statut >= 0) {
+                    commandesParStatut[statut].increment();
+                }
+            }
+        }
+    }
+
+    // Méthode pour obtenir l'indice d'une commande du protocole texte
+    public static int indiceCommande(String commande) {
+        switch (commande) {
+            case "catalogue": return CATALOGUE;
+            case "ajouter_au_chariot": return AJOUTER_AU_CHARIOT;
+            case "commander": return COMMANDER;
+            case "afficher_chariot": return AFFICHER_CHARIOT;
+            case "voir_commandes": return VOIR_COMMANDES;
+            case "ajouter_produit": return AJOUTER_PRODUIT;
+            case "modifier_produit": return MODIFIER_PRODUIT;
+            case "supprimer_produit": return SUPPRIMER_PRODUIT;
+            case "stats": return STATS;
+            case "abonner": return ABONNER;
+            case "desabonner": return DESABONNER;
+            case "importer": return IMPORTER;
+            case "fin_lot": return LOT; // Un lot est compté une fois, à son exécution
+            case "rechercher": return RECHERCHER;
+            case "ventes":
+            case "top_ventes":
+            case "ventes_produit": return VENTES; // Les consultations des ventes sont comptées ensemble
+            case "preparer":
+            case "confirmer":
+            case "annuler": return TRANSACTION; // Validation en deux phases du mode cluster
+            default: return AUTRE;
+        }
+    }
+
+    // Méthode pour obtenir l'indice d'une opération du protocole binaire
+    public static int indiceOperation(byte operation) {
+        return operation >= ProtocoleBinaire.CATALOGUE && operation <= ProtocoleBinaire.SUPPRIMER_PRODUIT ? operation - 1 : AUTRE;
+    }
+
+    // Méthode pour enregistrer l'exécution d'une commande
+    public void enregistrer(int commande, long dureeNanos, boolean erreur) {
+        appels[commande].increment();
+        latences[commande].enregistrer(dureeNanos);
+        if (erreur) {
+            erreurs[commande].increment();
+        }
+    }
+
+    // Méthode pour suivre les réservations en deux phases d'un serveur de partition
+    public void suivreTransactions(TransactionsPartition transactions) {
+        this.transactions = transactions;
+    }
+
+    // Méthode pour suivre le contrôle d'admission
+    public void suivreAdmission(ControleAdmission admission) {
+        this.admission = admission;
+    }
+
+    // Méthode pour compter une requête refusée par le contrôle d'admission (voir ControleAdmission.MOTIF_*)
+    public void requeteRejetee(int commande, int motif) {
+        rejetees[motif][commande].increment();
+    }
+
+    public void sessionOuverte() {
+        sessions.incrementAndGet();
+    }
+
+    public void sessionFermee() {
+        sessions.decrementAndGet();
+    }
+
+    // Méthode pour compter une commande refusée faute de stock
+    public void ruptureDeStock(String idProduit) {
+        LongAdder compteur = ruptures.get(idProduit);
+        if (compteur == null) {
+            compteur = ruptures.computeIfAbsent(idProduit, id -> new LongAdder());
+        }
+        compteur.increment();
+    }
+
+    // Méthode pour compter une nouvelle commande
+    public void commandeCreee(Commande commande) {
+        commandesParStatut[indiceStatut(commande.getStatut())].increment();
+    }
+
+    // Méthode pour changer le statut d'une commande en tenant à jour le nombre de commandes par statut ;
+    // renvoie faux si la commande avait déjà ce statut
+    public boolean changerStatut(Commande commande, String statut) {
+        String ancien = commande.getStatut();
+        if (ancien.equals(statut)) {
+            return false;
+        }
+        commande.setStatut(statut);
+        int avant = indiceStatut(ancien);
+        int apres = indiceStatut(statut);
+        if (avant >= 0) {
+            commandesParStatut[avant].decrement();
+        }
+        if (apres >= 0) {
+            commandesParStatut[apres].increment();
+        }
+        return true;
+    }
+
+    private static int indiceStatut(String statut) {
+        for (int i = 0; i < STATUTS.length; i++) {
+            if (STATUTS[i].equals(statut)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Méthode pour produire le rapport complet (une métrique par ligne)
+    public String rapport() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < NOMS_COMMANDES.length; i++) {
+            long nombre = appels[i].sum();
+            if (nombre == 0) {
+                continue;
+            }
+            String etiquette = "{commande=\"" + NOMS_COMMANDES[i] + "\"";
+            HistogrammeLatence h = latences[i];
+            sb.append("commandes_total").append(etiquette).append("} ").append(nombre).append('\n');
+            sb.append("commandes_erreurs_total").append(etiquette).append("} ").append(erreurs[i].sum()).append('\n');
+            sb.append("commandes_latence_moyenne_us").append(etiquette).append("} ").append(Math.round(h.getMoyenne() / 1000)).append('\n');
+            for (double centile : new double[] {50, 90, 99, 99.9}) {
+                sb.append("commandes_latence_us").append(etiquette).append(",centile=\"").append(centile).append("\"} ")
+                  .append(h.centile(centile) / 1000).append('\n');
+            }
+            sb.append("commandes_latence_max_us").append(etiquette).append("} ").append(h.getMax() / 1000).append('\n');
+        }
+
+        for (int motif = 0; motif < rejetees.length; motif++) {
+            for (int i = 0; i < NOMS_COMMANDES.length; i++) {
+                long nombre = rejetees[motif][i].sum();
+                if (nombre > 0) {
+                    sb.append("requetes_rejetees_total{commande=\"").append(NOMS_COMMANDES[i]).append("\",motif=\"")
+                      .append(ControleAdmission.NOMS_MOTIFS[motif]).append("\"} ").append(nombre).append('\n');
+                }
+            }
+        }
+        ControleAdmission admission = this.admission;
+        if (admission != null) {
+            sb.append("admission_limite_concurrence ").append(admission.getLimite()).append('\n');
+            sb.append("admission_en_cours ").append(admission.getEnCours()).append('\n');
+            for (int classe = 0; classe < ControleAdmission.NOMS_CLASSES.length; classe++) {
+                sb.append("admission_latence_reference_us{classe=\"").append(ControleAdmission.NOMS_CLASSES[classe]).append("\"} ")
+                  .append(admission.getLatenceReference(classe) / 1000).append('\n');
+            }
+            sb.append("connexions_ouvertes ").append(admission.getConnexions()).append('\n');
+        }
+
+        sb.append("sessions_connectees ").append(sessions.get()).append('\n');
+        int nonVides = 0;
+        for (Chariot chariot : chariots.values()) {
+            if (!chariot.getProduits().isEmpty()) { // Lecture approximative d'un chariot qui peut changer pendant le rapport
+                nonVides++;
+            }
+        }
+        sb.append("chariots ").append(chariots.size()).append('\n');
+        sb.append("chariots_non_vides ").append(nonVides).append('\n');
+        sb.append("sessions_detachees ").append(sessionsClients.getNombreDetachees()).append('\n');
+        sb.append("sessions_evincees_total ").append(sessionsClients.getNombreEvincees()).append('\n');
+        sb.append("sessions_archivees_total ").append(sessionsClients.getNombreArchivees()).append('\n');
+        for (int i = 0; i < STATUTS.length; i++) {
+            sb.append("commandes_par_statut{statut=\"").append(STATUTS[i]).append("\"} ").append(commandesParStatut[i].sum()).append('\n');
+        }
+        sb.append("livraisons_en_cours ").append(livraisons.getEnCours()).append('\n');
+        TransactionsPartition transactions = this.transactions;
+        if (transactions != null) {
+            sb.append("transactions_en_attente ").append(transactions.getEnAttente()).append('\n');
+            sb.append("transactions_abandonnees_total ").append(transactions.getAbandonnees()).append('\n');
+        }
+        new TreeMap<>(ruptures).forEach((id, nombre) ->
+                sb.append("ruptures_stock_total{produit=\"").append(id).append("\"} ").append(nombre.sum()).append('\n'));
+        if (journal != null) {
+            sb.append("# ").append(journal.statistiques()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // Méthode pour ouvrir le port d'exposition : chaque connexion reçoit le rapport puis est fermée.
+    // Une requête HTTP GET reçoit une réponse HTTP, pour pouvoir interroger le port avec curl ou un collecteur.
+    public void demarrerExposition(int port) throws IOException {
+        ServerSocket serveur = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread exposition = new Thread(() -> {
+            while (true) {
+                try (Socket socket = serveur.accept()) {
+                    socket.setSoTimeout(1000);
+                    boolean http = false;
+                    try {
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                        String ligne = reader.readLine();
+                        http = ligne != null && ligne.startsWith("GET ");
+                    } catch (SocketTimeoutException e) {
+                        // Aucune requête : on envoie directement le rapport
+                    }
+                    OutputStream sortie = socket.getOutputStream();
+                    byte[] contenu = rapport().getBytes(StandardCharsets.UTF_8);
+                    if (http) {
+                        sortie.write(("HTTP/1.0 200 OK\r\nContent-Type: text/plain; charset=utf-8\r\nContent-Length: "
+                                + contenu.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    }
+                    sortie.write(contenu);
+                    sortie.flush();
+                } catch (IOException e) {
+                    System.err.println("Erreur sur le port des métriques : " + e.getMessage());
+                }
+            }
+        }, "exposition-metriques");
+        exposition.setDaemon(true);
+        exposition.start();
+        System.out.println("Métriques exposées sur 127.0.0.1:" + port + ".");
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+// Moteur de réservation du stock pour le passage de commande : tout le chariot est réservé, ou rien.
+// Chaque produit est décrémenté par compare-and-set (voir Produit.retirer), sans verrou exclusif :
+// des clients commandant des produits différents, ou le même produit, ne se bloquent jamais entre eux
+// (seules les opérations d'administration, rares, les font attendre ; voir ServiceStock).
+public class MoteurReservation {
+    private final Map<String, Produit> stock; // Le stock de produits sur lequel portent les réservations
+    private final ServiceStock service; // Pour signaler les quantités modifiées (cache du catalogue, ...)
+    private final JournalStock journal; // Le journal de persistance (null si désactivé)
+    private final MetriquesServeur metriques; // Pour compter les ruptures de stock par produit
+
+    // Constructeur du moteur de réservation
+    public MoteurReservation(ServiceStock service, MetriquesServeur metriques) {
+        this.stock = service.getStock();
+        this.service = service;
+        this.journal = service.getJournal();
+        this.metriques = metriques;
+    }
+
+    // Méthode pour passer la commande d'une session : le chariot est réservé, puis la commande est journalisée.
+    // La réservation et l'ajout de l'enregistrement au journal se font sous le verrou de réservation, si bien qu'aucune
+    // opération d'administration ne s'intercale entre les deux ; le fsync (partagé avec les commandes simultanées)
+    // est attendu hors du verrou. Si la commande n'a pas pu être journalisée, le stock réservé est rendu.
+    public Commande commander(String sessionId, Map<String, Integer> lignes) throws InvalidOrderException, StockUnavailableException, IOException {
+        Commande commande;
+        JournalStock.Ecriture ecriture = null;
+        Lock verrou = service.verrouReservations();
+        verrou.lock();
+        try {
+            long[] prix = new long[lignes.size()];
+            reserver(lignes, prix);
+            commande = new Commande(lignes, prix);
+            if (journal != null) {
+                ecriture = journal.confierCommande(sessionId, commande);
+            }
+        } catch (IOException e) {
+            liberer(lignes); // Enregistrement refusé par le journal : le stock réservé est rendu
+            throw e;
+        } finally {
+            verrou.unlock();
+        }
+        if (ecriture != null) {
+            try {
+                journal.attendreEcriture(ecriture);
+            } catch (IOException e) {
+                liberer(lignes); // La commande n'est pas durable : le stock réservé est rendu
+                throw e;
+            }
+        }
+        return commande;
+    }
+
+    // Méthode pour réserver les lignes d'une transaction répartie (voir TransactionsPartition) ; renvoie le total,
+    // et remplit "prix" comme reserver. Comme pour commander, la réservation est placée dans le journal sous le verrou de réservation ; le disque n'est
+    // pas attendu : une réservation perdue lors d'un arrêt brutal aurait de toute façon été rendue au redémarrage.
+    public double reserverTransaction(String transaction, Map<String, Integer> lignes, long[] prix)
+            throws InvalidOrderException, StockUnavailableException, IOException {
+        Lock verrou = service.verrouReservations();
+        verrou.lock();
+        try {
+            double total = reserver(lignes, prix);
+            if (journal != null) {
+                try {
+                    journal.journaliserReservation(transaction, lignes);
+                } catch (IOException e) {
+                    liberer(lignes); // Enregistrement refusé par le journal : le stock réservé est rendu
+                    throw e;
+                }
+            }
+            return total;
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    // Méthode pour rendre les lignes d'une transaction annulée ou abandonnée, et le journaliser (sans attendre le disque)
+    public void libererTransaction(String transaction, Map<String, Integer> lignes) {
+        Lock verrou = service.verrouReservations();
+        verrou.lock();
+        try {
+            liberer(lignes);
+            if (journal != null) {
+                journal.journaliserLiberation(transaction, lignes);
+            }
+        } finally {
+            verrou.unlock();
+        }
+    }
+
+    // Méthode pour transformer la réservation d'une transaction en commande : le stock est déjà retiré, seule la
+    // journalisation reste à faire. Si elle échoue, la réservation est rendue.
+    public Commande confirmerTransaction(String transaction, Map<String, Integer> lignes, long[] prix, String sessionId) throws IOException {
+        Commande commande = new Commande(lignes, prix);
+        if (journal != null) {
+            try {
+                journal.journaliserConfirmation(transaction, lignes, sessionId, commande); // Attend le fsync
+            } catch (IOException e) {
+                libererTransaction(transaction, lignes);
+                throw e;
+            }
+        }
+        return commande;
+    }
+
+    // Méthode pour réserver toutes les lignes d'un chariot ; renvoie le total de la commande.
+    public double reserver(Map<String, Integer> lignes) throws InvalidOrderException, StockUnavailableException {
+        return reserver(lignes, new long[lignes.size()]);
+    }
+
+    // Même réservation ; "prix" reçoit le prix unitaire (en centimes) de chaque ligne, dans l'ordre où "lignes" est parcourue.
+    // Si une ligne ne peut pas être servie, les lignes déjà retirées sont remises en stock avant de lever l'exception.
+    public double reserver(Map<String, Integer> lignes, long[] prix) throws InvalidOrderException, StockUnavailableException {
+        Produit[] reserves = new Produit[lignes.size()]; // Produits déjà retirés, pour pouvoir annuler
+        int[] quantites = new int[lignes.size()];
+        int nombreReserves = 0;
+        long totalCentimes = 0;
+
+        for (Map.Entry<String, Integer> entry : lignes.entrySet()) {
+            int quantite = entry.getValue();
+            if (quantite <= 0) {
+                annuler(reserves, quantites, nombreReserves);
+                throw new InvalidOrderException("Erreur : Quantité invalide pour " + entry.getKey());
+            }
+            Produit produit = stock.get(entry.getKey());
+            if (produit == null || !produit.retirer(quantite)) {
+                annuler(reserves, quantites, nombreReserves);
+                metriques.ruptureDeStock(entry.getKey());
+                throw new StockUnavailableException("Erreur : Stock insuffisant pour " + entry.getKey());
+            }
+            prix[nombreReserves] = Math.round(produit.getPrix() * 100); // Prix du moment de la réservation
+            totalCentimes += prix[nombreReserves] * quantite;
+            reserves[nombreReserves] = produit;
+            quantites[nombreReserves] = quantite;
+            nombreReserves++;
+        }
+        for (int i = 0; i < nombreReserves; i++) {
+            service.notifierModification(reserves[i]);
+        }
+        return totalCentimes / 100.0;
+    }
+
+    // Méthode pour remettre en stock les lignes d'une commande réservée qui n'a finalement pas pu être enregistrée
+    public void liberer(Map<String, Integer> lignes) {
+        for (Map.Entry<String, Integer> entry : lignes.entrySet()) {
+            Produit produit = stock.get(entry.getKey());
+            if (produit != null) {
+                produit.restituer(entry.getValue());
+                service.notifierModification(produit);
+            }
+        }
+    }
+
+    // Méthode pour annuler une réservation partielle
+    private void annuler(Produit[] reserves, int[] quantites, int nombre) {
+        for (int i = 0; i < nombre; i++) {
+            reserves[i].restituer(quantites[i]);
+            service.notifierModification(reserves[i]); // Un rendu a pu être fait pendant la réservation partielle
+        }
+    }
+}
@@ -0,0 +1,55 @@
+// Opération d'administration du stock appliquée au sein d'un lot (commande "lot", import d'un catalogue)
+public class OperationStock {
+    public static final int AJOUT = 0;
+    public static final int MODIFICATION = 1;
+    public static final int SUPPRESSION = 2;
+
+    private final int type;
+    private final String id;
+    private final String nom; // Uniquement pour un ajout
+    private final int quantite;
+    private final double prix;
+
+    private OperationStock(int type, String id, String nom, int quantite, double prix) {
+        this.type = type;
+        this.id = id;
+        this.nom = nom;
+        this.quantite = quantite;
+        this.prix = prix;
+    }
+
+    // Ajout (ou remplacement) d'un produit
+    public static OperationStock ajout(String id, String nom, int quantite, double prix) {
+        return new OperationStock(AJOUT, id, nom, quantite, prix);
+    }
+
+    // Modification de la quantité et du prix d'un produit existant
+    public static OperationStock modification(String id, int quantite, double prix) {
+        return new OperationStock(MODIFICATION, id, null, quantite, prix);
+    }
+
+    // Suppression d'un produit
+    public static OperationStock suppression(String id) {
+        return new OperationStock(SUPPRESSION, id, null, 0, 0);
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getNom() {
+        return nom;
+    }
+
+    public int getQuantite() {
+        return quantite;
+    }
+
+    public double getPrix() {
+        return prix;
+    }
+}
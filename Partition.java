@@ -0,0 +1,48 @@
+// Partition du stock tenue par un serveur en mode cluster (option --partition=I/N) : les produits sont répartis entre
+// N serveurs selon le hachage de leur ID, et le serveur numéro I ne garde que les siens. Le routeur (RouteurCluster)
+// applique la même fonction pour envoyer chaque commande au serveur qui possède le produit.
+public class Partition {
+    private final int indice; // Numéro de cette partition, de 0 à nombre - 1
+    private final int nombre; // Nombre total de partitions
+
+    public Partition(int indice, int nombre) {
+        if (nombre < 1 || indice < 0 || indice >= nombre) {
+            throw new IllegalArgumentException("Partition invalide : " + indice + "/" + nombre);
+        }
+        this.indice = indice;
+        this.nombre = nombre;
+    }
+
+    // Méthode pour lire une partition de la forme "I/N"
+    public static Partition lire(String texte) {
+        String[] parties = texte.split("/");
+        if (parties.length != 2) {
+            throw new IllegalArgumentException("Partition invalide : " + texte + " (forme attendue : I/N)");
+        }
+        return new Partition(Integer.parseInt(parties[0]), Integer.parseInt(parties[1]));
+    }
+
+    // Méthode pour obtenir la partition d'un produit parmi "nombre" partitions.
+    // String.hashCode est défini par la spécification du langage : tous les processus du cluster obtiennent le même résultat.
+    public static int partitionDe(String idProduit, int nombre) {
+        return Math.floorMod(idProduit.hashCode(), nombre);
+    }
+
+    // Méthode pour savoir si un produit appartient à cette partition
+    public boolean possede(String idProduit) {
+        return partitionDe(idProduit, nombre) == indice;
+    }
+
+    public int getIndice() {
+        return indice;
+    }
+
+    public int getNombre() {
+        return nombre;
+    }
+
+    @Override
+    public String toString() {
+        return indice + "/" + nombre;
+    }
+}
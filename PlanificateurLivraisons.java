@@ -0,0 +1,206 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Planificateur des livraisons simulées : chaque commande passe par "En préparation", "Expédiée" puis "Livrée",
+// avec un délai tiré d'une distribution configurable avant chaque étape.
+// Un seul thread fait avancer une roue temporelle (une case par tranche de 10 ms) : planifier une étape coûte O(1),
+// quel que soit le nombre de livraisons en cours, et une commande en attente n'occupe aucun thread, seulement
+// une entrée chaînée dans une case. Toutes les étapes échues dans une même tranche sont traitées ensemble.
+public class PlanificateurLivraisons {
+    private static final long TRANCHE_MS = 10; // Durée d'une case de la roue
+    private static final int CASES = 1024;     // Nombre de cases (puissance de deux) : un tour de roue dure environ 10 s
+    private static final String[] ETAPES = {"Expédiée", "Livrée"}; // Statut atteint à la fin de chaque délai
+
+    private final Distribution distribution;
+    private final boolean afficherLivraisons; // Affiche "Commande ID ... a été livrée." à chaque livraison terminée
+    private final ConcurrentLinkedQueue<Entree> nouvelles = new ConcurrentLinkedQueue<>(); // Déposées par les threads clients
+    private final Entree[] cases = new Entree[CASES]; // Listes chaînées, manipulées uniquement par le thread de la roue
+    private final LongAdder enCours = new LongAdder();
+    private final SplittableRandom aleatoire = new SplittableRandom(); // Utilisé uniquement par le thread de la roue
+    private MetriquesServeur metriques;
+    private DiffuseurStatuts diffuseur;
+    private JournalStock journal; // Reçoit chaque étape atteinte, ou null sans persistance
+    private Thread thread;
+    private long trancheCourante;
+
+    // Délai (en ms) avant une étape de livraison
+    public interface Distribution {
+        long tirer(SplittableRandom aleatoire);
+
+        // Méthode pour lire une distribution : "uniforme:MIN-MAX", "fixe:MS" ou "exponentielle:MOYENNE" (en ms)
+        static Distribution lire(String texte) {
+            String[] parties = texte.split(":", 2);
+            if (parties.length == 2) {
+                switch (parties[0]) {
+                    case "uniforme": {
+                        String[] bornes = parties[1].split("-");
+                        if (bornes.length != 2) {
+                            break;
+                        }
+                        long min = Long.parseLong(bornes[0]);
+                        long max = Long.parseLong(bornes[1]);
+                        if (min >= 0 && max > min) {
+                            return aleatoire -> aleatoire.nextLong(min, max);
+                        }
+                        break;
+                    }
+                    case "fixe": {
+                        long delai = Long.parseLong(parties[1]);
+                        if (delai >= 0) {
+                            return aleatoire -> delai;
+                        }
+                        break;
+                    }
+                    case "exponentielle": {
+                        double moyenne = Double.parseDouble(parties[1]);
+                        if (moyenne >= 0) {
+                            return aleatoire -> (long) (-moyenne * Math.log(1.0 - aleatoire.nextDouble()));
+                        }
+                        break;
+                    }
+                    default:
+                        break;
+                }
+            }
+            throw new IllegalArgumentException("Distribution de délai invalide : " + texte
+                    + " (formes acceptées : uniforme:MIN-MAX, fixe:MS, exponentielle:MOYENNE)");
+        }
+    }
+
+    // Livraison en cours : commande, prochaine étape, tours de roue restants avant l'échéance
+    private static final class Entree {
+        final Commande commande;
+        int etape;
+        long tours;
+        Entree suivante;
+
+        Entree(Commande commande) {
+            this.commande = commande;
+        }
+    }
+
+    // Constructeur du planificateur ; "distribution" donne le délai de chaque étape (2 à 7 s par défaut, comme avant)
+    public PlanificateurLivraisons(Distribution distribution) {
+        this(distribution, true);
+    }
+
+    public PlanificateurLivraisons(Distribution distribution, boolean afficherLivraisons) {
+        this.distribution = distribution;
+        this.afficherLivraisons = afficherLivraisons;
+    }
+
+    // Méthode pour démarrer le thread de la roue ; les statuts sont modifiés par l'intermédiaire des métriques,
+    // journalisés (si "journal" n'est pas null), puis signalés aux sessions abonnées
+    public synchronized void demarrer(MetriquesServeur metriques, DiffuseurStatuts diffuseur, JournalStock journal) {
+        if (thread != null) {
+            return;
+        }
+        this.metriques = metriques;
+        this.diffuseur = diffuseur;
+        this.journal = journal;
+        thread = new Thread(this::tourner, "livraisons");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Méthode pour arrêter le thread de la roue (les livraisons en cours sont abandonnées)
+    public synchronized void arreter() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    // Méthode pour planifier la livraison d'une commande ; ne bloque jamais. Une commande restaurée déjà "Expédiée"
+    // reprend à l'étape suivante
+    public void planifier(Commande commande) {
+        enCours.increment();
+        nouvelles.add(new Entree(commande));
+        // Le thread de la roue prend en compte la nouvelle entrée à la prochaine tranche
+    }
+
+    // Méthode pour obtenir le nombre de livraisons en cours
+    public long getEnCours() {
+        return enCours.sum();
+    }
+
+    // Boucle du thread de la roue : une case par tranche. Si le thread a pris du retard, les cases en retard
+    // sont traitées à la suite, sans attendre.
+    private void tourner() {
+        long debut = System.nanoTime();
+        StringBuilder livrees = new StringBuilder();
+        while (!Thread.currentThread().isInterrupted()) {
+            long echeance = debut + TimeUnit.MILLISECONDS.toNanos((trancheCourante + 1) * TRANCHE_MS);
+            long attente = echeance - System.nanoTime();
+            if (attente > 0) {
+                LockSupport.parkNanos(attente);
+                continue;
+            }
+            trancheCourante++;
+
+            traiterCase((int) (trancheCourante & (CASES - 1)), livrees);
+            Entree entree;
+            while ((entree = nouvelles.poll()) != null) {
+                entree.etape = Arrays.asList(ETAPES).indexOf(entree.commande.getStatut()) + 1;
+                if (entree.etape == 0) {
+                    changerStatut(entree.commande, "En préparation");
+                }
+                inserer(entree);
+            }
+            if (livrees.length() > 0) {
+                System.out.print(livrees); // Une seule écriture pour toutes les livraisons de la tranche
+                livrees.setLength(0);
+            }
+        }
+    }
+
+    // Avance les entrées échues de la case : changement de statut, puis étape suivante ou fin de la livraison.
+    // La liste est détachée avant le parcours : une entrée replacée dans cette même case (délai multiple d'un tour)
+    // n'est ainsi pas revue avant le tour suivant.
+    private void traiterCase(int numero, StringBuilder livrees) {
+        Entree entree = cases[numero];
+        cases[numero] = null;
+        while (entree != null) {
+            Entree suivante = entree.suivante;
+            if (entree.tours > 0) {
+                entree.tours--;
+                entree.suivante = cases[numero];
+                cases[numero] = entree;
+            } else {
+                changerStatut(entree.commande, ETAPES[entree.etape]);
+                entree.etape++;
+                if (entree.etape < ETAPES.length) {
+                    inserer(entree);
+                } else {
+                    enCours.decrement();
+                    if (afficherLivraisons) {
+                        livrees.append("Commande ID ").append(entree.commande.getId()).append(" a été livrée.\n");
+                    }
+                }
+            }
+            entree = suivante;
+        }
+    }
+
+    private void changerStatut(Commande commande, String statut) {
+        if (metriques.changerStatut(commande, statut)) {
+            if (journal != null) {
+                journal.journaliserStatut(commande, statut);
+            }
+            diffuseur.statutChange(commande, statut);
+        }
+    }
+
+    // Place l'entrée dans la case de son échéance (au moins la tranche suivante)
+    private void inserer(Entree entree) {
+        long tranches = Math.max(1, (distribution.tirer(aleatoire) + TRANCHE_MS - 1) / TRANCHE_MS);
+        long cible = trancheCourante + tranches;
+        int numero = (int) (cible & (CASES - 1));
+        entree.tours = (tranches - 1) / CASES;
+        entree.suivante = cases[numero];
+        cases[numero] = entree;
+    }
+}
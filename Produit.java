@@ -1,31 +1,53 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class Produit {
     // Attributs privés de la classe Produit
     private String id;       // L'identifiant du produit (ex: code unique)
     private String nom;      // Le nom du produit
-    private int quantite;    // La quantité disponible du produit
-    private double prix;     // Le prix du produit
+    // La quantité disponible du produit, modifiée par compare-and-set : aucun verrou n'est pris lors d'une commande
+    private final AtomicInteger quantite;
+    private volatile double prix;     // Le prix du produit
 
     // Constructeur de la classe Produit
     public Produit(String id, String nom, int quantite, double prix) {
         this.id = id;        // Initialise l'identifiant du produit
         this.nom = nom;      // Initialise le nom du produit
-        this.quantite = quantite;  // Initialise la quantité du produit
+        this.quantite = new AtomicInteger(quantite);  // Initialise la quantité du produit
         this.prix = prix;    // Initialise le prix du produit
     }
 
     // Méthode pour obtenir la quantité du produit
-    public synchronized int getQuantite() {
-        return quantite;   // Retourne la quantité du produit
+    public int getQuantite() {
+        return quantite.get();   // Retourne la quantité du produit
     }
 
     // Méthode pour modifier la quantité du produit
-    public synchronized void setQuantite(int quantite) {
-        this.quantite = quantite;  // Modifie la quantité du produit
+    public void setQuantite(int quantite) {
+        this.quantite.set(quantite);  // Modifie la quantité du produit
+    }
+
+    // Méthode pour retirer atomiquement une quantité du stock : échoue (sans rien modifier) si le stock est insuffisant
+    public boolean retirer(int quantiteDemandee) {
+        while (true) {
+            int disponible = quantite.get();
+            if (disponible < quantiteDemandee) {
+                return false;
+            }
+            if (quantite.compareAndSet(disponible, disponible - quantiteDemandee)) {
+                return true;
+            }
+            // Un autre thread a modifié la quantité entre-temps : on recommence avec la nouvelle valeur
+        }
+    }
+
+    // Méthode pour remettre en stock une quantité précédemment retirée (annulation d'une réservation)
+    public void restituer(int quantiteRendue) {
+        quantite.addAndGet(quantiteRendue);
     }
 
     // Méthode pour mettre à jour la quantité et le prix du produit
-    public synchronized void updateProduit(int quantite, double prix) {
-        this.quantite = quantite;  // Modifie la quantité du produit
+    public void updateProduit(int quantite, double prix) {
+        this.quantite.set(quantite);  // Modifie la quantité du produit
         this.prix = prix;          // Modifie le prix du produit
     }
 
@@ -47,6 +69,6 @@ public class Produit {
     // Redéfinition de la méthode toString() pour afficher les informations du produit
     @Override
     public String toString() {
-        return id + " | " + nom + " | Quantité: " + quantite + " | Prix: " + prix;
+        return id + " | " + nom + " | Quantité: " + quantite.get() + " | Prix: " + prix;
     }
 }
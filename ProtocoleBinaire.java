@@ -0,0 +1,113 @@
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Protocole binaire, négocié après le message de bienvenue par la ligne texte "protocole binaire".
+// Le client attend la réponse texte (terminée par "FIN") avant d'envoyer sa première trame.
+//
+// Requête : [int longueur][octet opération][int idRequete][champs...]
+// Réponse : [int longueur][int idRequete][octet statut][texte UTF-8 de la réponse, sans "FIN"]
+// La longueur compte les octets qui la suivent. Une chaîne est codée [short longueur][octets UTF-8] ; le texte d'une
+// requête TEXTE est codé [int longueur][octets UTF-8], pour qu'un lot entier tienne dans une requête (au plus TAILLE_MAX_TRAME).
+// Chaque réponse reprend l'idRequete de sa requête : le client peut envoyer plusieurs requêtes sans attendre les réponses.
+public class ProtocoleBinaire {
+    public static final int TAILLE_MAX_TRAME = 1 << 20; // Taille maximale d'une requête (hors longueur)
+    public static final int TAILLE_MAX_REPONSE = 1 << 30; // Taille maximale d'une réponse (un catalogue complet peut être long)
+
+    // Opérations
+    public static final byte TEXTE = 0;               // [texte ligne] : n'importe quelle commande du protocole texte
+    public static final byte CATALOGUE = 1;           // [int debut][int limite][chaîne prefixe, vide = aucun]
+    public static final byte AJOUTER_AU_CHARIOT = 2;  // [chaîne idProduit][int quantite]
+    public static final byte COMMANDER = 3;
+    public static final byte AFFICHER_CHARIOT = 4;
+    public static final byte VOIR_COMMANDES = 5;      // [int debut][int limite], facultatifs (tout l'historique sinon)
+    public static final byte AJOUTER_PRODUIT = 6;     // [chaîne id][chaîne nom][int quantite][double prix]
+    public static final byte MODIFIER_PRODUIT = 7;    // [chaîne id][int quantite][double prix]
+    public static final byte SUPPRIMER_PRODUIT = 8;   // [chaîne id]
+
+    // Statuts de réponse
+    public static final byte OK = 0;
+    public static final byte ERREUR = 1;
+    public static final byte OCCUPE = 2; // Requête refusée par le contrôle d'admission : le client peut réessayer plus tard
+
+    // Méthode pour lire une trame de requête complète ; renvoie null si le flux est terminé
+    public static ByteBuffer lireTrame(DataInputStream in) throws IOException {
+        return lireTrame(in, TAILLE_MAX_TRAME);
+    }
+
+    // Méthode pour lire une trame complète d'au plus "tailleMax" octets ; renvoie null si le flux est terminé
+    public static ByteBuffer lireTrame(DataInputStream in, int tailleMax) throws IOException {
+        int longueur;
+        try {
+            longueur = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (longueur <= 0 || longueur > tailleMax) {
+            throw new IOException("Trame binaire invalide (longueur " + longueur + ")");
+        }
+        byte[] trame = new byte[longueur];
+        in.readFully(trame);
+        return ByteBuffer.wrap(trame);
+    }
+
+    // Méthode pour vérifier la longueur annoncée d'une trame
+    public static void verifierLongueur(int longueur) throws IOException {
+        if (longueur <= 0 || longueur > TAILLE_MAX_TRAME) {
+            throw new IOException("Trame binaire invalide (longueur " + longueur + ")");
+        }
+    }
+
+    // Méthode pour lire une chaîne dans une trame
+    public static String lireChaine(ByteBuffer trame) {
+        int longueur = trame.getShort() & 0xFFFF;
+        String chaine = new String(trame.array(), trame.arrayOffset() + trame.position(), longueur, StandardCharsets.UTF_8);
+        trame.position(trame.position() + longueur);
+        return chaine;
+    }
+
+    // Méthode pour écrire une chaîne dans une trame
+    public static void ecrireChaine(DataOutputStream out, String chaine) throws IOException {
+        byte[] octets = chaine.getBytes(StandardCharsets.UTF_8);
+        if (octets.length > 0xFFFF) {
+            throw new IOException("Chaîne trop longue pour le protocole binaire");
+        }
+        out.writeShort(octets.length);
+        out.write(octets);
+    }
+
+    // Méthode pour lire le texte d'une requête TEXTE (longueur sur quatre octets)
+    public static String lireTexte(ByteBuffer trame) {
+        int longueur = trame.getInt();
+        if (longueur < 0 || longueur > trame.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String texte = new String(trame.array(), trame.arrayOffset() + trame.position(), longueur, StandardCharsets.UTF_8);
+        trame.position(trame.position() + longueur);
+        return texte;
+    }
+
+    // Méthode pour écrire le texte d'une requête TEXTE ; la trame entière doit tenir dans TAILLE_MAX_TRAME octets
+    public static void ecrireTexte(DataOutputStream out, String texte) throws IOException {
+        byte[] octets = texte.getBytes(StandardCharsets.UTF_8);
+        if (octets.length > TAILLE_MAX_TRAME - 9) { // Opération, idRequete et longueur du texte
+            throw new IOException("Texte trop long pour le protocole binaire (" + octets.length + " octets, au plus "
+                    + (TAILLE_MAX_TRAME - 9) + ")");
+        }
+        out.writeInt(octets.length);
+        out.write(octets);
+    }
+
+    // Méthode pour écrire une trame de réponse dont le texte se trouve dans "contenu"
+    public static void ecrireReponse(OutputStream out, int idRequete, byte statut, ByteArrayOutputStream contenu) throws IOException {
+        int longueur = 5 + contenu.size();
+        byte[] entete = {
+            (byte) (longueur >>> 24), (byte) (longueur >>> 16), (byte) (longueur >>> 8), (byte) longueur,
+            (byte) (idRequete >>> 24), (byte) (idRequete >>> 16), (byte) (idRequete >>> 8), (byte) idRequete,
+            statut
+        };
+        out.write(entete);
+        contenu.writeTo(out);
+    }
+}
@@ -0,0 +1,609 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Routeur du mode cluster : le stock est réparti entre plusieurs serveurs de partition (GestionnaireStockServer lancé avec
+// --partition=I/N), et les clients se connectent au routeur, qui parle le même protocole texte qu'un serveur seul.
+// - Les commandes qui portent sur un produit (ajouter_au_chariot, ajouter_produit, ...) vont au serveur qui le possède
+//   (Partition.partitionDe) ; catalogue, rechercher, voir_commandes, stats et les ventes interrogent toutes les partitions
+//   en parallèle et fusionnent les réponses.
+// - Chaque session du routeur ouvre, à la première utilisation, une session sur chaque partition concernée
+//   (protocole binaire, requêtes en parallèle) : le chariot d'un client est ainsi réparti entre ses partitions.
+// - "commander" sur une seule partition est transmis tel quel. Sur plusieurs partitions, la commande est validée en deux
+//   phases : "preparer" réserve le chariot sur chaque partition ; si toutes réussissent, "confirmer" crée les commandes,
+//   sinon "annuler" rend le stock. Une partition qui n'a pas répondu à "preparer" après --delai-transaction est
+//   abandonnée (connexion fermée) : la partition rend alors d'elle-même la réservation de la session, comme lorsque le
+//   routeur s'arrête. Une réservation préparée n'expire pas : la confirmation ne peut pas la trouver déjà rendue.
+// Le routeur ne garde aucun stock : on peut en lancer plusieurs devant les mêmes partitions. Chaque partition n'a qu'un
+// administrateur : seul le premier routeur démarré obtient ce rôle et accueille l'administrateur du cluster. Les routeurs
+// suivants sont secondaires : ils ne servent que des clients, et les commandes d'administration passent par le premier.
+// Les routeurs doivent donc être démarrés l'un après l'autre.
+// Exemple : java RouteurCluster --port=12345 --partitions=localhost:13000,localhost:13001
+public class RouteurCluster {
+    private static final int PORT = 12345; // Port d'écoute par défaut
+    private static final long DELAI_REPONSE_MS = 30_000; // Attente maximale d'une réponse de partition
+
+    private final String[] hotes;
+    private final int[] ports;
+    private final long delaiTransactionMs; // Attente maximale des réponses à "preparer"
+    private final ClientBinaire[] admins; // Connexion administrateur à chaque partition, ou null si le rôle n'a pas été obtenu
+    private final AtomicBoolean adminConnecte = new AtomicBoolean(false); // Un seul administrateur à la fois, comme sur un serveur
+    private volatile boolean secondaire; // Vrai si une partition a refusé le rôle d'administrateur (un autre routeur le tient)
+    private final String prefixeTransactions = UUID.randomUUID().toString().substring(0, 8); // Distingue les routeurs entre eux
+    private final AtomicLong prochaineTransaction = new AtomicLong();
+
+    // Constructeur : "adresses" donne chaque partition sous la forme "hote:port", dans l'ordre des numéros de partition.
+    // Le routeur prend aussitôt le rôle d'administrateur sur chaque partition, pour y transmettre les commandes de son administrateur.
+    public RouteurCluster(List<String> adresses, long delaiTransactionMs) {
+        int nombre = adresses.size();
+        this.hotes = new String[nombre];
+        this.ports = new int[nombre];
+        this.admins = new ClientBinaire[nombre];
+        this.delaiTransactionMs = delaiTransactionMs;
+        for (int p = 0; p < nombre; p++) {
+            String adresse = adresses.get(p);
+            int separateur = adresse.lastIndexOf(':');
+            hotes[p] = adresse.substring(0, separateur);
+            ports[p] = Integer.parseInt(adresse.substring(separateur + 1));
+            try {
+                adminDe(p);
+            } catch (IOException e) {
+                System.err.println("Partition " + p + " : " + e.getMessage());
+            }
+        }
+        if (secondaire) {
+            // Un administrateur connecté ici ne pourrait rien faire : aucune session ne reçoit le rôle, et celui des partitions
+            // déjà obtenu est rendu au premier routeur
+            for (int p = 0; p < nombre; p++) {
+                fermer(admins[p]);
+                admins[p] = null;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        // Options : "--port=N" (port d'écoute), "--partitions=HOTE:PORT,..." (les serveurs de partition, dans l'ordre),
+        // "--delai-transaction=MS" (attente maximale des réservations des partitions), "--virtuel" (threads virtuels)
+        int port = PORT;
+        List<String> adresses = new ArrayList<>();
+        long delaiTransaction = 5000;
+        boolean modeVirtuel = false;
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--partitions=")) {
+                adresses = Arrays.asList(arg.substring("--partitions=".length()).split(","));
+            } else if (arg.startsWith("--delai-transaction=")) {
+                delaiTransaction = Long.parseLong(arg.substring("--delai-transaction=".length()));
+            } else if (arg.equals("--virtuel")) {
+                modeVirtuel = true;
+            } else {
+                System.err.println("Option inconnue : " + arg);
+            }
+        }
+        if (adresses.isEmpty()) {
+            System.err.println("Usage : java RouteurCluster --partitions=HOTE:PORT,HOTE:PORT,... [--port=N] [--delai-transaction=MS] [--virtuel]");
+            return;
+        }
+        try {
+            new RouteurCluster(adresses, delaiTransaction).demarrer(port, modeVirtuel);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Méthode pour accepter les clients : une session par connexion
+    public void demarrer(int port, boolean virtuel) throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            System.out.println("Routeur démarré sur le port " + port + " (" + hotes.length + " partitions"
+                    + (secondaire ? ", secondaire : sans administrateur)." : ")."));
+            ExecutorService executor = FabriqueExecuteurs.creer(virtuel);
+            while (true) {
+                executor.submit(new SessionRouteur(serverSocket.accept()));
+            }
+        }
+    }
+
+    private int partitionDe(String idProduit) {
+        return Partition.partitionDe(idProduit, hotes.length);
+    }
+
+    // Connexion administrateur à une partition, rouverte si elle a été perdue
+    private synchronized ClientBinaire adminDe(int p) throws IOException {
+        if (admins[p] == null) {
+            ClientBinaire connexion = new ClientBinaire(hotes[p], ports[p]);
+            if (!connexion.getBienvenue().contains("Administrateur")) {
+                connexion.close();
+                secondaire = true;
+                throw new IOException("Erreur : Rôle administrateur indisponible sur la partition " + p + ".");
+            }
+            admins[p] = connexion;
+        }
+        return admins[p];
+    }
+
+    private synchronized void oublierAdmin(int p, ClientBinaire connexion) {
+        if (admins[p] == connexion) {
+            admins[p] = null;
+        }
+    }
+
+    // Attend une réponse de partition ; une partition qui ne répond pas fait échouer la commande
+    private static ClientBinaire.Reponse attendre(int p, CompletableFuture<ClientBinaire.Reponse> reponse, long delaiMs) throws IOException {
+        try {
+            return reponse.get(delaiMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IOException("Erreur : Partition " + p + " indisponible.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Erreur : Partition " + p + " indisponible.");
+        }
+    }
+
+    private static void afficher(PrintWriter writer, String texte) {
+        if (!texte.isEmpty()) {
+            writer.println(texte);
+        }
+    }
+
+    // Clé de tri d'une ligne du catalogue ("ID | nom | ...") : l'ID, comme dans CacheCatalogue
+    private static String idDeLigne(String ligne) {
+        int fin = ligne.indexOf(" | ");
+        return fin < 0 ? ligne : ligne.substring(0, fin);
+    }
+
+    // Session d'un client du routeur
+    private final class SessionRouteur implements Runnable {
+        private final Socket socket;
+        private final ClientBinaire[] connexions = new ClientBinaire[hotes.length]; // Ouvertes à la première utilisation
+        private final boolean[] chariotNonVide = new boolean[hotes.length]; // Partitions où le chariot contient des produits
+        private boolean isAdmin;
+
+        SessionRouteur(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            try (
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                PrintWriter writer = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(socket.getOutputStream()), StandardCharsets.UTF_8))
+            ) {
+                isAdmin = !secondaire && adminConnecte.compareAndSet(false, true);
+                writer.println(isAdmin ? "Bienvenue, Administrateur !" : "Bienvenue, Client !");
+                writer.flush();
+                String ligne;
+                while ((ligne = reader.readLine()) != null) {
+                    String[] parts = ligne.split(" ");
+                    try {
+                        if (isAdmin) {
+                            traiterAdmin(ligne, parts, writer);
+                        } else {
+                            traiterClient(ligne, parts, writer);
+                        }
+                    } catch (Exception e) {
+                        writer.println(e.getMessage());
+                    }
+                    writer.println("FIN");
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                System.err.println("Erreur avec le client : " + e.getMessage());
+            } finally {
+                if (isAdmin) {
+                    adminConnecte.set(false);
+                }
+                for (ClientBinaire connexion : connexions) {
+                    fermer(connexion); // Les partitions détachent les sessions ; un chariot vide y est oublié
+                }
+            }
+        }
+
+        private void traiterClient(String ligne, String[] parts, PrintWriter writer) throws Exception {
+            switch (parts[0]) {
+                case "catalogue":
+                    catalogue(parts, writer);
+                    break;
+
+                case "rechercher":
+                    rechercher(ligne, parts, writer);
+                    break;
+
+                case "ajouter_au_chariot":
+                    if (parts.length == 3) {
+                        int p = partitionDe(parts[1]);
+                        ClientBinaire.Reponse reponse = demander(p, ligne);
+                        afficher(writer, reponse.getTexte());
+                        chariotNonVide[p] |= reponse.isSucces();
+                    } else {
+                        throw new InvalidOrderException("Erreur : Format invalide.");
+                    }
+                    break;
+
+                case "commander":
+                    commander(writer);
+                    break;
+
+                case "afficher_chariot":
+                    afficherChariot(writer);
+                    break;
+
+                case "voir_commandes":
+                    // Les commandes de chaque partition, partition par partition ; la pagination s'applique à chacune
+                    for (ClientBinaire.Reponse reponse : diffuser(ligne, connexionsOuvertes())) {
+                        afficher(writer, reponse.getTexte());
+                    }
+                    break;
+
+                case "abonner":
+                case "desabonner":
+                case "session":
+                case "reprendre":
+                    throw new InvalidOrderException("Erreur : Commande non disponible en mode cluster.");
+
+                default:
+                    writer.println("Commande inconnue pour client.");
+                    break;
+            }
+        }
+
+        private void traiterAdmin(String ligne, String[] parts, PrintWriter writer) throws Exception {
+            switch (parts[0]) {
+                case "ajouter_produit":
+                case "modifier_produit":
+                case "supprimer_produit":
+                case "ventes_produit": {
+                    int p = parts.length > 1 ? partitionDe(parts[1]) : 0; // Sans ID, la partition 0 signale le format invalide
+                    afficher(writer, demanderAdmin(p, ligne).getTexte());
+                    break;
+                }
+
+                case "stats":
+                case "ventes": {
+                    List<ClientBinaire.Reponse> reponses = diffuserAdmin(ligne);
+                    for (int p = 0; p < reponses.size(); p++) {
+                        writer.println("# Partition " + p + " (" + hotes[p] + ":" + ports[p] + ")");
+                        afficher(writer, reponses.get(p).getTexte());
+                    }
+                    break;
+                }
+
+                case "top_ventes":
+                    meilleuresVentes(ligne, parts, writer);
+                    break;
+
+                case "importer":
+                case "lot":
+                case "fin_lot":
+                case "abonner":
+                case "desabonner":
+                    throw new InvalidOrderException("Erreur : Commande non disponible en mode cluster.");
+
+                default:
+                    writer.println("Commande inconnue pour administrateur.");
+                    break;
+            }
+        }
+
+        // Catalogue fusionné : chaque partition renvoie ses "debut + limite" premiers produits, triés par ID,
+        // puis le routeur les trie ensemble et garde la page demandée
+        private void catalogue(String[] parts, PrintWriter writer) throws Exception {
+            int debut = 0;
+            int limite = Integer.MAX_VALUE;
+            String prefixe = null;
+            if (parts.length == 2) {
+                prefixe = parts[1];
+            } else if (parts.length == 3 || parts.length == 4) {
+                debut = Integer.parseInt(parts[1]);
+                limite = Integer.parseInt(parts[2]);
+                prefixe = parts.length == 4 ? parts[3] : null;
+            } else if (parts.length != 1) {
+                throw new InvalidOrderException("Erreur : Format invalide pour catalogue.");
+            }
+            if (debut < 0 || limite < 0) {
+                throw new InvalidOrderException("Erreur : Pagination invalide.");
+            }
+            String requete = limite == Integer.MAX_VALUE
+                    ? "catalogue" + (prefixe != null ? " " + prefixe : "")
+                    : "catalogue 0 " + (int) Math.min(Integer.MAX_VALUE, (long) debut + limite) + (prefixe != null ? " " + prefixe : "");
+            List<String> lignes = new ArrayList<>();
+            for (ClientBinaire.Reponse reponse : diffuser(requete, toutes())) {
+                if (!reponse.isSucces()) {
+                    writer.println(reponse.getTexte());
+                    return;
+                }
+                lignes.addAll(reponse.getLignes());
+            }
+            lignes.sort(Comparator.comparing(RouteurCluster::idDeLigne));
+            int fin = (int) Math.min(lignes.size(), (long) debut + limite);
+            for (int i = debut; i < fin; i++) {
+                writer.println(lignes.get(i));
+            }
+        }
+
+        // Recherche sur toutes les partitions : les résultats sont mis bout à bout, dans la limite demandée
+        private void rechercher(String ligne, String[] parts, PrintWriter writer) throws Exception {
+            int limite = 20;
+            for (String part : parts) {
+                if (part.startsWith("max:")) {
+                    limite = Integer.parseInt(part.substring(4)); // Les partitions valident la valeur
+                }
+            }
+            List<String> trouves = new ArrayList<>();
+            for (ClientBinaire.Reponse reponse : diffuser(ligne, toutes())) {
+                if (!reponse.isSucces()) {
+                    writer.println(reponse.getTexte());
+                    return;
+                }
+                for (String produit : reponse.getLignes()) {
+                    if (!produit.equals("Aucun produit trouvé.")) {
+                        trouves.add(produit);
+                    }
+                }
+            }
+            if (trouves.isEmpty()) {
+                writer.println("Aucun produit trouvé.");
+            }
+            for (int i = 0; i < Math.min(limite, trouves.size()); i++) {
+                writer.println(trouves.get(i));
+            }
+        }
+
+        private void commander(PrintWriter writer) throws Exception {
+            List<Integer> concernees = new ArrayList<>();
+            for (int p = 0; p < chariotNonVide.length; p++) {
+                if (chariotNonVide[p]) {
+                    concernees.add(p);
+                }
+            }
+            if (concernees.size() <= 1) {
+                // Une seule partition : sa réservation est déjà atomique. Un chariot vide est commandé sur la partition 0,
+                // comme un serveur seul le ferait.
+                int p = concernees.isEmpty() ? 0 : concernees.get(0);
+                ClientBinaire.Reponse reponse = demander(p, "commander");
+                afficher(writer, reponse.getTexte());
+                if (reponse.isSucces()) {
+                    chariotNonVide[p] = false;
+                }
+                return;
+            }
+
+            // Première phase : réservation sur chaque partition, en parallèle
+            String transaction = prefixeTransactions + "-" + prochaineTransaction.incrementAndGet();
+            Map<Integer, CompletableFuture<ClientBinaire.Reponse>> preparations = new LinkedHashMap<>();
+            for (int p : concernees) {
+                preparations.put(p, envoyer(p, "preparer " + transaction));
+            }
+            List<Integer> preparees = new ArrayList<>();
+            String refus = null;
+            long centimes = 0;
+            long echeance = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delaiTransactionMs);
+            for (Map.Entry<Integer, CompletableFuture<ClientBinaire.Reponse>> preparation : preparations.entrySet()) {
+                int p = preparation.getKey();
+                try {
+                    long reste = Math.max(0, TimeUnit.NANOSECONDS.toMillis(echeance - System.nanoTime()));
+                    ClientBinaire.Reponse reponse = attendre(p, preparation.getValue(), reste);
+                    if (reponse.isSucces()) {
+                        preparees.add(p);
+                        String texte = reponse.getTexte();
+                        centimes += Math.round(Double.parseDouble(texte.substring(texte.lastIndexOf(' ') + 1)) * 100);
+                    } else if (refus == null) {
+                        refus = reponse.getTexte();
+                    }
+                } catch (IOException e) {
+                    oublier(p); // La partition rend la réservation de la session fermée, si elle l'a faite
+                    if (refus == null) {
+                        refus = e.getMessage();
+                    }
+                }
+            }
+            if (refus != null) {
+                for (int p : preparees) {
+                    envoyer(p, "annuler " + transaction); // Sans attendre : la partition traite les requêtes dans l'ordre
+                }
+                throw new StockUnavailableException(refus);
+            }
+
+            // Seconde phase : confirmation sur chaque partition
+            Map<Integer, CompletableFuture<ClientBinaire.Reponse>> confirmations = new LinkedHashMap<>();
+            for (int p : preparees) {
+                confirmations.put(p, envoyer(p, "confirmer " + transaction));
+            }
+            List<Integer> echecs = new ArrayList<>();
+            String erreur = null;
+            for (Map.Entry<Integer, CompletableFuture<ClientBinaire.Reponse>> confirmation : confirmations.entrySet()) {
+                int p = confirmation.getKey();
+                try {
+                    ClientBinaire.Reponse reponse = attendre(p, confirmation.getValue(), DELAI_REPONSE_MS);
+                    if (reponse.isSucces()) {
+                        chariotNonVide[p] = false;
+                    } else {
+                        echecs.add(p);
+                        erreur = reponse.getTexte();
+                    }
+                } catch (IOException e) {
+                    oublier(p); // Session de partition abandonnée, comme après un échec de "preparer"
+                    echecs.add(p);
+                    erreur = e.getMessage();
+                }
+            }
+            if (!echecs.isEmpty()) {
+                // Partition perdue ou journal en échec entre les deux phases : les autres partitions ont déjà créé leur commande
+                throw new InvalidOrderException("Erreur : Commande incomplète, non confirmée sur la partition " + echecs + " : " + erreur);
+            }
+            writer.println("Commande passée. Total : " + centimes / 100.0);
+        }
+
+        // Chariot réuni à partir des partitions où la session en a un
+        private void afficherChariot(PrintWriter writer) throws Exception {
+            StringBuilder sb = new StringBuilder("Chariot :\n");
+            for (ClientBinaire.Reponse reponse : diffuser("afficher_chariot", connexionsOuvertes())) {
+                List<String> lignes = reponse.getLignes();
+                for (int i = 1; i < lignes.size(); i++) { // La première ligne est l'en-tête "Chariot :"
+                    if (!lignes.get(i).isEmpty()) {
+                        sb.append(lignes.get(i)).append('\n');
+                    }
+                }
+            }
+            writer.println(sb);
+        }
+
+        // Meilleures ventes du cluster : chaque produit n'est vendu que par sa partition, si bien que les "k" premiers
+        // de chaque partition suffisent pour trouver les "k" premiers du cluster
+        private void meilleuresVentes(String ligne, String[] parts, PrintWriter writer) throws Exception {
+            int k = parts.length == 2 ? Integer.parseInt(parts[1]) : 10;
+            List<String> classement = new ArrayList<>();
+            for (ClientBinaire.Reponse reponse : diffuserAdmin(ligne)) {
+                if (!reponse.isSucces()) {
+                    writer.println(reponse.getTexte());
+                    return;
+                }
+                for (String produit : reponse.getLignes()) {
+                    int point = produit.indexOf(". ");
+                    if (point > 0 && Character.isDigit(produit.charAt(0))) {
+                        classement.add(produit.substring(point + 2)); // "ID : U unités, ..." sans le rang de la partition
+                    }
+                }
+            }
+            classement.sort(Comparator.comparingLong((String produit) -> {
+                int debut = produit.indexOf(" : ") + 3;
+                return Long.parseLong(produit.substring(debut, produit.indexOf(' ', debut)));
+            }).reversed());
+            if (classement.isEmpty()) {
+                writer.println("Aucune vente.");
+            }
+            for (int i = 0; i < Math.min(k, classement.size()); i++) {
+                writer.println((i + 1) + ". " + classement.get(i));
+            }
+        }
+
+        private List<Integer> toutes() {
+            List<Integer> partitions = new ArrayList<>();
+            for (int p = 0; p < hotes.length; p++) {
+                partitions.add(p);
+            }
+            return partitions;
+        }
+
+        private List<Integer> connexionsOuvertes() {
+            List<Integer> partitions = new ArrayList<>();
+            for (int p = 0; p < connexions.length; p++) {
+                if (connexions[p] != null) {
+                    partitions.add(p);
+                }
+            }
+            return partitions;
+        }
+
+        // Session du client sur une partition, ouverte à la première utilisation
+        private ClientBinaire connexion(int p) throws IOException {
+            if (connexions[p] == null) {
+                ClientBinaire connexion;
+                try {
+                    connexion = new ClientBinaire(hotes[p], ports[p]);
+                    if (connexion.getBienvenue().contains("Administrateur")) {
+                        // Le rôle était libre (connexion administrateur du routeur perdue) : le premier routeur le reprend,
+                        // un routeur secondaire le rend (en fermant la connexion) pour que le premier puisse le reprendre
+                        ClientBinaire admin = connexion;
+                        connexion = new ClientBinaire(hotes[p], ports[p]);
+                        if (secondaire) {
+                            fermer(admin);
+                        } else {
+                            synchronized (RouteurCluster.this) {
+                                fermer(admins[p]);
+                                admins[p] = admin;
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new IOException("Erreur : Partition " + p + " indisponible.");
+                }
+                connexions[p] = connexion;
+            }
+            return connexions[p];
+        }
+
+        // Oublie une session de partition en panne : le chariot qu'elle portait est perdu
+        private void oublier(int p) {
+            fermer(connexions[p]);
+            connexions[p] = null;
+            chariotNonVide[p] = false;
+        }
+
+        private CompletableFuture<ClientBinaire.Reponse> envoyer(int p, String ligne) throws IOException {
+            ClientBinaire connexion = connexion(p);
+            CompletableFuture<ClientBinaire.Reponse> reponse = connexion.texte(ligne);
+            connexion.vider();
+            return reponse;
+        }
+
+        private ClientBinaire.Reponse demander(int p, String ligne) throws IOException {
+            try {
+                return attendre(p, envoyer(p, ligne), DELAI_REPONSE_MS);
+            } catch (IOException e) {
+                oublier(p);
+                throw e;
+            }
+        }
+
+        // Envoie la même requête aux partitions données, puis attend toutes les réponses
+        private List<ClientBinaire.Reponse> diffuser(String ligne, List<Integer> partitions) throws IOException {
+            List<CompletableFuture<ClientBinaire.Reponse>> envois = new ArrayList<>();
+            for (int p : partitions) {
+                envois.add(envoyer(p, ligne));
+            }
+            List<ClientBinaire.Reponse> reponses = new ArrayList<>();
+            for (int i = 0; i < envois.size(); i++) {
+                try {
+                    reponses.add(attendre(partitions.get(i), envois.get(i), DELAI_REPONSE_MS));
+                } catch (IOException e) {
+                    oublier(partitions.get(i));
+                    throw e;
+                }
+            }
+            return reponses;
+        }
+
+        private ClientBinaire.Reponse demanderAdmin(int p, String ligne) throws IOException {
+            ClientBinaire admin = adminDe(p);
+            try {
+                CompletableFuture<ClientBinaire.Reponse> reponse = admin.texte(ligne);
+                admin.vider();
+                return attendre(p, reponse, DELAI_REPONSE_MS);
+            } catch (IOException e) {
+                oublierAdmin(p, admin);
+                fermer(admin);
+                throw new IOException("Erreur : Partition " + p + " indisponible.");
+            }
+        }
+
+        // Requête d'administration envoyée à toutes les partitions en parallèle
+        private List<ClientBinaire.Reponse> diffuserAdmin(String ligne) throws IOException {
+            List<CompletableFuture<ClientBinaire.Reponse>> envois = new ArrayList<>();
+            for (int p = 0; p < hotes.length; p++) {
+                ClientBinaire admin = adminDe(p);
+                envois.add(admin.texte(ligne));
+                admin.vider();
+            }
+            List<ClientBinaire.Reponse> reponses = new ArrayList<>();
+            for (int p = 0; p < hotes.length; p++) {
+                reponses.add(attendre(p, envois.get(p), DELAI_REPONSE_MS));
+            }
+            return reponses;
+        }
+    }
+
+    private static void fermer(ClientBinaire connexion) {
+        if (connexion != null) {
+            try {
+                connexion.close();
+            } catch (IOException e) {
+                // Connexion déjà fermée
+            }
+        }
+    }
+}
@@ -0,0 +1,375 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Serveur non bloquant : un petit nombre de boucles d'événements (Selector) gèrent toutes les connexions,
+// au lieu d'un thread bloqué sur readLine() par client. Le protocole texte reste identique (réponses terminées par "FIN").
+// Une requête qui peut bloquer (attente de la synchronisation du journal, import d'un fichier ; voir
+// ClientHandler.estBloquante) est confiée à un pool de travailleurs : la boucle continue de servir les autres connexions,
+// ne lit plus rien de celle-ci jusqu'à la fin de la requête, puis reprend ses octets déjà reçus, dans l'ordre.
+public class ServeurNio {
+    private static final int TAILLE_TAMPON_LECTURE = 64 * 1024; // Taille du tampon direct de lecture de chaque boucle
+    private static final int TAILLE_MAX_LIGNE = 64 * 1024; // Au-delà, la connexion est jugée invalide et fermée
+
+    private final int port; // Le port d'écoute du serveur
+    private final int nombreBoucles; // Le nombre de threads de boucle d'événements
+    private final ContexteServeur contexte; // L'état partagé du serveur
+    private final ExecutorService travailleurs; // Exécution des requêtes bloquantes, hors des boucles d'événements
+
+    // Constructeur du serveur NIO
+    public ServeurNio(int port, int nombreBoucles, ContexteServeur contexte) {
+        this.port = port;
+        this.nombreBoucles = nombreBoucles;
+        this.contexte = contexte;
+        int threads = Math.max(16, 4 * Runtime.getRuntime().availableProcessors()); // Les attentes du journal se regroupent
+        this.travailleurs = Executors.newFixedThreadPool(threads, tache -> {
+            Thread thread = new Thread(tache, "travail-nio");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Méthode pour démarrer les boucles d'événements puis accepter les connexions (bloque le thread appelant)
+    public void demarrer() throws IOException {
+        BoucleEvenements[] boucles = new BoucleEvenements[nombreBoucles];
+        for (int i = 0; i < nombreBoucles; i++) {
+            boucles[i] = new BoucleEvenements();
+            Thread thread = new Thread(boucles[i], "boucle-nio-" + i);
+            thread.start();
+        }
+
+        try (ServerSocketChannel serveur = ServerSocketChannel.open()) {
+            serveur.bind(new InetSocketAddress(port));
+            System.out.println("Serveur NIO démarré sur le port " + port + " (" + nombreBoucles + " boucles).");
+
+            int suivante = 0;
+            // Boucle infinie d'acceptation : chaque connexion est confiée à une boucle, à tour de rôle
+            while (true) {
+                SocketChannel client = serveur.accept();
+                ControleAdmission admission = contexte.getAdmission();
+                if (admission != null && !admission.accepterConnexion()) {
+                    // Trop de connexions ouvertes : refus explicite plutôt qu'une connexion de plus à servir
+                    contexte.getMetriques().requeteRejetee(MetriquesServeur.AUTRE, ControleAdmission.MOTIF_CONNEXIONS);
+                    try {
+                        client.write(ByteBuffer.wrap((ControleAdmission.OCCUPE + "\n").getBytes(StandardCharsets.UTF_8)));
+                    } catch (IOException e) {
+                        // Client déjà parti
+                    }
+                    client.close();
+                    continue;
+                }
+                client.configureBlocking(false);
+                client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                boucles[suivante].enregistrer(client);
+                suivante = (suivante + 1) % nombreBoucles;
+            }
+        }
+    }
+
+    // Requête confiée à un travailleur
+    private interface RequeteBloquante {
+        void executer() throws IOException;
+    }
+
+    // État d'une connexion : le gestionnaire de commandes, la ligne en cours de lecture et les réponses à envoyer
+    private final class Connexion {
+        private final SocketChannel canal;
+        private final ClientHandler handler;
+        private final ArrayDeque<ByteBuffer> aEcrire = new ArrayDeque<>(); // Réponses en attente d'écriture
+        private final ByteArrayOutputStream reponse = new ByteArrayOutputStream(); // Réponse en cours de construction
+        private final PrintWriter writer = new PrintWriter(new OutputStreamWriter(reponse, StandardCharsets.UTF_8));
+        private byte[] ligne = new byte[256]; // Octets de la ligne en cours (pas encore terminée par '\n'), ou des trames en mode binaire
+        private int longueurLigne;
+        // Vrai pendant qu'un travailleur exécute une requête bloquante : la boucle ne touche alors ni au gestionnaire
+        // ni à la réponse en cours, et ne lit plus la connexion
+        private boolean occupee;
+        private ByteBuffer reste; // Octets reçus après la requête bloquante (mode texte), traités à sa fin
+
+        Connexion(SocketChannel canal, BoucleEvenements boucle) {
+            this.canal = canal;
+            this.handler = new ClientHandler(contexte);
+            handler.definirSignalEvenements(() -> boucle.signalerEvenements(this));
+        }
+
+        // Ajoute un octet à la ligne courante, en agrandissant le tableau si nécessaire
+        void ajouterOctet(byte b) throws IOException {
+            if (longueurLigne == ligne.length) {
+                if (ligne.length >= TAILLE_MAX_LIGNE) {
+                    throw new IOException("Ligne trop longue");
+                }
+                ligne = Arrays.copyOf(ligne, ligne.length * 2);
+            }
+            ligne[longueurLigne++] = b;
+        }
+
+        // Décode la ligne complète (sans le '\r' éventuel) et la remet à zéro
+        String extraireLigne() {
+            int fin = longueurLigne;
+            if (fin > 0 && ligne[fin - 1] == '\r') {
+                fin--;
+            }
+            String texte = new String(ligne, 0, fin, StandardCharsets.UTF_8);
+            longueurLigne = 0;
+            return texte;
+        }
+
+        // Mode binaire : ajoute les octets reçus à ceux en attente, puis traite les trames complètes. S'arrête à la première
+        // requête bloquante et la renvoie (copiée) sans l'exécuter ; les trames suivantes restent en attente. Renvoie null sinon.
+        ByteBuffer lireTrames(ByteBuffer lecture) throws IOException {
+            int nouveaux = lecture.remaining();
+            if (longueurLigne + nouveaux > ligne.length) {
+                if (longueurLigne + nouveaux > ProtocoleBinaire.TAILLE_MAX_TRAME + 4 + TAILLE_TAMPON_LECTURE) {
+                    throw new IOException("Trame binaire trop longue");
+                }
+                ligne = Arrays.copyOf(ligne, Math.max(ligne.length * 2, longueurLigne + nouveaux));
+            }
+            lecture.get(ligne, longueurLigne, nouveaux);
+            longueurLigne += nouveaux;
+
+            ByteBuffer attente = ByteBuffer.wrap(ligne, 0, longueurLigne);
+            ByteBuffer bloquante = null;
+            while (attente.remaining() >= 4) {
+                int longueur = attente.getInt(attente.position());
+                ProtocoleBinaire.verifierLongueur(longueur);
+                if (attente.remaining() < 4 + longueur) {
+                    break; // Trame incomplète : la suite arrivera avec une prochaine lecture
+                }
+                int debutTrame = attente.position() + 4;
+                ByteBuffer trame = ByteBuffer.wrap(ligne, debutTrame, longueur).slice();
+                attente.position(debutTrame + longueur);
+                if (handler.estBloquante(trame)) {
+                    bloquante = ByteBuffer.wrap(Arrays.copyOfRange(ligne, debutTrame, debutTrame + longueur));
+                    break;
+                }
+                handler.traiterRequeteBinaire(trame, reponse);
+            }
+            // Les octets des trames pas encore traitées sont ramenés au début du tableau
+            longueurLigne = attente.remaining();
+            System.arraycopy(ligne, attente.position(), ligne, 0, longueurLigne);
+            return bloquante;
+        }
+
+        // Transfère la réponse construite par le ClientHandler dans la file d'écriture
+        void publierReponse() {
+            writer.flush();
+            if (reponse.size() > 0) {
+                aEcrire.add(ByteBuffer.wrap(reponse.toByteArray()));
+                reponse.reset();
+            }
+        }
+    }
+
+    // Boucle d'événements : un Selector, un tampon direct partagé et une file de nouvelles connexions
+    private final class BoucleEvenements implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> nouvelles = new ConcurrentLinkedQueue<>();
+        private final Queue<Connexion> aNotifier = new ConcurrentLinkedQueue<>(); // Connexions ayant des événements d'abonnement
+        private final Queue<Connexion> terminees = new ConcurrentLinkedQueue<>(); // Connexions dont la requête bloquante est finie
+        private final ByteBuffer lecture = ByteBuffer.allocateDirect(TAILLE_TAMPON_LECTURE);
+
+        BoucleEvenements() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        // Méthode appelée par le thread d'acceptation pour confier une connexion à cette boucle
+        void enregistrer(SocketChannel canal) {
+            nouvelles.add(canal);
+            selector.wakeup();
+        }
+
+        // Méthode appelée (depuis n'importe quel thread) quand des événements attendent d'être écrits sur une connexion
+        void signalerEvenements(Connexion connexion) {
+            aNotifier.add(connexion);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    accueillirNouvelles();
+                    reprendreTerminees();
+                    ecrireEvenements();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey cle = it.next();
+                        it.remove();
+                        Connexion connexion = (Connexion) cle.attachment();
+                        try {
+                            if (cle.isValid() && cle.isReadable()) {
+                                lire(cle, connexion);
+                            }
+                            if (cle.isValid() && cle.isWritable()) {
+                                ecrire(cle, connexion);
+                            }
+                        } catch (IOException e) {
+                            fermer(cle, connexion);
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("Erreur dans la boucle NIO : " + e.getMessage());
+                }
+            }
+        }
+
+        // Enregistre les connexions confiées par le thread d'acceptation et envoie le message de bienvenue
+        private void accueillirNouvelles() {
+            SocketChannel canal;
+            while ((canal = nouvelles.poll()) != null) {
+                Connexion connexion = new Connexion(canal, this);
+                try {
+                    SelectionKey cle = canal.register(selector, SelectionKey.OP_READ, connexion);
+                    connexion.handler.ouvrirSession(connexion.writer, connexion.reponse);
+                    connexion.publierReponse();
+                    ecrire(cle, connexion);
+                } catch (IOException e) {
+                    System.err.println("Erreur avec le client : " + e.getMessage());
+                    fermer(canal.keyFor(selector), connexion);
+                }
+            }
+        }
+
+        // Écrit les événements d'abonnement des connexions signalées. Une connexion qui a encore des réponses à écrire
+        // (client lent) les recevra quand sa file d'écriture sera vide ; d'ici là, ils se regroupent dans son abonnement.
+        private void ecrireEvenements() {
+            Connexion connexion;
+            while ((connexion = aNotifier.poll()) != null) {
+                SelectionKey cle = connexion.canal.keyFor(selector);
+                if (cle == null || !cle.isValid() || connexion.occupee || !connexion.aEcrire.isEmpty()) {
+                    continue;
+                }
+                try {
+                    ecrire(cle, connexion);
+                } catch (IOException e) {
+                    fermer(cle, connexion);
+                }
+            }
+        }
+
+        // Lit les octets disponibles, découpe les lignes complètes et les traite dans l'ordre
+        private void lire(SelectionKey cle, Connexion connexion) throws IOException {
+            lecture.clear();
+            int lus = connexion.canal.read(lecture);
+            if (lus < 0) {
+                fermer(cle, connexion);
+                return;
+            }
+            lecture.flip();
+            traiter(cle, connexion, lecture);
+        }
+
+        // Traite les octets reçus : les requêtes ordinaires sur place, la première requête bloquante par un travailleur
+        private void traiter(SelectionKey cle, Connexion connexion, ByteBuffer source) throws IOException {
+            while (!connexion.handler.estBinaire() && source.hasRemaining()) {
+                byte b = source.get();
+                if (b != '\n') {
+                    connexion.ajouterOctet(b);
+                    continue;
+                }
+                String ligne = connexion.extraireLigne();
+                if (connexion.handler.estBloquante(ligne)) {
+                    // La suite est copiée : "source" peut être le tampon de lecture partagé par la boucle
+                    connexion.reste = ByteBuffer.allocate(source.remaining()).put(source);
+                    connexion.reste.flip();
+                    executerHorsBoucle(cle, connexion, () -> connexion.handler.traiterLigne(ligne, connexion.writer));
+                    return;
+                }
+                connexion.handler.traiterLigne(ligne, connexion.writer);
+            }
+            if (connexion.handler.estBinaire()) {
+                ByteBuffer trame = connexion.lireTrames(source); // Le reste du tampon (et les lectures suivantes) sont des trames
+                if (trame != null) {
+                    executerHorsBoucle(cle, connexion, () -> connexion.handler.traiterRequeteBinaire(trame, connexion.reponse));
+                    return;
+                }
+            }
+            // Toutes les réponses du lot lu sont envoyées en une seule fois
+            connexion.publierReponse();
+            ecrire(cle, connexion);
+        }
+
+        // Requête exécutée par un travailleur ; peut écrire dans la réponse en cours de la connexion
+        private void executerHorsBoucle(SelectionKey cle, Connexion connexion, RequeteBloquante requete) throws IOException {
+            connexion.publierReponse(); // Les réponses précédentes partent pendant l'exécution
+            connexion.occupee = true;
+            ecrire(cle, connexion); // Sans réactiver la lecture
+            travailleurs.execute(() -> {
+                try {
+                    requete.executer();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Erreur avec le client : " + e.getMessage());
+                }
+                terminees.add(connexion);
+                selector.wakeup();
+            });
+        }
+
+        // Reprend les connexions dont la requête bloquante est terminée : envoi de la réponse puis des octets déjà reçus
+        private void reprendreTerminees() {
+            Connexion connexion;
+            while ((connexion = terminees.poll()) != null) {
+                connexion.occupee = false;
+                SelectionKey cle = connexion.canal.keyFor(selector);
+                if (cle == null || !cle.isValid()) {
+                    connexion.handler.fermerSession(); // Fermeture différée par fermer() pendant la requête
+                    continue;
+                }
+                ByteBuffer reste = connexion.reste != null ? connexion.reste : ByteBuffer.allocate(0);
+                connexion.reste = null;
+                try {
+                    traiter(cle, connexion, reste);
+                } catch (IOException e) {
+                    fermer(cle, connexion);
+                }
+            }
+        }
+
+        // Écrit autant que possible ; s'il reste des octets, on attend que le canal redevienne inscriptible
+        // sans lire de nouvelles commandes, pour qu'un client qui ne lit pas ses réponses ne fasse pas grossir la file.
+        // Une fois la file vide, les événements d'abonnement en attente sont ajoutés à la suite.
+        private void ecrire(SelectionKey cle, Connexion connexion) throws IOException {
+            while (true) {
+                while (!connexion.aEcrire.isEmpty()) {
+                    ByteBuffer tampon = connexion.aEcrire.peek();
+                    connexion.canal.write(tampon);
+                    if (tampon.hasRemaining()) {
+                        cle.interestOps(SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    connexion.aEcrire.poll();
+                }
+                if (connexion.occupee || !connexion.handler.aDesEvenements()) {
+                    break;
+                }
+                connexion.handler.ecrireEvenements(connexion.writer, connexion.reponse);
+                connexion.publierReponse();
+            }
+            cle.interestOps(connexion.occupee ? 0 : SelectionKey.OP_READ); // Rien n'est lu pendant une requête bloquante
+        }
+
+        // Ferme la connexion et libère sa clé
+        private void fermer(SelectionKey cle, Connexion connexion) {
+            if (cle != null) {
+                cle.cancel();
+            }
+            if (!connexion.occupee) {
+                connexion.handler.fermerSession(); // Sinon, après la requête en cours (reprendreTerminees)
+            }
+            ControleAdmission admission = contexte.getAdmission();
+            if (admission != null && connexion.canal.isOpen()) {
+                admission.connexionFermee(); // Une seule fois, même si la connexion est fermée deux fois
+            }
+            try {
+                connexion.canal.close();
+            } catch (IOException e) {
+                System.err.println("Erreur à la fermeture : " + e.getMessage());
+            }
+        }
+    }
+}
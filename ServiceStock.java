@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.*;
+
+// Point de passage unique des modifications du stock : chaque opération est journalisée (si la persistance est active),
+// appliquée à la Map du stock, puis signalée aux écouteurs.
+// Une modification fixe une quantité absolue, alors qu'une commande en retire une : au rejeu, le résultat dépend de
+// leur ordre dans le journal. Les opérations d'administration prennent donc le verrou d'écriture de "ordre" et les
+// réservations son verrou de lecture, le temps de retirer le stock et de confier la commande au journal (l'attente du
+// disque se fait hors du verrou) : le journal suit exactement l'ordre des modifications en mémoire.
+public class ServiceStock {
+    private final Map<String, Produit> stock; // Le stock de produits
+    private final JournalStock journal; // Le journal de persistance (null si désactivé)
+    private final List<EcouteurStock> ecouteurs = new CopyOnWriteArrayList<>(); // Les composants à prévenir
+    private final ReadWriteLock ordre = new ReentrantReadWriteLock(); // Ordonne réservations et opérations d'administration
+
+    // Constructeur du service
+    public ServiceStock(Map<String, Produit> stock, JournalStock journal) {
+        this.stock = stock;
+        this.journal = journal;
+    }
+
+    // Méthode pour enregistrer un écouteur des changements du stock
+    public void ajouterEcouteur(EcouteurStock ecouteur) {
+        ecouteurs.add(ecouteur);
+    }
+
+    public Map<String, Produit> getStock() {
+        return stock;
+    }
+
+    public JournalStock getJournal() {
+        return journal;
+    }
+
+    // Verrou à tenir pendant une réservation et l'ajout de son enregistrement au journal (voir MoteurReservation)
+    public Lock verrouReservations() {
+        return ordre.readLock();
+    }
+
+    // Méthode pour ajouter (ou remplacer) un produit
+    public void ajouterProduit(String id, String nom, int quantite, double prix) throws IOException {
+        Produit produit = new Produit(id, nom, quantite, prix);
+        ordre.writeLock().lock();
+        try {
+            if (journal != null) {
+                journal.journaliserAjout(id, nom, quantite, prix); // Journalisé avant d'être appliqué
+            }
+            stock.put(id, produit);
+        } finally {
+            ordre.writeLock().unlock();
+        }
+        for (EcouteurStock ecouteur : ecouteurs) {
+            ecouteur.produitAjoute(produit);
+        }
+    }
+
+    // Méthode pour modifier la quantité et le prix d'un produit existant
+    public void modifierProduit(String id, int quantite, double prix) throws IOException, StockUnavailableException {
+        Produit produit;
+        ordre.writeLock().lock();
+        try {
+            produit = stock.get(id);
+            if (produit == null) {
+                throw new StockUnavailableException("Erreur : Produit non trouvé.");
+            }
+            if (journal != null) {
+                journal.journaliserModification(id, quantite, prix);
+            }
+            produit.updateProduit(quantite, prix);
+        } finally {
+            ordre.writeLock().unlock();
+        }
+        notifierModification(produit);
+    }
+
+    // Méthode pour supprimer un produit
+    public void supprimerProduit(String id) throws IOException, StockUnavailableException {
+        ordre.writeLock().lock();
+        try {
+            if (!stock.containsKey(id)) {
+                throw new StockUnavailableException("Erreur : Produit non trouvé.");
+            }
+            if (journal != null) {
+                journal.journaliserSuppression(id);
+            }
+            stock.remove(id);
+        } finally {
+            ordre.writeLock().unlock();
+        }
+        for (EcouteurStock ecouteur : ecouteurs) {
+            ecouteur.produitSupprime(id);
+        }
+    }
+
+    // Méthode pour appliquer un lot d'opérations, dans l'ordre : les opérations invalides (modification ou suppression
+    // d'un produit absent) sont écartées avec un message dans "erreurs", les autres sont journalisées ensemble puis
+    // appliquées. Renvoie le nombre d'opérations appliquées.
+    public int appliquerLot(List<OperationStock> operations, List<String> erreurs) throws IOException {
+        ordre.writeLock().lock(); // Le lot entier est placé dans le journal entre deux réservations
+        try {
+            List<OperationStock> valides = new ArrayList<>(operations.size());
+            Map<String, Boolean> presents = new HashMap<>(); // Présence des produits déjà touchés par le lot
+            for (OperationStock operation : operations) {
+                String id = operation.getId();
+                Boolean present = presents.get(id);
+                if (present == null) {
+                    present = stock.containsKey(id);
+                }
+                if (operation.getType() != OperationStock.AJOUT && !present) {
+                    erreurs.add("Erreur : Produit non trouvé : " + id);
+                    continue;
+                }
+                presents.put(id, operation.getType() != OperationStock.SUPPRESSION);
+                valides.add(operation);
+            }
+            if (journal != null && !valides.isEmpty()) {
+                journal.journaliserLot(valides);
+            }
+            for (OperationStock operation : valides) {
+                switch (operation.getType()) {
+                    case OperationStock.AJOUT: {
+                        Produit produit = new Produit(operation.getId(), operation.getNom(), operation.getQuantite(), operation.getPrix());
+                        stock.put(produit.getId(), produit);
+                        for (EcouteurStock ecouteur : ecouteurs) {
+                            ecouteur.produitAjoute(produit);
+                        }
+                        break;
+                    }
+                    case OperationStock.MODIFICATION: {
+                        Produit produit = stock.get(operation.getId());
+                        produit.updateProduit(operation.getQuantite(), operation.getPrix());
+                        notifierModification(produit);
+                        break;
+                    }
+                    default:
+                        stock.remove(operation.getId());
+                        for (EcouteurStock ecouteur : ecouteurs) {
+                            ecouteur.produitSupprime(operation.getId());
+                        }
+                        break;
+                }
+            }
+            return valides.size();
+        } finally {
+            ordre.writeLock().unlock();
+        }
+    }
+
+    // Méthode pour signaler un changement de quantité fait en dehors du service (réservation lors d'une commande)
+    public void notifierModification(Produit produit) {
+        for (EcouteurStock ecouteur : ecouteurs) {
+            ecouteur.produitModifie(produit);
+        }
+    }
+}
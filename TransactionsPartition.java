@@ -0,0 +1,88 @@
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Côté serveur de partition, les commandes qui touchent plusieurs partitions sont validées en deux phases par le routeur :
+// "preparer" réserve le chariot de la session (le stock est retiré, comme pour "commander") et garde la réservation
+// en attente ; "confirmer" crée ensuite la commande, "annuler" rend le stock. Une réservation préparée n'expire pas :
+// une fois que toutes les partitions ont répondu, la confirmation du routeur ne peut plus échouer faute de réservation.
+// Elle est rendue quand la session qui l'a préparée quitte sa connexion (routeur arrêté, connexion perdue ou abandonnée
+// par le routeur faute de réponse), car plus personne ne peut alors la confirmer.
+public class TransactionsPartition {
+    private final MoteurReservation reservations;
+    private final Map<String, Preparation> enAttente = new ConcurrentHashMap<>(); // Par "sessionId/idTransaction"
+    private final LongAdder abandonnees = new LongAdder();
+
+    // Réservation en attente de confirmation
+    private static final class Preparation {
+        private final Map<String, Integer> produits;
+        private final long[] prix; // Prix unitaires réservés, en centimes (voir MoteurReservation.reserver)
+
+        Preparation(Map<String, Integer> produits, long[] prix) {
+            this.produits = produits;
+            this.prix = prix;
+        }
+    }
+
+    // Constructeur des transactions d'une partition
+    public TransactionsPartition(MoteurReservation reservations) {
+        this.reservations = reservations;
+    }
+
+    // Méthode pour réserver les produits d'une transaction de la session ; renvoie le total réservé
+    public double preparer(String sessionId, String idTransaction, Map<String, Integer> produits)
+            throws InvalidOrderException, StockUnavailableException, IOException {
+        String cle = sessionId + '/' + idTransaction;
+        if (enAttente.containsKey(cle)) {
+            throw new InvalidOrderException("Erreur : Transaction déjà préparée.");
+        }
+        long[] prix = new long[produits.size()];
+        double total = reservations.reserverTransaction(cle, produits, prix); // Tout ou rien, comme pour "commander"
+        enAttente.put(cle, new Preparation(produits, prix));
+        return total;
+    }
+
+    // Méthode pour transformer la réservation d'une transaction en commande de la session
+    public Commande confirmer(String sessionId, String idTransaction) throws InvalidOrderException, IOException {
+        String cle = sessionId + '/' + idTransaction;
+        Preparation preparation = enAttente.remove(cle);
+        if (preparation == null) {
+            throw new InvalidOrderException("Erreur : Transaction inconnue.");
+        }
+        return reservations.confirmerTransaction(cle, preparation.produits, preparation.prix, sessionId);
+    }
+
+    // Méthode pour annuler une réservation (sans effet si elle est inconnue)
+    public void annuler(String sessionId, String idTransaction) {
+        String cle = sessionId + '/' + idTransaction;
+        Preparation preparation = enAttente.remove(cle);
+        if (preparation != null) {
+            reservations.libererTransaction(cle, preparation.produits);
+        }
+    }
+
+    // Méthode pour rendre les réservations d'une session qui quitte sa connexion : elles ne peuvent plus être confirmées
+    public void abandonner(String sessionId) {
+        String prefixe = sessionId + '/';
+        for (String cle : enAttente.keySet()) {
+            if (cle.startsWith(prefixe)) {
+                Preparation preparation = enAttente.remove(cle);
+                if (preparation != null) {
+                    reservations.libererTransaction(cle, preparation.produits);
+                    abandonnees.increment();
+                }
+            }
+        }
+    }
+
+    // Méthode pour obtenir le nombre de réservations en attente de confirmation
+    public int getEnAttente() {
+        return enAttente.size();
+    }
+
+    // Méthode pour obtenir le nombre de réservations rendues parce que leur session a quitté sa connexion
+    public long getAbandonnees() {
+        return abandonnees.sum();
+    }
+}